@@ -1,22 +1,219 @@
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.LongAdder;
+
 /*
  * Class to simulate an Hub cable
  * rxPair represents the transmission twisted pair for station to send to hub
  * txPair represents the reception twisted pair wire for stations to receive from the hub
+ *
+ * With SEGMENT twisted pairs, hubForward() moves segments from the txPair
+ * of this cable to the rxPair of the next one without copying frames
+ * (unless the txPair injects faults).
+ *
+ * A cable created with mapped() keeps its pairs in a memory-mapped file,
+ * so that its station and its hub thread can be in different processes.
+ * The rxPair of a cable created with stationEnd() or hubEnd() is carried
+ * by a TCP connection, so that the hub thread transmitting to a station
+ * can be on another node.  withFaults() gives a cable that drops,
+ * corrupts or delays the frames xmitted by its station, withCapture() a
+ * cable whose frames are recorded (SEGMENT pairs then copy frames).
  */
 public class Cable 
 {
-	private TwistedPairVer1 txPair;   // For xmitting frames to hub
-	private TwistedPairVer1 rxPair;   // For recving frames from hub
+	private TwistedPair txPair;   // For xmitting frames to hub
+	private TwistedPair rxPair;   // For recving frames from hub
+	private TwistedPair.Kind pairKind;
+	private int num;   // cable number
+	private RandomAccessFile mappedFile;  // holds the lock of a mapped cable
+	// Counted by the station when RingMetrics are enabled
+	private LongAdder framesXmitted = new LongAdder();
+	private LongAdder charsXmitted = new LongAdder();
 	
 	/**
 	 * Constructor
 	 */
 	public Cable(int num)
 	{
-		txPair = new TwistedPairVer1();
-		rxPair = new TwistedPairVer1();
+		this(num, TwistedPair.Kind.MONITOR);
+	}
+
+	/*
+	 * Constructor selecting the twisted pair implementation; RING pairs
+	 * get the default capacity.
+	 */
+	public Cable(int num, TwistedPair.Kind kind)
+	{
+		this(num, kind, TwistedPairRing.DEFAULT_CAPACITY);
+	}
+
+	public Cable(int num, TwistedPair.Kind kind, int capacity)
+	{
+		this.num = num;
+		pairKind = kind;
+		txPair = createPair(kind, capacity);
+		rxPair = createPair(kind, capacity);
+	}
+
+	private Cable(int num, TwistedPair.Kind kind, TwistedPair tx, TwistedPair rx)
+	{
+		this.num = num;
+		pairKind = kind;
+		txPair = tx;
+		rxPair = rx;
+	}
+
+	/*-------------------------------------------------------------
+	Method: mapped
+	Parameters: int num - cable number
+	            String fileName - file holding the twisted pairs
+	            int capacity - capacity of each pair in characters
+	Returns: a cable with MAPPED twisted pairs
+	Description:
+	    Maps fileName (created if needed) and places the txPair and
+	    the rxPair in it.  Processes that map the same file share the
+	    cable; the first one initialises the pairs, the others attach
+	    to them.  Each process holds a shared lock on the byte after
+	    the pairs until close() (or its exit): a process that can lock
+	    that byte exclusively is the first of a new ring, and discards
+	    the frames left in the file by a previous ring.
+	-------------------------------------------------------------*/
+	public static Cable mapped(int num, String fileName, int capacity) throws IOException
+	{
+		int region = TwistedPairMapped.regionSize(capacity);
+		RandomAccessFile file = new RandomAccessFile(fileName, "rw");
+		try
+		{
+			FileChannel channel = file.getChannel();
+			FileLock lock = channel.lock(0, 2L * region, false);  // one process initialises the pairs
+			try
+			{
+				FileLock first = channel.tryLock(2L * region, 1, false);  // no other process of the ring
+				if(first != null) first.release();
+				channel.lock(2L * region, 1, true);  // held while the ring runs
+				MappedByteBuffer map = channel.map(FileChannel.MapMode.READ_WRITE, 0, 2L * region);
+				map.limit(region);
+				TwistedPair tx = new TwistedPairMapped(map.slice(), capacity, first != null);
+				map.limit(2 * region).position(region);
+				TwistedPair rx = new TwistedPairMapped(map.slice(), capacity, first != null);
+				Cable cbl = new Cable(num, TwistedPair.Kind.MAPPED, tx, rx);
+				cbl.mappedFile = file;
+				file = null;
+				return(cbl);
+			}
+			finally { lock.release(); }
+		}
+		finally { if(file != null) file.close(); }  // the mapping stays valid
+	}
+
+	/*-------------------------------------------------------------
+	Method: stationEnd
+	Parameters: int num - cable number
+	            SocketChannel channel - connection from the hub thread
+	                                    transmitting to the station
+	            TwistedPair.Kind kind, int capacity - for the txPair
+	Returns: the cable of a station whose frames come from another node
+	Description:
+	    The txPair is a local pair of kind, read by the local hub
+	    thread; the rxPair is the receiving end of channel.
+	-------------------------------------------------------------*/
+	public static Cable stationEnd(int num, SocketChannel channel, TwistedPair.Kind kind, int capacity) throws IOException
+	{
+		TwistedPair rx = TwistedPairSocket.receiving(channel, SocketSelector.getShared(), capacity);
+		return(new Cable(num, kind, createPair(kind, capacity), rx));
+	}
+
+	/*-------------------------------------------------------------
+	Method: hubEnd
+	Parameters: int num - cable number
+	            SocketChannel channel - connection to the node of the
+	                                    station
+	Returns: the cable of a station on another node
+	Description:
+	    Only the rxPair can be used - it is the transmitting end of
+	    channel, to which the local hub thread forwards frames.  The
+	    txPair is null.
+	-------------------------------------------------------------*/
+	public static Cable hubEnd(int num, SocketChannel channel)
+	{
+		return(new Cable(num, TwistedPair.Kind.MONITOR, null, TwistedPairSocket.transmitting(channel)));
+	}
+
+	/*
+	 * The cable of a station of a RingSimulator - tx is linked to the
+	 * rxPair of the next station's cable.
+	 */
+	public static Cable simulated(int num, TwistedPairSim tx, TwistedPairSim rx)
+	{
+		return(new Cable(num, TwistedPair.Kind.SIMULATED, tx, rx));
+	}
+
+	/*
+	 * A copy of this cable whose txPair injects faults (see 
+	 * TwistedPairFaults) - called before the station and the hub
+	 * thread of the cable are created.
+	 */
+	public Cable withFaults(FaultProfile faults)
+	{
+		if(txPair == null) throw new IllegalStateException("Cable " + num + " has no txPair");
+		Cable cbl = new Cable(num, pairKind, new TwistedPairFaults(txPair, faults, num), rxPair);
+		cbl.mappedFile = mappedFile;
+		return(cbl);
+	}
+
+	/*
+	 * A copy of this cable whose pairs record the frames xmitted in
+	 * capture as cable id (see TwistedPairCapture) - called before the
+	 * station and the hub threads of the cable are created.
+	 */
+	public Cable withCapture(RingCapture capture, int id)
+	{
+		if(txPair == null) throw new IllegalStateException("Cable " + num + " has no txPair");
+		Cable cbl = new Cable(num, pairKind, new TwistedPairCapture(txPair, capture, id, RingCapture.TX), 
+		                      new TwistedPairCapture(rxPair, capture, id, RingCapture.RX));
+		cbl.mappedFile = mappedFile;
+		return(cbl);
+	}
+
+	private static TwistedPair createPair(TwistedPair.Kind kind, int capacity)
+	{
+		if(kind == TwistedPair.Kind.MAPPED)
+			throw new IllegalArgumentException("MAPPED twisted pairs need a file - use Cable.mapped()");
+		if(kind == TwistedPair.Kind.SIMULATED)
+			throw new IllegalArgumentException("SIMULATED twisted pairs are created by a RingSimulator");
+		if(kind == TwistedPair.Kind.RING) return(new TwistedPairRing(capacity));
+		if(kind == TwistedPair.Kind.SEGMENT) return(new TwistedPairSegments(SegmentPool.getShared()));
+		return(new TwistedPairVer1());
+	}
+
+	/*
+	 * Releases the file of a mapped cable - the next process to map it
+	 * after all those of the ring have closed it starts a new ring.
+	 */
+	public void close() throws IOException
+	{
+		if(mappedFile != null) mappedFile.close();
+		mappedFile = null;
 	}
 
+	// Twisted pair getters - for monitoring capacity and back-pressure
+	public TwistedPair getTxPair() { return(txPair); }
+	public TwistedPair getRxPair() { return(rxPair); }
+	public int getNum() { return(num); }
+
+	// Traffic xmitted by the station (see RingMetrics)
+	public void countXmitted(int frames, int chars)
+	{
+		framesXmitted.add(frames);
+		charsXmitted.add(chars);
+	}
+	public long getFramesXmitted() { return(framesXmitted.sum()); }
+	public long getCharsXmitted() { return(charsXmitted.sum()); }
+
 	/*---------------------------------------------
 	 * Methods and attributes for transmitting across the txPair
 	 -----------------------------------------------*/
@@ -27,6 +224,10 @@ public class Cable
 	{
 		txPair.xmit(frame);
 	}
+	public void stationTransmit(char [] frames, int offset, int len) throws InterruptedException
+	{
+		txPair.xmit(frames, offset, len);
+	}
 	/*
 	 * The hub receives across the txPair
 	 */
@@ -34,6 +235,75 @@ public class Cable
 	{
 		return(txPair.recv());
 	}
+	/*
+	 * The hub receives across the txPair without blocking (null if empty)
+	 */
+	public String hubPoll()
+	{
+		return(txPair.poll());
+	}
+	/*
+	 * The hub forwards what it receives across the txPair to the rxPair
+	 * of cableFwd - blocks until received.  Segments are moved without
+	 * copying when both pairs are SEGMENT pairs.
+	 */
+	public void hubForward(Cable cableFwd) throws InterruptedException
+	{
+		if(txPair instanceof TwistedPairSegments && cableFwd.rxPair instanceof TwistedPairSegments)
+		{
+			TwistedPairSegments from = (TwistedPairSegments)txPair;
+			TwistedPairSegments to = (TwistedPairSegments)cableFwd.rxPair;
+			Segment seg = from.recvSegment();
+			do to.xmitSegment(seg);
+			while((seg = from.pollSegment()) != null);
+		}
+		else cableFwd.hubTransmit(hubReceive());
+	}
+	/*
+	 * Same as hubForward() without blocking - returns false if nothing
+	 * was received.
+	 */
+	public boolean hubForwardPoll(Cable cableFwd) throws InterruptedException
+	{
+		if(txPair instanceof TwistedPairSegments && cableFwd.rxPair instanceof TwistedPairSegments)
+		{
+			TwistedPairSegments from = (TwistedPairSegments)txPair;
+			TwistedPairSegments to = (TwistedPairSegments)cableFwd.rxPair;
+			Segment seg = from.pollSegment();
+			if(seg == null) return(false);
+			do to.xmitSegment(seg);
+			while((seg = from.pollSegment()) != null);
+			return(true);
+		}
+		String frames = hubPoll();
+		if(frames == null) return(false);
+		cableFwd.hubTransmit(frames);
+		return(true);
+	}
+	/*
+	 * Same as hubForwardPoll() without blocking on a full rxPair of
+	 * cableFwd - returns the frames that did not fit (null if all were
+	 * forwarded), to be offered again with hubOffer() once the station
+	 * of cableFwd has received (see setStationListener()).
+	 */
+	public String hubForwardOffer(Cable cableFwd) throws InterruptedException
+	{
+		if(txPair instanceof TwistedPairSegments && cableFwd.rxPair instanceof TwistedPairSegments)
+		{
+			hubForwardPoll(cableFwd);  // moved without copying - never full
+			return(null);
+		}
+		String frames = hubPoll();
+		if(frames == null || cableFwd.hubOffer(frames)) return(null);
+		return(frames);
+	}
+	/*
+	 * Sets the listener run each time the station transmits
+	 */
+	public void setHubListener(Runnable listener)
+	{
+		txPair.setReadyListener(listener);
+	}
 
 	/*---------------------------------------------
 	 * Methods and attributes for transmitting across the rxPair
@@ -45,6 +315,13 @@ public class Cable
 	{
 		return(rxPair.recv());
 	}
+	/*
+	 * The station receives across the rxPair into its frame buffer
+	 */	
+	public void stationReceive(FrameBuffer into) throws InterruptedException
+	{
+		rxPair.recvInto(into);
+	}
 	/*
 	 * The hub thread transmits across the rxPair
 	 */		
@@ -52,4 +329,21 @@ public class Cable
 	{
 		rxPair.xmit(frames);
 	}
+	/*
+	 * The hub thread transmits across the rxPair without blocking - 
+	 * false, and nothing transmitted, when the rxPair does not have
+	 * room for the frames (see TwistedPair.offer()).
+	 */
+	public boolean hubOffer(String frames) throws InterruptedException
+	{
+		return(rxPair.offer(frames));
+	}
+	/*
+	 * Sets the listener run each time the station receives, once there
+	 * is room again in the rxPair for frames refused by hubOffer().
+	 */
+	public void setStationListener(Runnable listener)
+	{
+		rxPair.setRoomListener(listener);
+	}
 }
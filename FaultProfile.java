@@ -0,0 +1,123 @@
+import java.util.Properties;
+import java.util.concurrent.atomic.LongAdder;
+
+/*------------------------------------------------------------
+Class: FaultProfile
+
+Description:
+   Faults injected in the frames xmitted by the stations, to measure
+   how the ring degrades and recovers (see TwistedPairFaults and
+   Cable.withFaults()).  Each frame, the token included, is:
+      dropped   - with probability drop: it never reaches the hub
+      corrupted - with probability corrupt: one bit of one character
+                  is flipped (not its delimiters), so its frame check
+                  fails
+      delayed   - with probability delay: the pair stalls for
+                  delayNanos before xmitting it, like a slow link (the
+                  following frames wait behind it)
+
+      FaultProfile faults = new FaultProfile().drop(0.001).corrupt(0.001).seed(7);
+      new RingTopology.Builder().faults(faults)...
+
+   Lost frames are recovered by the active monitor (a lost token) and
+   by retransmission (lost messages) - see RingConfig.  Each pair has
+   its own random generator, derived from the seed and the cable
+   number.  The frames faulted on all pairs are counted.
+-------------------------------------------------------------*/
+public class FaultProfile
+{
+	private double drop = 0;
+	private double corrupt = 0;
+	private double delay = 0;
+	private long delayNanos = 1000000;
+	private long seed = 1;
+	private final LongAdder dropped = new LongAdder();
+	private final LongAdder corrupted = new LongAdder();
+	private final LongAdder delayed = new LongAdder();
+
+	public FaultProfile drop(double probability)
+	{
+		check(probability, corrupt, delay);
+		drop = probability;
+		return(this);
+	}
+
+	public FaultProfile corrupt(double probability)
+	{
+		check(probability, drop, delay);
+		corrupt = probability;
+		return(this);
+	}
+
+	// Probability of a delay and its length in nanoseconds
+	public FaultProfile delay(double probability, long nanos)
+	{
+		if(nanos < 0) throw new IllegalArgumentException("Negative delay: " + nanos);
+		check(probability, drop, corrupt);
+		delay = probability;
+		delayNanos = nanos;
+		return(this);
+	}
+
+	public FaultProfile seed(long sd)
+	{
+		seed = sd;
+		return(this);
+	}
+
+	// A probability, with the probabilities of the other faults
+	private static void check(double probability, double other1, double other2)
+	{
+		if(probability < 0 || probability > 1) throw new IllegalArgumentException("Probability must be 0 to 1: " + probability);
+		if(probability + other1 + other2 > 1) throw new IllegalArgumentException("Fault probabilities add up to more than 1");
+	}
+
+	// Getters
+	public double getDrop() { return(drop); }
+	public double getCorrupt() { return(corrupt); }
+	public double getDelay() { return(delay); }
+	public long getDelayNanos() { return(delayNanos); }
+	long getSeed() { return(seed); }
+
+	// Frames faulted so far, on all pairs
+	public long getDropped() { return(dropped.sum()); }
+	public long getCorrupted() { return(corrupted.sum()); }
+	public long getDelayed() { return(delayed.sum()); }
+
+	/*---------------------------------------------
+	 * Called by the TwistedPairFaults pairs
+	 -----------------------------------------------*/
+	void dropped() { dropped.increment(); }
+	void corrupted() { corrupted.increment(); }
+	void delayed() { delayed.increment(); }
+
+	public String summary()
+	{
+		return("faults injected: dropped=" + getDropped() + " corrupted=" + getCorrupted() + " delayed=" + getDelayed());
+	}
+
+	/*-------------------------------------------------------------
+	Method: parse
+	Parameters: Properties props
+	Returns: the faults described by props, null if there are none
+	Description:
+	    Reads the following keys (see RingTopology.load()):
+	      fault.drop          probability of dropping a frame
+	      fault.corrupt       probability of corrupting a frame
+	      fault.delay         probability of delaying a frame
+	      fault.delayMicros   length of a delay (default 1000)
+	      fault.seed          seed of the random generators
+	-------------------------------------------------------------*/
+	static FaultProfile parse(Properties props)
+	{
+		FaultProfile faults = new FaultProfile();
+		String value;
+		if((value = props.getProperty("fault.drop")) != null) faults.drop(Double.parseDouble(value.trim()));
+		if((value = props.getProperty("fault.corrupt")) != null) faults.corrupt(Double.parseDouble(value.trim()));
+		if((value = props.getProperty("fault.delay")) != null)
+			faults.delay(Double.parseDouble(value.trim()), Long.parseLong(props.getProperty("fault.delayMicros", "1000").trim()) * 1000);
+		if((value = props.getProperty("fault.seed")) != null) faults.seed(Long.parseLong(value.trim()));
+		if(faults.drop == 0 && faults.corrupt == 0 && faults.delay == 0) return(null);
+		return(faults);
+	}
+}
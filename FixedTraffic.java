@@ -0,0 +1,55 @@
+/*
+ * Class: FixedTraffic
+ * Description: Traffic profile that sends a fixed sequence of messages
+ * to a single destination, at a single priority.  The sequence ends at
+ * the end of the array or at the first null entry.
+ */
+public class FixedTraffic implements TrafficProfile
+{
+	private int destination;   // identifier for destination of messages
+	private String[] messages; // Sequence of messages to transmit to destination
+	private int next = 0;      // index for messages[]
+	private int priority;      // priority of the messages
+
+	public FixedTraffic(int dest, String[] msgs)
+	{
+		this(dest, msgs, 0);
+	}
+
+	public FixedTraffic(int dest, String[] msgs, int pri)
+	{
+		if(pri < 0 || pri >= TokRing.PRIORITIES) 
+			throw new IllegalArgumentException("Priority must be 0 to " + (TokRing.PRIORITIES-1) + ": " + pri);
+		destination = dest;
+		messages = msgs;
+		priority = pri;
+	}
+
+	public int nextDestination()
+	{
+		if(next == messages.length || messages[next] == null) return(NONE);
+		return(destination);
+	}
+
+	public String takeMessage()
+	{
+		return(messages[next++]);
+	}
+
+	public boolean isFinished()
+	{
+		return(nextDestination() == NONE);
+	}
+
+	public int nextPriority()
+	{
+		return(priority);
+	}
+
+	public int maxMessageLength()
+	{
+		int longest = 0;
+		for(int i = 0 ; i < messages.length && messages[i] != null ; i++) longest = Math.max(longest, messages[i].length());
+		return(longest);
+	}
+}
@@ -1,15 +1,110 @@
 // Class: Frame
 // Used to exchange frame information between Station and TokRing interface
-public class Frame 
+//
+// The message of a received frame is not copied: getPayload() is a view
+// of the characters in the receive queue of the TokRing, valid until the
+// station calls monitorTokenRing() again.  getMsg() copies it to a String
+// (on the first call only).  Acks are identified by their flags (isAck()),
+// without looking at the message.
+//
+// Frames taken with TokRing.recvMessages() come from a FramePool and are
+// given back with release().
+public class Frame
 {
-	private char source;
-	private char destination;
-	private String message;
-	
-	public char getSource() {return(source);}
-	public char getDest() { return(destination); }
-	public String getMsg() { return(message); }
-	public void setSource(char src) {source=src;}
-	public void setDest(char dest) { destination=dest; }
-	public void setMsg(String msg) { message = msg; }
+	private int source;       // station ids - see TokRing.idName()
+	private int destination;
+	private String message;   // null until getMsg() when the payload is a view
+	private char [] payloadArray;  // the payload view - null when set with setMsg()
+	private int payloadStart;
+	private int payloadLength;
+	private final Payload payload = new Payload();
+	private int flags;  // TokRing.FLAG_DATA and/or TokRing.FLAG_ACK
+	private int sequence;  // sequence number (binary frames), cumulative for acks
+	private long timestamp;  // System.nanoTime() at xmitMessage (binary frames with metrics, else 0)
+	private int priority;    // 0 to TokRing.PRIORITIES-1 (binary frames, else 0)
+	private final FramePool pool;  // null if the frame is not pooled
+
+	public Frame()
+	{
+		this(null);
+	}
+
+	Frame(FramePool owner)
+	{
+		pool = owner;
+	}
+
+	public int getSource() {return(source);}
+	public int getDest() { return(destination); }
+	public int getFlags() { return(flags); }
+	public int getSeq() { return(sequence); }
+	public long getTimestamp() { return(timestamp); }
+	public int getPriority() { return(priority); }
+	public boolean isAck() { return((flags & TokRing.FLAG_ACK) != 0); }
+	public void setSource(int src) {source=src;}
+	public void setDest(int dest) { destination=dest; }
+	public void setFlags(int flg) { flags = flg; }
+	public void setSeq(int seq) { sequence = seq; }
+	public void setTimestamp(long ts) { timestamp = ts; }
+	public void setPriority(int pri) { priority = pri; }
+
+	public String getMsg()
+	{
+		if(message == null && payloadArray != null) message = new String(payloadArray, payloadStart, payloadLength);
+		return(message);
+	}
+
+	public void setMsg(String msg)
+	{
+		message = msg;
+		payloadArray = null;
+	}
+
+	// The message without copying it
+	public CharSequence getPayload()
+	{
+		return(payloadArray != null ? payload : message);
+	}
+
+	// Sets the message to a view of len characters of array
+	void setPayload(char [] array, int start, int len)
+	{
+		payloadArray = array;
+		payloadStart = start;
+		payloadLength = len;
+		message = null;
+	}
+
+	/*
+	 * Returns the frame to its pool - the frame must not be used
+	 * after it is released.
+	 */
+	public void release()
+	{
+		payloadArray = null;
+		message = null;
+		if(pool != null) pool.recycle(this);
+	}
+
+	// View of the payload characters
+	private class Payload implements CharSequence
+	{
+		public int length() { return(payloadLength); }
+
+		public char charAt(int ix)
+		{
+			if(ix < 0 || ix >= payloadLength) throw new IndexOutOfBoundsException("Index " + ix + ", length " + payloadLength);
+			return(payloadArray[payloadStart + ix]);
+		}
+
+		public CharSequence subSequence(int from, int to)
+		{
+			return(toString().substring(from, to));
+		}
+
+		public String toString()
+		{
+			return(getMsg());
+		}
+	}
 }
@@ -0,0 +1,147 @@
+/*
+ * Class: FrameBuffer
+ * Description: Reusable character buffer used by TokRing to queue frames
+ * and to parse them in place.  Characters are appended at the end and
+ * consumed from the start by moving an offset, so neither operation copies
+ * the rest of the buffer.  The backing array is only compacted (or grown)
+ * when an append runs out of room at the end.
+ *
+ * Offsets into array() remain valid until the next append on the buffer.
+ */
+public class FrameBuffer
+{
+	private char [] chars;  // backing array
+	private int start;      // position of the first unread character
+	private int end;        // position after the last character
+
+	public FrameBuffer()
+	{
+		this(256);
+	}
+
+	public FrameBuffer(int size)
+	{
+		chars = new char[Math.max(size, 16)];
+	}
+
+	// Getters for parsing in place
+	public char [] array() { return(chars); }
+	public int start() { return(start); }
+	public int end() { return(end); }
+	public int length() { return(end - start); }
+	public boolean isEmpty() { return(end == start); }
+
+	/*
+	 * Methods for appending characters at the end of the buffer
+	 */
+	public void append(char c)
+	{
+		ensureRoom(1);
+		chars[end++] = c;
+	}
+
+	public void append(String str)
+	{
+		int len = str.length();
+		ensureRoom(len);
+		str.getChars(0, len, chars, end);
+		end += len;
+	}
+
+	public void append(String str, int offset, int len)
+	{
+		ensureRoom(len);
+		str.getChars(offset, offset + len, chars, end);
+		end += len;
+	}
+
+	public void append(char [] src, int offset, int len)
+	{
+		ensureRoom(len);
+		System.arraycopy(src, offset, chars, end, len);
+		end += len;
+	}
+
+	// 32 bit value stored as two characters, high half first
+	public void appendInt(int value)
+	{
+		ensureRoom(2);
+		chars[end++] = (char)(value >>> 16);
+		chars[end++] = (char)value;
+	}
+
+	// Overwrites the 32 bit value at pos
+	public void setInt(int pos, int value)
+	{
+		chars[pos] = (char)(value >>> 16);
+		chars[pos+1] = (char)value;
+	}
+
+	public int intAt(int pos)
+	{
+		return((chars[pos] << 16) | chars[pos+1]);
+	}
+
+	// 64 bit value stored as four characters, high half first
+	public void appendLong(long value)
+	{
+		appendInt((int)(value >>> 32));
+		appendInt((int)value);
+	}
+
+	public long longAt(int pos)
+	{
+		return(((long)intAt(pos) << 32) | (intAt(pos+2) & 0xFFFFFFFFL));
+	}
+
+	/*
+	 * Marks all characters before pos as read.
+	 */
+	public void consume(int pos)
+	{
+		if(pos >= end) clear();  // empty - restart at the beginning of the array
+		else start = pos;
+	}
+
+	public void clear()
+	{
+		start = 0;
+		end = 0;
+	}
+
+	public String substring(int from, int to)
+	{
+		return(new String(chars, from, to - from));
+	}
+
+	public String toString()
+	{
+		return(new String(chars, start, end - start));
+	}
+
+	/*
+	 * For copying characters straight into array(): ensureRoom(len),
+	 * copy them at end(), then appended(len).
+	 */
+	void appended(int len)
+	{
+		end += len;
+	}
+
+	// Makes room for len more characters, compacting before growing.
+	void ensureRoom(int len)
+	{
+		if(end + len <= chars.length) return;
+		int used = end - start;
+		if(used + len <= chars.length && start >= chars.length / 2)
+			System.arraycopy(chars, start, chars, 0, used);
+		else
+		{
+			char [] bigger = new char[Math.max(chars.length * 2, used + len)];
+			System.arraycopy(chars, start, bigger, 0, used);
+			chars = bigger;
+		}
+		start = 0;
+		end = used;
+	}
+}
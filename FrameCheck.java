@@ -0,0 +1,43 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.util.zip.CRC32C;
+
+/*
+ * Class: FrameCheck
+ * Description: Frame check sequence of binary frames - the CRC32C of
+ * the characters of the frame, 2 bytes per character (little endian,
+ * on every platform), except a range of characters that the check
+ * skips (see TokRing: the access control, changed by the stations that
+ * forward the frame, and the check sequence itself).
+ *
+ * java.util.zip.CRC32C is an intrinsic on current JVMs; the characters
+ * are copied to a byte array with a single bulk copy first.  An object
+ * is used by a single thread.
+ */
+class FrameCheck
+{
+	private final CRC32C crc = new CRC32C();
+	private ByteBuffer bytes = ByteBuffer.allocate(512).order(ByteOrder.LITTLE_ENDIAN);
+	private CharBuffer chars = bytes.asCharBuffer();
+
+	/*
+	 * CRC32C of the characters of array from start to end, without
+	 * the characters from skipFrom to skipTo.
+	 */
+	int compute(char [] array, int start, int end, int skipFrom, int skipTo)
+	{
+		int len = end - start - (skipTo - skipFrom);
+		if(2 * len > bytes.capacity())
+		{
+			bytes = ByteBuffer.allocate(Math.max(2 * len, 2 * bytes.capacity())).order(ByteOrder.LITTLE_ENDIAN);
+			chars = bytes.asCharBuffer();
+		}
+		chars.clear();
+		chars.put(array, start, skipFrom - start);
+		chars.put(array, skipTo, end - skipTo);
+		crc.reset();
+		crc.update(bytes.array(), 0, 2 * len);
+		return((int)crc.getValue());
+	}
+}
@@ -0,0 +1,338 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.zip.CRC32C;
+
+/*------------------------------------------------------------
+Class: FrameJournal
+
+Description:
+   Write-ahead journal of the messages of a station, so that the
+   messages not acknowledged when the ring stops (or the process dies)
+   are sent again when it is restarted.  TokRing records each message
+   queued by xmitMessage() and each Ack received; the records are
+   forced to the disk once per token capture, before the frames are
+   xmitted (group commit), not once per message:
+
+      FrameJournal journal = FrameJournal.open("journal", id, FrameJournal.DEFAULT_SEGMENT);
+      tokRing.setJournal(journal);   // queues the recovered messages
+      ...
+      journal.close();
+
+   The journal is a sequence of segment files station<id>-<n>.wal in
+   a directory, each memory-mapped.  Segment layout (big endian):
+      0  MAGIC
+      4  station id
+      8  segment number
+     12  sealed - 1 once the segment holds all the messages waiting
+         for an Ack (see commit())
+     16  records: length of the body, CRC32C of the body, body
+         SENT - type, destination, sequence number, priority, message
+         ACKED - type, source of the Ack, sequence number acknowledged
+   A record with a length of 0 or a wrong CRC ends the segment (a write
+   torn by a crash).  When a segment is full, the messages waiting for
+   an Ack are copied to a new segment, and the old segment is deleted
+   once the new one is sealed.  When a journal is opened, the last
+   sealed segment is read, and its messages waiting for an Ack are
+   given by recovered(); they are copied to a new segment when they are
+   queued again, with new sequence numbers (the other stations start
+   again too).
+
+   A message whose Ack was lost is delivered twice - at least once
+   delivery.  A journal is used by the thread of its station.
+-------------------------------------------------------------*/
+public class FrameJournal
+{
+	public final static int DEFAULT_SEGMENT = 1 << 20;  // bytes
+	private final static int MAGIC = 0x544B524A;  // "TKRJ"
+	private final static int SEALED_POS = 12;
+	private final static int HEADER = 16;
+	private final static int REC_HEADER = 8;      // length and CRC
+	private final static byte SENT = 1;
+	private final static byte ACKED = 2;
+
+	private final File dir;
+	private final int stationId;
+	private final int segmentBytes;
+	private final CRC32C crc = new CRC32C();
+	private MappedByteBuffer segment;
+	private int segmentNum;
+	private File segmentFile;
+	private ArrayList<File> obsolete = new ArrayList<File>();  // deleted once the segment is sealed
+	private boolean sealed = false;
+	private int committed = HEADER;  // records before this position are on the disk
+	// Messages waiting for an Ack, by destination, in sequence order
+	private HashMap<Integer,ArrayDeque<Entry>> pending = new HashMap<Integer,ArrayDeque<Entry>>();
+	private ArrayList<Entry> recovered = new ArrayList<Entry>();
+	private long commits = 0;
+
+	/*
+	 * A message of the journal.
+	 */
+	public static class Entry
+	{
+		private final int dest;
+		private final int seq;
+		private final int priority;
+		private final String msg;
+
+		Entry(int dest, int seq, int priority, String msg)
+		{
+			this.dest = dest;
+			this.seq = seq;
+			this.priority = priority;
+			this.msg = msg;
+		}
+
+		// Getters
+		public int getDest() { return(dest); }
+		public int getSeq() { return(seq); }
+		public int getPriority() { return(priority); }
+		public String getMessage() { return(msg); }
+	}
+
+	private FrameJournal(File directory, int id, int bytes)
+	{
+		dir = directory;
+		stationId = id;
+		segmentBytes = bytes;
+	}
+
+	/*-------------------------------------------------------------
+	Method: open
+	Parameters: String dirName - directory of the segment files
+	                             (created if needed)
+	            int id - station id
+	            int bytes - size of a segment
+	Returns: the journal of station id, with the messages of the
+	         previous run waiting for an Ack in recovered()
+	-------------------------------------------------------------*/
+	public static FrameJournal open(String dirName, int id, int bytes) throws IOException
+	{
+		if(bytes < 4096) throw new IllegalArgumentException("Journal segments must be at least 4096 bytes: " + bytes);
+		File directory = new File(dirName);
+		if(!directory.isDirectory() && !directory.mkdirs()) throw new IOException("Cannot create journal directory " + dirName);
+		FrameJournal journal = new FrameJournal(directory, id, bytes);
+		journal.recover();
+		return(journal);
+	}
+
+	// Getters
+	public List<Entry> recovered() { return(recovered); }
+	public int getSegmentNumber() { return(segmentNum); }
+	public long getCommits() { return(commits); }
+
+	public int getPending()
+	{
+		int count = 0;
+		for(ArrayDeque<Entry> queue : pending.values()) count += queue.size();
+		return(count);
+	}
+
+	/*
+	 * Reads the last sealed segment, then starts a new segment - all
+	 * the existing segments are deleted once it is sealed.
+	 */
+	private void recover() throws IOException
+	{
+		String prefix = "station" + stationId + "-";
+		int last = -1;
+		File [] files = dir.listFiles();
+		if(files == null) throw new IOException("Cannot list journal directory " + dir);
+		ArrayList<File> segments = new ArrayList<File>();
+		for(File file : files)
+		{
+			String name = file.getName();
+			if(!name.startsWith(prefix) || !name.endsWith(".wal")) continue;
+			segments.add(file);
+			int num = Integer.parseInt(name.substring(prefix.length(), name.length() - 4));
+			if(num > last) last = num;
+		}
+		for(int num = last ; num >= 0 ; num--)
+		{
+			File file = segmentFile(num);
+			if(file.exists() && readSegment(file)) break;
+		}
+		obsolete.addAll(segments);
+		startSegment(last + 1, segmentBytes);
+	}
+
+	/*
+	 * Reads the messages waiting for an Ack in file into recovered -
+	 * false if it is not a sealed segment of the station.
+	 */
+	private boolean readSegment(File file) throws IOException
+	{
+		ByteBuffer buf = map(file, file.length());
+		if(buf.capacity() < HEADER || buf.getInt(0) != MAGIC || buf.getInt(4) != stationId || buf.getInt(SEALED_POS) != 1) return(false);
+		HashMap<Integer,ArrayDeque<Entry>> found = new HashMap<Integer,ArrayDeque<Entry>>();
+		int pos = HEADER;
+		while(pos + REC_HEADER <= buf.capacity())
+		{
+			int len = buf.getInt(pos);
+			if(len <= 0 || pos + REC_HEADER + len > buf.capacity()) break;
+			byte [] body = new byte[len];
+			buf.get(pos + REC_HEADER, body);
+			crc.reset();
+			crc.update(body);
+			if((int)crc.getValue() != buf.getInt(pos + 4)) break;  // torn write
+			ByteBuffer rec = ByteBuffer.wrap(body);
+			byte type = rec.get();
+			int peer = rec.getInt();
+			int seq = rec.getInt();
+			ArrayDeque<Entry> queue = found.get(peer);
+			if(queue == null) found.put(peer, queue = new ArrayDeque<Entry>());
+			if(type == SENT)
+			{
+				int priority = rec.get();
+				char [] msg = new char[rec.remaining() / 2];
+				rec.asCharBuffer().get(msg);
+				queue.addLast(new Entry(peer, seq, priority, new String(msg)));
+			}
+			else while(!queue.isEmpty() && queue.peekFirst().seq <= seq) queue.removeFirst();
+			pos += REC_HEADER + len;
+		}
+		for(ArrayDeque<Entry> queue : found.values()) recovered.addAll(queue);
+		return(true);
+	}
+
+	private File segmentFile(int num)
+	{
+		return(new File(dir, "station" + stationId + "-" + num + ".wal"));
+	}
+
+	private static MappedByteBuffer map(File file, long bytes) throws IOException
+	{
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try { return(raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, bytes)); }
+		finally { raf.close(); }  // the mapping stays valid
+	}
+
+	/*
+	 * Starts segment num, not sealed, with the messages waiting for an
+	 * Ack.
+	 */
+	private void startSegment(int num, int bytes) throws IOException
+	{
+		if(segmentFile != null) obsolete.add(segmentFile);
+		segmentNum = num;
+		segmentFile = segmentFile(num);
+		segment = map(segmentFile, bytes);
+		segment.putInt(0, MAGIC);
+		segment.putInt(4, stationId);
+		segment.putInt(8, num);
+		segment.putInt(SEALED_POS, 0);
+		segment.position(HEADER);
+		segment.putInt(HEADER, 0);
+		sealed = false;
+		committed = 0;  // the header is forced with the first commit
+		for(ArrayDeque<Entry> queue : pending.values())
+			for(Entry entry : queue) append(SENT, entry.dest, entry.seq, entry.priority, entry.msg);
+	}
+
+	/*-------------------------------------------------------------
+	Method: sent
+	Parameters: int dest, int seq, int priority, String msg - message
+	            queued by TokRing.xmitMessage()
+	Description:
+	    Records the message, in memory until the next commit().
+	-------------------------------------------------------------*/
+	public void sent(int dest, int seq, int priority, String msg)
+	{
+		Entry entry = new Entry(dest, seq, priority, msg);
+		ArrayDeque<Entry> queue = pending.get(dest);
+		if(queue == null) pending.put(dest, queue = new ArrayDeque<Entry>());
+		queue.addLast(entry);
+		append(SENT, dest, seq, priority, msg);
+	}
+
+	/*
+	 * Records that src acknowledged its messages up to seq - they will
+	 * not be sent again.
+	 */
+	public void acked(int src, int seq)
+	{
+		ArrayDeque<Entry> queue = pending.get(src);
+		if(queue == null || queue.isEmpty()) return;
+		while(!queue.isEmpty() && queue.peekFirst().seq <= seq) queue.removeFirst();
+		append(ACKED, src, seq, 0, null);
+	}
+
+	/*
+	 * Appends a record to the segment - to a new segment if it is full.
+	 */
+	private void append(byte type, int peer, int seq, int priority, String msg)
+	{
+		int len = 9 + (type == SENT ? 1 + 2 * msg.length() : 0);
+		if(segment.position() + REC_HEADER + len + 4 > segment.capacity())  // room for the end mark
+		{
+			int needed = HEADER + REC_HEADER + len + 4;
+			for(ArrayDeque<Entry> queue : pending.values())
+				for(Entry entry : queue) needed += REC_HEADER + 10 + 2 * entry.msg.length();
+			try { startSegment(segmentNum + 1, Math.max(segmentBytes, 2 * needed)); }
+			catch (IOException ex) { throw new UncheckedIOException("Cannot start journal segment " + (segmentNum + 1), ex); }
+			return;  // the message was copied with the pending ones, or the Ack applied
+		}
+		int pos = segment.position();
+		segment.position(pos + REC_HEADER);
+		int body = segment.position();
+		segment.put(type);
+		segment.putInt(peer);
+		segment.putInt(seq);
+		if(type == SENT)
+		{
+			segment.put((byte)priority);
+			for(int i = 0 ; i < msg.length() ; i++) segment.putChar(msg.charAt(i));
+		}
+		crc.reset();
+		crc.update(segment.slice(body, len));
+		segment.putInt(segment.position(), 0);  // end mark - the segment may be reused
+		segment.putInt(pos + 4, (int)crc.getValue());
+		segment.putInt(pos, len);
+	}
+
+	/*-------------------------------------------------------------
+	Method: commit
+	Description:
+	    Called at each token capture, before the frames are xmitted:
+	    forces the records appended since the last commit to the disk
+	    (one force for all the messages queued for this token).  The
+	    first commit of a segment seals it and deletes the older
+	    segments.
+	-------------------------------------------------------------*/
+	public void commit()
+	{
+		int end = segment.position() + 4;
+		if(committed == end && sealed) return;
+		segment.force(committed, end - committed);
+		commits++;
+		if(!sealed)
+		{
+			segment.putInt(SEALED_POS, 1);
+			segment.force(0, HEADER);
+			sealed = true;
+			for(File file : obsolete)
+				if(!file.equals(segmentFile)) file.delete();
+			obsolete.clear();
+		}
+		committed = end;
+	}
+
+	/*
+	 * Commits the records, and drops the recovered messages (queued
+	 * again by now).
+	 */
+	public void close()
+	{
+		commit();
+		recovered = new ArrayList<Entry>();
+	}
+}
@@ -0,0 +1,52 @@
+/*
+ * Class: FramePool
+ * Description: Pool of Frames.  acquire() takes a free frame (or
+ * allocates one) and Frame.release() gives it back, so taking received
+ * messages with TokRing.recvMessages() allocates no frames in the steady
+ * state.
+ *
+ * The free frames are kept on a bounded stack guarded by the pool's
+ * monitor, as in SegmentPool.
+ */
+public class FramePool
+{
+	public final static int DEFAULT_MAX_FREE = 1024;  // frames kept
+
+	private final Frame [] free;  // stack of free frames
+	private int freeCount = 0;
+	private long allocated = 0;   // frames created by the pool
+
+	public FramePool()
+	{
+		this(DEFAULT_MAX_FREE);
+	}
+
+	public FramePool(int maxFree)
+	{
+		free = new Frame[maxFree];
+	}
+
+	public synchronized int getFreeCount() { return(freeCount); }
+	public synchronized long getAllocated() { return(allocated); }
+
+	public Frame acquire()
+	{
+		synchronized(this)
+		{
+			if(freeCount > 0)
+			{
+				Frame frm = free[--freeCount];
+				free[freeCount] = null;
+				return(frm);
+			}
+			allocated++;
+		}
+		return(new Frame(this));
+	}
+
+	// Called by Frame.release()
+	synchronized void recycle(Frame frm)
+	{
+		if(freeCount < free.length) free[freeCount++] = frm;  // otherwise left to the garbage collector
+	}
+}
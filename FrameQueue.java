@@ -0,0 +1,105 @@
+/*
+ * Class: FrameQueue
+ * Description: Queue of frames used by TokRing for its transmit and
+ * receive queues.  The characters of the queued frames are kept one
+ * after the other in a FrameBuffer, and the length of each frame in a
+ * circular array of ints.  A frame is enqueued by appending it to the
+ * buffer and dequeued by moving the start of the buffer past it, so both
+ * operations are O(1) (amortised - the arrays grow when full) whatever
+ * the number of queued frames, and the frame boundaries never have to
+ * be found again by parsing.
+ *
+ * A frame is enqueued either as a whole (add()) or by writing it into
+ * the buffer returned by beginFrame() and calling endFrame().
+ */
+public class FrameQueue
+{
+	private FrameBuffer chars = new FrameBuffer();  // characters of the frames
+	private int [] lengths = new int[16];  // frame lengths, circular - length is a power of two
+	private int head = 0;   // index in lengths of the first frame
+	private int count = 0;  // number of frames in the queue
+	private int opened = -1;  // chars.length() when beginFrame() was called
+
+	// Getters
+	public int size() { return(count); }
+	public boolean isEmpty() { return(count == 0); }
+	public int chars() { return(chars.length()); }  // characters in all frames
+
+	/*
+	 * The characters of the queued frames - the first frame starts at
+	 * buffer().start().  Offsets are valid until the next enqueue.
+	 */
+	public FrameBuffer buffer() { return(chars); }
+
+	// Length of frame ix (0 is the first frame)
+	public int length(int ix)
+	{
+		return(lengths[(head + ix) & (lengths.length - 1)]);
+	}
+
+	/*
+	 * Methods for enqueueing frames
+	 */
+	public void add(char [] src, int offset, int len)
+	{
+		chars.append(src, offset, len);
+		pushLength(len);
+	}
+
+	// Returns the buffer to which the frame is appended
+	public FrameBuffer beginFrame()
+	{
+		opened = chars.length();
+		return(chars);
+	}
+
+	public void endFrame()
+	{
+		if(opened < 0) throw new IllegalStateException("endFrame() without beginFrame()");
+		pushLength(chars.length() - opened);
+		opened = -1;
+	}
+
+	// Enqueues a copy of all the frames of other
+	public void addAll(FrameQueue other)
+	{
+		FrameBuffer src = other.chars;
+		chars.append(src.array(), src.start(), src.length());
+		for(int i = 0 ; i < other.count ; i++) pushLength(other.length(i));
+	}
+
+	/*
+	 * Dequeues the first n frames, returns their number of characters.
+	 */
+	public int remove(int n)
+	{
+		if(n > count) throw new IllegalArgumentException("Removing " + n + " frames from a queue of " + count);
+		int len = 0;
+		for(int i = 0 ; i < n ; i++) len += length(i);
+		head = (head + n) & (lengths.length - 1);
+		count -= n;
+		if(count == 0) chars.clear();
+		else chars.consume(chars.start() + len);
+		return(len);
+	}
+
+	public void clear()
+	{
+		head = 0;
+		count = 0;
+		chars.clear();
+	}
+
+	private void pushLength(int len)
+	{
+		if(count == lengths.length)  // full - double the array, first frame at 0
+		{
+			int [] bigger = new int[lengths.length * 2];
+			for(int i = 0 ; i < count ; i++) bigger[i] = length(i);
+			lengths = bigger;
+			head = 0;
+		}
+		lengths[(head + count) & (lengths.length - 1)] = len;
+		count++;
+	}
+}
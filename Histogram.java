@@ -0,0 +1,98 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Class: Histogram
+ * Description: Log-linear histogram of non-negative long values (e.g.
+ * nanoseconds), in the style of HdrHistogram.  Values below 32 are
+ * counted exactly; above that, each power of two is split into 32
+ * buckets, giving a precision of about 3% over the whole long range
+ * with a fixed array of 1920 counters.
+ *
+ * record() is lock-free and can be called from any thread; readers see
+ * a consistent enough view for monitoring (counts may move while a 
+ * percentile is computed).
+ */
+public class Histogram
+{
+	private final static int SUB_BITS = 5;
+	private final static int SUB_COUNT = 1 << SUB_BITS;  // buckets per power of two
+	private final static int BUCKETS = (64 - SUB_BITS + 1) * SUB_COUNT;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final LongAdder count = new LongAdder();
+	private final LongAdder sum = new LongAdder();
+	private final AtomicLong max = new AtomicLong();
+
+	public void record(long value)
+	{
+		if(value < 0) value = 0;
+		counts.incrementAndGet(index(value));
+		count.increment();
+		sum.add(value);
+		long m;
+		while(value > (m = max.get()) && !max.compareAndSet(m, value)) ;  // only when a new maximum
+	}
+
+	public long getCount() { return(count.sum()); }
+	public long getMax() { return(max.get()); }
+	public double getMean()
+	{
+		long n = count.sum();
+		return(n == 0 ? 0 : (double)sum.sum() / n);
+	}
+
+	/*
+	 * Returns the value below which pct percent of the recorded values
+	 * fall (upper bound of the bucket), 0 if nothing was recorded.
+	 */
+	public long getPercentile(double pct)
+	{
+		long total = 0;
+		for(int i = 0 ; i < BUCKETS ; i++) total += counts.get(i);
+		if(total == 0) return(0);
+		long target = Math.max(1, (long)Math.ceil(pct / 100.0 * total));
+		long seen = 0;
+		for(int i = 0 ; i < BUCKETS ; i++)
+		{
+			seen += counts.get(i);
+			if(seen >= target) return(Math.min(highValue(i), max.get()));
+		}
+		return(max.get());
+	}
+
+	public void reset()
+	{
+		for(int i = 0 ; i < BUCKETS ; i++) counts.set(i, 0);
+		count.reset();
+		sum.reset();
+		max.set(0);
+	}
+
+	// Short summary, values divided by unit (e.g. 1000 for microseconds)
+	public String summary(long unit)
+	{
+		return(String.format("n=%d mean=%.1f p50=%d p90=%d p99=%d p99.9=%d max=%d",
+				getCount(), getMean() / unit, getPercentile(50) / unit, getPercentile(90) / unit,
+				getPercentile(99) / unit, getPercentile(99.9) / unit, getMax() / unit));
+	}
+
+	private static int index(long value)
+	{
+		if(value < SUB_COUNT) return((int)value);  // exact
+		int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BITS;
+		int sub = (int)(value >>> shift) & (SUB_COUNT - 1);  // bits after the leading one
+		return((shift + 1) * SUB_COUNT + sub);
+	}
+
+	// Largest value counted in bucket ix
+	private static long highValue(int ix)
+	{
+		int bucket = ix >>> SUB_BITS;
+		int sub = ix & (SUB_COUNT - 1);
+		if(bucket == 0) return(sub);
+		int shift = bucket - 1;
+		return((((long)(SUB_COUNT | sub)) << shift) + (1L << shift) - 1);
+	}
+}
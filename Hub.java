@@ -1,11 +1,13 @@
 /*------------------------------------------------------------
 File: hub.java   (CSI3131 Assignment 2)
-Description:  This class creates all threads and defines messages
-              to be exchanged between stations.
+Description:  This class creates the ring (see RingTopology) and defines
+              messages to be exchanged between stations.
 -------------------------------------------------------------*/
 public class Hub 
 {
-	private static Cable [] cables = new Cable[4];
+	private final static long RUN_MILLIS = 5000;   // longest run of fixed traffic
+	private final static long DRAIN_MILLIS = 2000; // for the Acks of the queued messages after quiesce()
+
 	private static String [] messagesA = 
 	{
 		"Hello station C",
@@ -44,80 +46,93 @@ public class Hub
 	};
 	
 	/**
-	 * @param args
+	 * @param args - either the name of a properties file describing the ring
+	 *               (see RingTopology.load() and MultiRing.load()), or for the 4 station ring:
+	 *               the optional twisted pair implementation, MONITOR (default) or RING,
+	 *               followed by the optional frame format, TEXT (default) or BINARY,
+	 *               the window (default 1), the token holding time in 
+	 *               microseconds (default - one frame per capture) and EARLY
+	 *               for early token release
 	 */
 	public static void main(String[] args) 
 	{
-		   int i;
-		   Thread [] threadReferences = new Thread[8];
-		   
-		   // Creating the stations
-		   cables[0] = new Cable(0);
-		   threadReferences[4] = createStation('A', 'C', messagesA, cables[0]);
-		   cables[1] = new Cable(1);
-		   threadReferences[5] = createStation('B', 'D', messagesB, cables[1]);
-		   cables[2] = new Cable(2);
-		   threadReferences[6] = createStation('C', 'A', messagesC, cables[2]);
-		   cables[3] = new Cable(3);
-		   threadReferences[7] = createStation('D', 'A', messagesD, cables[3]);
+		   Ring ring;
 
-		   // creating threads for the hub
-		   for(i = 0 ; i < 3 ; i++)
-			   threadReferences[i] = createHubThread(cables[i], cables[i+1]);   // for cable i
-		   threadReferences[i] = createHubThread(cables[i],cables[0]); // for cable 3; fourth cable
+		   // Creating the stations, cables and threads for the hub
+		   try
+		   {
+			   if(args.length > 0 && args[0].endsWith(".properties")) ring = MultiRing.load(args[0]);
+			   else ring = createRing(args);
+		   }
+		   catch (Exception e) 
+		   { 
+			   RingLog.log(RingLog.Subsystem.HUB, RingLog.Level.ERROR, "Cannot create ring: " + e.getMessage());
+			   RingLog.flush();
+			   return;
+		   }
 		   // Start transmitting token
 		   try {
-			   cables[0].hubTransmit(""+TokRing.SYN); // Start token			   
+			   ring.start();
 		   }
-		   catch (InterruptedException e) { System.out.println("hubTransmit interrupted");}
+		   catch (InterruptedException e) { RingLog.log(RingLog.Subsystem.HUB, RingLog.Level.ERROR, "hubTransmit interrupted");}
 		   
-		   try { Thread.sleep(5000); } 
-		   catch (InterruptedException e) { System.out.println("Sleep interrupted");}
+		   // Run until the stations have finished (a load test runs for its warm-up
+		   // and measurement phases), then drain the queues
+		   long millis = LoadReport.get().isConfigured() && LoadReport.get().getRunMillis() > 0 ? LoadReport.get().getRunMillis() : RUN_MILLIS;
+		   try 
+		   { 
+			   boolean done;
+			   if(ring.isDistributed()) { Thread.sleep(millis); done = false; }  // the other processes need the local hub threads
+			   else done = ring.awaitCompletion(millis);
+			   if(!done)
+			   {
+				   ring.quiesce();
+				   if(!ring.awaitCompletion(DRAIN_MILLIS))
+					   RingLog.log(RingLog.Subsystem.HUB, RingLog.Level.ERROR, "Stopping with messages not acknowledged");
+			   }
+		   } 
+		   catch (InterruptedException e) { RingLog.log(RingLog.Subsystem.HUB, RingLog.Level.ERROR, "Wait interrupted");}
 		   
-		   // Terminate all threads
-		   for(i = 0 ; i < 8 ; i++) 
-		   {
-			   threadReferences[i].interrupt();
-		   }
-		   // Wait on all threads
-		   try { for(i = 0 ; i < 8 ; i++) threadReferences[i].join(); }
+		   // Terminate all threads and wait on them
+		   try { ring.stop(); }
 		   catch(InterruptedException e) { }
-		   System.out.println("All done");
+		   if(LoadReport.get().isConfigured()) RingLog.log(RingLog.Subsystem.HUB, RingLog.Level.INFO, LoadReport.get().summary());
+		   RingLog.log(RingLog.Subsystem.HUB, RingLog.Level.INFO, "All done");
+		   RingLog.flush();  // print the lines still queued before exiting
 	}
 
 	/*-------------------------------------------------------------
-	Method: createStation
+	Method: createRing
 	Parameters:
-	    stnId - station identifier
-	    dest - identifier of station to which messages are sent
-	    messages - messages to send
+	    args - command line arguments (see main())
 	    
 	Description:
-	    Creates and starts a station thread (Station) which acts like a station
-	    according to given parameters.
-	    Receives a reference to a Cable object for communication 
-	    between the station thread and hub threads.
-	    Returns the thread id for cancellation.
+	    Describes the 4 station ring: station A sends messagesA to C,
+	    B sends messagesB to D, C sends messagesC to A and D sends
+	    messagesD to A.
 	-------------------------------------------------------------*/
-	private static Thread createStation(char stnId, char dest, String [] messages, Cable cbl)
+	private static RingTopology createRing(String [] args)
 	{
-		Station stn = new Station(stnId, dest, messages, cbl);
-		stn.start();
-		return(stn);
-	}
+		   RingConfig ringConfig = new RingConfig();
+		   TwistedPair.Kind pairKind = TwistedPair.Kind.MONITOR;
 
-	/*--------------------------------------------------------------
-	Function: createHubThreads
-	Description:
-	   Creates and starts a hub thread to listen on cable cableIx.
-	--------------------------------------------------------------*/
-	private static Thread createHubThread(Cable cableMonitor, Cable cableFwd)
-	{
-		HubThread ht = new HubThread(cableMonitor, cableFwd);
-		ht.start();
-		return(ht);
-	}
-	
-	
+		   if(args.length > 0) pairKind = TwistedPair.Kind.valueOf(args[0].toUpperCase());
+		   if(args.length > 1) ringConfig.setFormat(TokRing.Format.valueOf(args[1].toUpperCase()));
+		   if(args.length > 2) ringConfig.setWindow(Integer.parseInt(args[2]));
+		   if(args.length > 3) 
+		   {
+			   ringConfig.getHoldingPolicy().setMaxFrames(TokenHoldingPolicy.UNLIMITED);
+			   ringConfig.getHoldingPolicy().setMaxNanos(Long.parseLong(args[3]) * 1000);
+		   }
+		   if(args.length > 4) ringConfig.getHoldingPolicy().setEarlyRelease(args[4].equalsIgnoreCase("EARLY"));
 
+		   return(new RingTopology.Builder()
+				   .pairKind(pairKind)
+				   .config(ringConfig)
+				   .station('A', new FixedTraffic('C', messagesA))
+				   .station('B', new FixedTraffic('D', messagesB))
+				   .station('C', new FixedTraffic('A', messagesC))
+				   .station('D', new FixedTraffic('A', messagesD))
+				   .build());
+	}
 }
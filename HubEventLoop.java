@@ -0,0 +1,136 @@
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+/*-------------------------------------------------------------------
+Class: HubEventLoop
+
+Description: 
+   Alternative to HubThread that services many cables from one thread.
+   Each registered cable has a ready listener on its txPair: when a 
+   station transmits, the listener queues the cable on the loop's ready
+   queue (once, until it is serviced).  The loop takes the frames of 
+   each ready cable without blocking and forwards them to the next 
+   cable.  The loop thread is only unparked when it is idle, so a busy
+   loop forwards frames without any thread wake-up.
+
+   A ring uses a small fixed number of loops (e.g. one per core) with 
+   the cables spread over them, so that the number of hub threads does
+   not depend on the number of stations.
+   The loop never blocks in xmit: the station behind a full rxPair
+   may itself be blocked on its txPair, which only this loop drains.
+   Frames that do not fit (TwistedPair.offer()) are kept by the link,
+   which stops forwarding and is queued again by the room listener of
+   the rxPair once that station has received.  MAPPED pairs and the 
+   connections to other nodes still wait for room, as their receiver 
+   cannot run the listener.
+   The loop terminates when its thread is interrupted.
+-------------------------------------------------------------------*/
+public class HubEventLoop implements Runnable
+{
+	private ConcurrentLinkedQueue<Link> ready = new ConcurrentLinkedQueue<Link>();
+	private volatile Thread loopThread;  // set while the loop is parked
+	private int linkCount = 0;
+
+	/*
+	 * A monitored cable and the cable to which its frames are forwarded
+	 */
+	private class Link implements Runnable
+	{
+		Cable cableToMonitor;
+		Cable cableToForward;
+		AtomicBoolean queued = new AtomicBoolean(false);  // on the ready queue
+		volatile String pending;  // frames waiting for room in cableToForward
+
+		// Room listener - run by the station of cableToForward after it receives
+		Runnable room = new Runnable() {
+			public void run()
+			{
+				if(pending != null) Link.this.run();
+			}
+		};
+
+		// Ready listener - run by the station thread after it transmits
+		public void run()
+		{
+			if(queued.compareAndSet(false, true))
+			{
+				ready.add(this);
+				Thread waiter = loopThread;
+				if(waiter != null) LockSupport.unpark(waiter);
+			}
+		}
+
+		// Offers the pending frames again - false while there is no room
+		boolean flush() throws InterruptedException
+		{
+			String frames = pending;
+			if(frames == null) return(true);
+			if(!cableToForward.hubOffer(frames)) return(false);
+			pending = null;
+			return(true);
+		}
+
+		// Keeps frames that did not fit until the room listener runs
+		void hold(String frames) throws InterruptedException
+		{
+			pending = frames;
+			flush();  // re-check after advertising
+		}
+	}
+
+	/*
+	 * Services cblMonitor: frames received from it are forwarded to
+	 * cblForward.  Must be called before the stations start transmitting.
+	 */
+	public void register(Cable cblMonitor, Cable cblForward)
+	{
+		Link link = new Link();
+		link.cableToMonitor = cblMonitor;
+		link.cableToForward = cblForward;
+		cblMonitor.setHubListener(link);
+		cblForward.setStationListener(link.room);
+		linkCount++;
+		link.run();  // in case frames are already waiting
+	}
+
+	// Number of cables serviced by the loop
+	public int getLinkCount() { return(linkCount); }
+
+	public void run()
+	{
+	   Link link;
+
+	   while(true)  // working loop
+	   {
+		  link = ready.poll();
+		  if(link == null)  // nothing to do - park until a cable is ready
+		  {
+			  loopThread = Thread.currentThread();
+			  if(ready.isEmpty()) LockSupport.park(this);  // re-check after advertising
+			  loopThread = null;
+			  if(Thread.currentThread().isInterrupted()) break;
+			  continue;
+		  }
+		  link.queued.set(false);  // frames xmitted from now on queue the link again
+		  try
+		  {
+			  // Forward frames received to other cable, once the frames 
+			  // held back have been forwarded
+			  if(link.flush())
+			  {
+				  String frames = link.cableToMonitor.hubForwardOffer(link.cableToForward);
+				  if(frames != null) link.hold(frames);
+			  }
+		  }
+		  catch (InterruptedException ex) {
+			  break; 
+		  }
+		  if(Thread.currentThread().isInterrupted())
+		  {
+			  break;  // break out of loop and terminate the thread.
+		  }
+	   }
+	   RingLog.log(RingLog.Subsystem.HUB, RingLog.Level.INFO, "Hub event loop" + Thread.currentThread().getId() + " terminated");
+	}
+}
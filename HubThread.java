@@ -4,10 +4,12 @@ Class: hubThread
 Description: 
    This thread listens on cableToMonitor, to a station thread.  
    When data is received from the station, it is send over cableToForward 
-   to an adjacent station.
+   to an adjacent station (see Cable.hubForward()).
+   The loop is run by a thread created by a RingThreadFactory and
+   terminates when that thread is interrupted.
 -------------------------------------------------------------------*/
 
-public class HubThread extends Thread
+public class HubThread implements Runnable
 {
 	private Cable cableToMonitor;  // Cable to monitor - read
 	private Cable cableToForward;  // Cable to forward data received.
@@ -20,26 +22,21 @@ public class HubThread extends Thread
 	
 	public void run()
 	{
-	   String frames;       // String received
-		  
 	   while(true)  // working loop
 	   {
 		  try
 		  {
-		      // Get frames
-			  frames = cableToMonitor.hubReceive();  // Blocks until received
-			  // Forward to other cable
-			  cableToForward.hubTransmit(frames);
+		      // Get frames and forward to other cable
+			  cableToMonitor.hubForward(cableToForward);  // Blocks until received
 		  }
 		  catch (InterruptedException ex) {
 			  break; 
 		  }
-		  if(this.isInterrupted())
+		  if(Thread.currentThread().isInterrupted())
 		  {
 			  break;  // break out of loop and terminate the thread.
 		  }
 	   }
-	   System.out.println("Hub thread" + this.getId() + " terminated");
-	   System.out.flush();
+	   RingLog.log(RingLog.Subsystem.HUB, RingLog.Level.INFO, "Hub thread" + Thread.currentThread().getId() + " terminated");
 	}
 }
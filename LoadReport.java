@@ -0,0 +1,128 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/*------------------------------------------------------------
+Class: LoadReport
+
+Description:
+   Results of a load test run with a Workload.  The run is open ended:
+   the generators keep producing messages until the ring is stopped,
+   and the report covers a measurement phase that follows a warm-up
+   phase, both starting when the first generator is polled:
+      - messages offered (arrivals) and dropped (the backlog of a
+        station was full) during the measurement phase
+      - messages completed (acknowledged) during the measurement phase,
+        and their completion latency, from their arrival at the station
+        to their Ack
+      - payload characters sent during the measurement phase
+   A measurement phase of 0 lasts until the end of the run.
+
+   There is a single report (get()), like RingMetrics; recording is
+   lock-free and called on the stations' threads.
+-------------------------------------------------------------*/
+public class LoadReport
+{
+	private static final LoadReport report = new LoadReport();
+
+	public enum Phase {IDLE, WARMUP, MEASURE, DONE};
+
+	private volatile long warmupNanos = 0;
+	private volatile long measureNanos = 0;    // 0 - until the end of the run
+	private volatile boolean configured = false;
+	private final AtomicLong started = new AtomicLong(Long.MIN_VALUE);  // time of the first poll
+	private volatile long lastTime;            // latest time seen by a generator
+	private final LongAdder offered = new LongAdder();
+	private final LongAdder dropped = new LongAdder();
+	private final LongAdder completed = new LongAdder();
+	private final LongAdder charsSent = new LongAdder();
+	private final Histogram latency = new Histogram();
+
+	private LoadReport() { }
+
+	public static LoadReport get() { return(report); }
+
+	/*
+	 * Sets the phases, in nanoseconds of the ring's clock, and clears
+	 * the results - called before the ring is started.
+	 */
+	public void configure(long warmup, long measure)
+	{
+		if(warmup < 0 || measure < 0) throw new IllegalArgumentException("Negative phase: " + warmup + ", " + measure);
+		warmupNanos = warmup;
+		measureNanos = measure;
+		configured = true;
+		started.set(Long.MIN_VALUE);
+		offered.reset();
+		dropped.reset();
+		completed.reset();
+		charsSent.reset();
+		latency.reset();
+	}
+
+	public boolean isConfigured() { return(configured); }
+
+	// Length of the run in milliseconds - warm-up and measurement
+	public long getRunMillis() { return((warmupNanos + measureNanos) / 1000000); }
+
+	/*---------------------------------------------
+	 * Recording - called by the generators with the time of their clock
+	 -----------------------------------------------*/
+	Phase phase(long now)
+	{
+		long start = started.get();
+		if(start == Long.MIN_VALUE)
+		{
+			started.compareAndSet(Long.MIN_VALUE, now);
+			start = started.get();
+		}
+		lastTime = now;
+		long elapsed = now - start;
+		if(elapsed < warmupNanos) return(Phase.WARMUP);
+		if(measureNanos == 0 || elapsed < warmupNanos + measureNanos) return(Phase.MEASURE);
+		return(Phase.DONE);
+	}
+
+	void arrived(long time)
+	{
+		if(phase(time) == Phase.MEASURE) offered.increment();
+	}
+
+	void dropped(long time)
+	{
+		if(phase(time) == Phase.MEASURE) dropped.increment();
+	}
+
+	void sent(long now, int chars)
+	{
+		if(phase(now) == Phase.MEASURE) charsSent.add(chars);
+	}
+
+	void completed(long now, long arrival)
+	{
+		if(phase(now) != Phase.MEASURE) return;
+		completed.increment();
+		latency.record(now - arrival);
+	}
+
+	/*
+	 * Summary of the measurement phase.
+	 */
+	public String summary()
+	{
+		long start = started.get();
+		if(start == Long.MIN_VALUE) return("load test: not started\n");
+		long measured = Math.max(0, lastTime - start - warmupNanos);
+		if(measureNanos != 0) measured = Math.min(measured, measureNanos);
+		double secs = Math.max(measured, 1) / 1e9;
+		return(String.format("load test: warm-up %d ms, measured %.0f ms\n", warmupNanos / 1000000, secs * 1000) +
+		       String.format("offered: %d msgs (%.1f/s), dropped: %d\n", offered.sum(), offered.sum() / secs, dropped.sum()) +
+		       String.format("completed: %d msgs (%.1f/s), payload sent: %.0f chars/s\n", completed.sum(), completed.sum() / secs, charsSent.sum() / secs) +
+		       "completion latency (us): " + latency.summary(1000) + "\n");
+	}
+
+	// Getters for programs driving a load test
+	public long getOffered() { return(offered.sum()); }
+	public long getDropped() { return(dropped.sum()); }
+	public long getCompleted() { return(completed.sum()); }
+	public Histogram getLatency() { return(latency); }
+}
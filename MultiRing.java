@@ -0,0 +1,207 @@
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Properties;
+
+/*------------------------------------------------------------
+Class: MultiRing
+
+Description:
+   Several independent token rings, each with its own token, cables
+   and hub threads, joined by a RingBridge.  Only one station of a ring
+   transmits at a time, so rings are added to increase the number of
+   messages delivered per second.
+
+   Each station is placed on a ring by its RingRouter - by hashing its
+   id, or as given by route().  The bridge has a station on every ring
+   (the last station of the ring, with id bridgeId) that forwards the
+   frames for stations of other rings.  Stations are not aware of the
+   rings: they send to any station id and messages to stations of other
+   rings cross the bridge (and so do their Acks).
+
+      MultiRing rings = new MultiRing.Builder()
+                            .rings(4)
+                            .settings(new RingTopology.Builder().config(config))
+                            .station(1000, traffic)
+                            ...
+                            .build();
+
+   or loaded from a properties file with the keys of RingTopology.load()
+   and:
+      ring.rings     number of rings
+      ring.bridgeId  id of the bridge stations
+      route.<id>     ring of station <id> (default - hash of the id)
+-------------------------------------------------------------*/
+public class MultiRing implements Ring
+{
+	private RingTopology [] rings;
+	private RingBridge bridge;
+
+	private MultiRing(Builder bld, RingRouter router)
+	{
+		int count = router.getRings();
+		rings = new RingTopology[count];
+		bridge = new RingBridge(router);
+		for(int r = 0 ; r < count ; r++)
+		{
+			RingTopology.Builder ring = bld.settings.copySettings();
+			if(bld.settings.getMappedDir() != null)  // cable files of each ring in a directory of their own
+			{
+				File dir = new File(bld.settings.getMappedDir(), "ring" + r);
+				dir.mkdirs();
+				ring.mappedDir(dir.getPath());
+			}
+			for(int i = 0 ; i < bld.settings.size() ; i++)
+				if(router.ringOf(bld.settings.getId(i)) == r) ring.station(bld.settings.getId(i), bld.settings.getTraffic(i));
+			if(ring.size() == 0) throw new IllegalArgumentException("No station on ring " + r);
+			ring.station(bld.bridgeId, null);
+			rings[r] = ring.build();
+			bridge.attach(r, rings[r].getStation(rings[r].size() - 1).getTokRing());
+		}
+	}
+
+	// Getters
+	public int getRingCount() { return(rings.length); }
+	public RingTopology getRing(int r) { return(rings[r]); }
+	public RingBridge getBridge() { return(bridge); }
+
+	public void start() throws InterruptedException
+	{
+		for(RingTopology ring : rings) ring.start();
+	}
+
+	public void quiesce()
+	{
+		for(RingTopology ring : rings) ring.quiesce();
+	}
+
+	/*
+	 * Complete when every ring is complete - messages crossing the
+	 * bridge are counted by the ring of their source until their Ack
+	 * comes back - and no group frame is crossing the bridge (they
+	 * are not acknowledged).
+	 */
+	public boolean isComplete()
+	{
+		for(RingTopology ring : rings) 
+			if(!ring.isComplete()) return(false);
+		return(bridge.getGroupsInTransit() == 0);
+	}
+
+	public boolean awaitCompletion(long millis) throws InterruptedException
+	{
+		long deadline = System.nanoTime() + millis * 1000000L;
+		for(RingTopology ring : rings)
+			if(!ring.awaitCompletion(Math.max(0, (deadline - System.nanoTime()) / 1000000L))) return(false);
+		while(!isComplete())  // the group frames still crossing the bridge
+		{
+			if(System.nanoTime() - deadline > 0) return(false);
+			Thread.sleep(1);
+		}
+		return(true);
+	}
+
+	public boolean isDistributed()
+	{
+		for(RingTopology ring : rings) 
+			if(ring.isDistributed()) return(true);
+		return(false);
+	}
+
+	public void stop() throws InterruptedException
+	{
+		for(RingTopology ring : rings) ring.stop();
+	}
+
+	/*-------------------------------------------------------------
+	Method: load
+	Parameters:
+	    fileName - properties file describing the rings
+	Description:
+	    Builds a MultiRing, or a single RingTopology when ring.rings
+	    is missing or 1 (see the keys above and RingTopology.load()).
+	-------------------------------------------------------------*/
+	public static Ring load(String fileName) throws IOException
+	{
+		Properties props = new Properties();
+		Reader in = new FileReader(fileName);
+		try { props.load(in); }
+		finally { in.close(); }
+		int count = Integer.parseInt(props.getProperty("ring.rings", "1").trim());
+		if(count == 1) return(RingTopology.load(props));
+		Builder bld = new Builder().rings(count).settings(RingTopology.parse(props));
+		String value;
+		if((value = props.getProperty("ring.bridgeId")) != null) bld.bridgeId(Integer.parseInt(value.trim()));
+		for(String key : props.stringPropertyNames())
+		{
+			if(key.startsWith("route."))
+				bld.route(RingTopology.parseId(key.substring(6)), Integer.parseInt(props.getProperty(key).trim()));
+		}
+		return(bld.build());
+	}
+
+	/*-------------------------------------------------------------
+	Class: Builder
+	Description:
+	    Describes the rings - settings gives the settings of every
+	    ring and the stations, which are placed on the rings by the
+	    router.
+	-------------------------------------------------------------*/
+	public static class Builder
+	{
+		private int count = 2;
+		private RingTopology.Builder settings = new RingTopology.Builder();
+		private int bridgeId = -1;  // default depends on the frame format
+		private ArrayList<int[]> routes = new ArrayList<int[]>();  // {id, ring}
+
+		public Builder rings(int rings)
+		{
+			if(rings < 1) throw new IllegalArgumentException("Need at least one ring: " + rings);
+			count = rings;
+			return(this);
+		}
+
+		/*
+		 * Settings of the rings, and stations added to bld are added to
+		 * the rings.
+		 */
+		public Builder settings(RingTopology.Builder bld)
+		{
+			settings = bld;
+			return(this);
+		}
+
+		public Builder station(int id, TrafficProfile trfc)
+		{
+			settings.station(id, trfc);
+			return(this);
+		}
+
+		public Builder bridgeId(int id)
+		{
+			bridgeId = id;
+			return(this);
+		}
+
+		// Places station id on ring instead of the ring given by its hash
+		public Builder route(int id, int ring)
+		{
+			routes.add(new int[] {id, ring});
+			return(this);
+		}
+
+		public MultiRing build()
+		{
+			RingRouter router = new RingRouter(count);
+			for(int [] route : routes) router.route(route[0], route[1]);
+			if(bridgeId == -1)  // a character that TEXT frames can carry, or an id unlikely to be used
+				bridgeId = settings.getConfig().getFormat() == TokRing.Format.TEXT ? '#' : TokRing.GROUP_BIT - 1;
+			for(int i = 0 ; i < settings.size() ; i++)
+				if(settings.getId(i) == bridgeId)
+					throw new IllegalArgumentException("Station id " + TokRing.idName(bridgeId) + " is the id of the bridge");
+			return(new MultiRing(this, router));
+		}
+	}
+}
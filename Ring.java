@@ -0,0 +1,50 @@
+/*
+ * Interface: Ring
+ * Description: A token ring network that can be started and stopped -
+ * a single ring (RingTopology) or several rings joined by a bridge
+ * (MultiRing).
+ *
+ * A run ends when the work of the stations is complete: every station
+ * has finished its traffic profile, or was quiesced, and all its
+ * messages were acknowledged (see RingActivity).  Open ended traffic
+ * is quiesced to let the token drain the queues before stop():
+ *
+ *     ring.start();
+ *     if(!ring.awaitCompletion(runMillis))
+ *     {
+ *        ring.quiesce();
+ *        ring.awaitCompletion(drainMillis);
+ *     }
+ *     ring.stop();
+ */
+public interface Ring
+{
+	/*
+	 * Starts the threads of the stations and the hub, then the token.
+	 */
+	public void start() throws InterruptedException;
+	/*
+	 * Stops the stations taking new messages from their traffic
+	 * profiles; the messages already queued are sent and acknowledged.
+	 */
+	public void quiesce();
+	/*
+	 * True when the work of the local stations is complete.
+	 */
+	public boolean isComplete();
+	/*
+	 * Waits up to millis for the work of the local stations to
+	 * complete, returns isComplete().
+	 */
+	public boolean awaitCompletion(long millis) throws InterruptedException;
+	/*
+	 * True when some stations run in other processes or nodes - they
+	 * depend on the local hub threads until their own work is complete,
+	 * which the local ring cannot see.
+	 */
+	public boolean isDistributed();
+	/*
+	 * Terminates the threads and waits for them.
+	 */
+	public void stop() throws InterruptedException;
+}
@@ -0,0 +1,72 @@
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Class: RingActivity
+ * Description: Completion detection for the stations of a ring.  Each
+ * station reports the change of its number of messages waiting for an
+ * acknowledgement (TokRing.outstanding()) and, once, that it will not
+ * send any more messages - its traffic profile is finished or the ring
+ * was quiesced.  The work of the stations is complete when all of them
+ * have finished and every message was acknowledged; once complete, it
+ * stays complete.
+ *
+ * The counts are updated lock-free on the stations' threads; the lock
+ * is only taken to wake the threads waiting in awaitCompletion().
+ */
+public class RingActivity
+{
+	private final AtomicInteger active;  // stations that may still send messages
+	private final AtomicLong outstanding = new AtomicLong();  // messages waiting for an Ack
+
+	public RingActivity(int stations)
+	{
+		active = new AtomicInteger(stations);
+	}
+
+	// Getters
+	public int getActive() { return(active.get()); }
+	public long getOutstanding() { return(outstanding.get()); }
+
+	public boolean isComplete()
+	{
+		return(active.get() == 0 && outstanding.get() == 0);
+	}
+
+	/*---------------------------------------------
+	 * Reporting - called on the stations' threads
+	 -----------------------------------------------*/
+	// The outstanding messages of a station changed by delta
+	void changed(int delta)
+	{
+		if(outstanding.addAndGet(delta) == 0 && active.get() == 0) signal();
+	}
+
+	// A station will not send any more messages
+	void finished()
+	{
+		if(active.decrementAndGet() == 0 && outstanding.get() == 0) signal();
+	}
+
+	private synchronized void signal()
+	{
+		notifyAll();
+	}
+
+	/*-------------------------------------------------------------
+	Method: awaitCompletion
+	Parameters: long millis - longest wait in milliseconds
+	Returns: true if the work of the stations is complete.
+	-------------------------------------------------------------*/
+	public synchronized boolean awaitCompletion(long millis) throws InterruptedException
+	{
+		long deadline = System.nanoTime() + millis * 1000000L;
+		while(!isComplete())
+		{
+			long left = deadline - System.nanoTime();
+			if(left <= 0) return(false);
+			wait(Math.max(1, left / 1000000L));
+		}
+		return(true);
+	}
+}
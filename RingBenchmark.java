@@ -0,0 +1,590 @@
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/*------------------------------------------------------------
+Class: RingBenchmark
+
+Description:
+   Benchmarks for the ring, run as a plain Java program:
+      handoff  - xmit/recv hand-off latency of each twisted pair kind
+                 but SIMULATED,
+                 measured by ping-pong over two pairs (half the round
+                 trip), with 1 receiver and, for MONITOR pairs (the only
+                 multi-receiver kind), N receivers on the same pair
+      parse    - recvMessage() throughput over receive queues
+                 holding 1, 10 and 1000 frames, TEXT and BINARY
+      xmit     - xmitMessage() cost as the transmit queue grows
+      ring     - acknowledged messages per second on rings of 4, 64 and
+                 1024 stations built with RingTopology
+      multiring - acknowledged messages per second with 64 stations spread
+                  over 2 and 4 rings joined by a bridge (MultiRing)
+      faults   - acknowledged messages per second on a ring of 8 stations
+                 with the active monitor and retransmission, without
+                 faults and with frames dropped, corrupted or delayed
+                 (FaultProfile); the recoveries are printed
+      capture  - as ring with 64 stations, with every frame recorded in
+                 a RingCapture - the cost of leaving a capture on
+      multicast - deliveries per second of notifications from one
+                 station to the 15 others of a ring, sent as one
+                 unicast message per receiver and as one group message
+      fragment - small messages per simulated second on a simulated
+                 ring of 8 stations (RingSimulator, 10M characters per
+                 second per hop) where one station also sends 16K
+                 character messages, without an MTU and with MTUs of
+                 1024 and 256
+   Each benchmark runs warm-up iterations, then measured iterations; the
+   score is the mean over the measured iterations with its standard
+   deviation.  Results are printed, and written one JSON object per
+   line to the output file, so that runs of alternative
+   implementations can be compared with a baseline:
+
+      java RingBenchmark [-o results.json] [-i iterations] [benchmark...]
+      java RingBenchmark compare baseline.json results.json
+
+   RingLog only prints errors while the benchmarks run.
+-------------------------------------------------------------*/
+public class RingBenchmark
+{
+	private static int warmups = 3;
+	private static int iterations = 5;
+	private final static long RING_TIMEOUT_MILLIS = 60000;  // an iteration of the ring benchmark
+	private final static int CAPTURE_BYTES = 256 << 20;
+	private static ArrayList<String> results = new ArrayList<String>();  // JSON lines
+
+	public static void main(String[] args) throws Exception
+	{
+		if(args.length == 3 && args[0].equals("compare"))
+		{
+			compare(args[1], args[2]);
+			return;
+		}
+		String outFile = "bench_results.json";
+		ArrayList<String> selected = new ArrayList<String>();
+		for(int i = 0 ; i < args.length ; i++)
+		{
+			if(args[i].equals("-o")) outFile = args[++i];
+			else if(args[i].equals("-i")) iterations = Integer.parseInt(args[++i]);
+			else selected.add(args[i]);
+		}
+		RingLog.setLevel(RingLog.Level.ERROR);
+		if(selected.isEmpty())
+		{
+			selected.add("handoff");
+			selected.add("parse");
+			selected.add("xmit");
+			selected.add("ring");
+			selected.add("multiring");
+			selected.add("faults");
+			selected.add("capture");
+			selected.add("multicast");
+			selected.add("fragment");
+		}
+		if(selected.contains("handoff"))
+		{
+			for(TwistedPair.Kind kind : TwistedPair.Kind.values()) 
+				if(kind != TwistedPair.Kind.SIMULATED) handoff(kind, 1);  // run by a RingSimulator - see fragment
+			handoff(TwistedPair.Kind.MONITOR, 4);
+		}
+		if(selected.contains("parse"))
+		{
+			for(TokRing.Format fmt : TokRing.Format.values())
+				for(int frames : new int[] {1, 10, 1000}) parse(fmt, frames);
+		}
+		if(selected.contains("xmit"))
+		{
+			for(int backlog : new int[] {0, 1000, 100000}) xmit(backlog);
+		}
+		if(selected.contains("ring"))
+		{
+			ring(4, 1, 40000, false);
+			ring(64, 1, 100, false);
+			ring(1024, 1, 1, false);
+		}
+		if(selected.contains("multiring"))
+		{
+			for(int rings : new int[] {2, 4}) ring(64, rings, 100, false);
+		}
+		if(selected.contains("capture")) ring(64, 1, 100, true);
+		if(selected.contains("multicast"))
+		{
+			multicast(false);
+			multicast(true);
+		}
+		if(selected.contains("fragment"))
+		{
+			for(int mtu : new int[] {0, 1024, 256}) fragment(mtu);
+		}
+		if(selected.contains("faults"))
+		{
+			faults("none", null);
+			faults("drop", new FaultProfile().drop(0.0001));
+			faults("drop", new FaultProfile().drop(0.001));
+			faults("corrupt", new FaultProfile().corrupt(0.001));
+			faults("delay", new FaultProfile().delay(0.01, 100000));
+		}
+		PrintWriter out = new PrintWriter(new FileWriter(outFile));
+		for(String line : results) out.println(line);
+		out.close();
+		System.out.println("Results written to " + outFile);
+	}
+
+	/*-------------------------------------------------------------
+	Benchmark: handoff
+	Description:
+	    The main thread xmits a frame on pair 1; one of the receivers
+	    gets it and xmits it back on pair 2, where the main thread
+	    receives it.  Score is half of the round trip.
+	-------------------------------------------------------------*/
+	private static void handoff(TwistedPair.Kind kind, int receivers) throws Exception
+	{
+		final TwistedPair to = newPair(kind);
+		final TwistedPair back = newPair(kind);
+		Thread [] threads = new Thread[receivers];
+		for(int i = 0 ; i < receivers ; i++)
+		{
+			threads[i] = new Thread(new Runnable() {
+				public void run()
+				{
+					try { while(true) back.xmit(to.recv()); }
+					catch (InterruptedException ex) { }
+				}
+			});
+			threads[i].start();
+		}
+		final int ops = 20000;
+		double [] scores = measure(new Task() {
+			public double run() throws Exception
+			{
+				long start = System.nanoTime();
+				for(int i = 0 ; i < ops ; i++)
+				{
+					to.xmit("@AB~");
+					back.recv();
+				}
+				return((System.nanoTime() - start) / (2.0 * ops));
+			}
+		});
+		for(Thread thr : threads) thr.interrupt();
+		for(Thread thr : threads) thr.join();
+		report("handoff", params("pair", kind, "receivers", receivers), scores, "ns/op");
+	}
+
+	/*-------------------------------------------------------------
+	Benchmark: parse
+	Description:
+	    Queues frames frames in the receive queue of a TokRing and
+	    takes them with recvMessage().  Score is frames per second.
+	-------------------------------------------------------------*/
+	private static void parse(TokRing.Format fmt, final int frames) throws Exception
+	{
+		RingConfig config = new RingConfig();
+		config.setFormat(fmt);
+		TokRing sender = new TokRing(new Cable(0), 'A', 0, config);
+		for(int i = 0 ; i < frames ; i++) sender.xmitMessage('B', "Message number " + i + " of the benchmark");
+		final FrameQueue queued = sender.takeXmitQueue();
+		final TokRing receiver = new TokRing(new Cable(1), 'B', 0, config);
+		final Frame frame = new Frame();
+		final int rounds = Math.max(1, 200000 / frames);
+		double [] scores = measure(new Task() {
+			public double run() throws Exception
+			{
+				long parsed = 0;
+				long start = System.nanoTime();
+				for(int r = 0 ; r < rounds ; r++)
+				{
+					receiver.putRecvQueue(queued);
+					while(receiver.recvMessage(frame) == TokRing.Status.MSG_RECV) parsed++;
+				}
+				return(parsed * 1e9 / (System.nanoTime() - start));
+			}
+		});
+		report("parse", params("format", fmt, "frames", frames), scores, "frames/s");
+	}
+
+	/*-------------------------------------------------------------
+	Benchmark: xmit
+	Description:
+	    Appends frames with xmitMessage() to a TokRing whose transmit
+	    queue already holds backlog frames.  Score is time per call.
+	-------------------------------------------------------------*/
+	private static void xmit(final int backlog) throws Exception
+	{
+		final RingConfig config = new RingConfig();
+		config.setFormat(TokRing.Format.BINARY);
+		final int ops = 10000;
+		double [] scores = measure(new Task() {
+			public double run() throws Exception
+			{
+				TokRing tr = new TokRing(new Cable(0), 1, 0, config);
+				for(int i = 0 ; i < backlog ; i++) tr.xmitMessage(2, "Backlog message");
+				long start = System.nanoTime();
+				for(int i = 0 ; i < ops ; i++) tr.xmitMessage(2, "Benchmark message");
+				return((System.nanoTime() - start) / (double)ops);
+			}
+		});
+		report("xmit", params("backlog", backlog), scores, "ns/op");
+	}
+
+	/*-------------------------------------------------------------
+	Benchmark: ring
+	Description:
+	    Every station sends messages messages to the next station 
+	    (window 4, up to 8 frames per token capture).  Each iteration
+	    runs a new ring until all the messages are acknowledged (see
+	    Ring.awaitCompletion()); the score is the number of messages
+	    per second from start().  With more than one ring, the 
+	    stations are placed on the rings by the hash of their id, so
+	    most messages cross the bridge.  With captured, every frame
+	    is recorded in a RingCapture created with the ring.
+	-------------------------------------------------------------*/
+	private static void ring(final int stations, final int rings, final int messages, final boolean captured) throws Exception
+	{
+		final File captureFile = captured ? File.createTempFile("ring", ".cap") : null;
+		final RingConfig config = new RingConfig();
+		config.setFormat(TokRing.Format.BINARY);
+		config.setWindow(4);
+		config.getHoldingPolicy().setMaxFrames(8);
+		final String [] msgs = new String[messages];
+		Arrays.fill(msgs, "Benchmark message");
+		double [] scores = measure(new Task() {
+			public double run() throws Exception
+			{
+				RingTopology.Builder bld = new RingTopology.Builder().config(config).pairKind(TwistedPair.Kind.RING).pairCapacity(4096);
+				if(captured) bld.capture(RingCapture.create(captureFile.getPath(), CAPTURE_BYTES));
+				for(int i = 0 ; i < stations ; i++) bld.station(1000 + i, new FixedTraffic(1000 + (i + 1) % stations, msgs));
+				Ring ring = rings == 1 ? bld.build() : new MultiRing.Builder().rings(rings).settings(bld).build();
+				long start = System.nanoTime();
+				ring.start();
+				try
+				{
+					if(!ring.awaitCompletion(RING_TIMEOUT_MILLIS)) 
+						throw new IllegalStateException("Messages not acknowledged after " + RING_TIMEOUT_MILLIS + " ms");
+					return((double)stations * messages * 1e9 / (System.nanoTime() - start));
+				}
+				finally { ring.stop(); }
+			}
+		});
+		if(captured) 
+		{
+			captureFile.delete();
+			report("capture", params("stations", stations), scores, "msgs/s");
+		}
+		else if(rings == 1) report("ring", params("stations", stations), scores, "msgs/s");
+		else report("multiring", params("stations", stations, "rings", rings), scores, "msgs/s");
+	}
+
+	/*-------------------------------------------------------------
+	Benchmark: faults
+	Description:
+	    As ring, on 8 stations sending 1000 messages each, with the
+	    active monitor (20 ms) and retransmission (50 ms).  The
+	    faults are injected on every cable.
+	-------------------------------------------------------------*/
+	private static void faults(String kind, final FaultProfile faults) throws Exception
+	{
+		final int stations = 8;
+		final int messages = 1000;
+		final RingConfig config = new RingConfig();
+		config.setFormat(TokRing.Format.BINARY);
+		config.setWindow(4);
+		config.getHoldingPolicy().setMaxFrames(8);
+		config.setMonitorTimeout(20000000L);
+		config.setRetransmitTimeout(50000000L);
+		final String [] msgs = new String[messages];
+		Arrays.fill(msgs, "Benchmark message");
+		final long [] recovered = new long[3];  // of the last iteration
+		double [] scores = measure(new Task() {
+			public double run() throws Exception
+			{
+				RingTopology.Builder bld = new RingTopology.Builder().config(config).pairKind(TwistedPair.Kind.RING).pairCapacity(4096);
+				if(faults != null) bld.faults(new FaultProfile().drop(faults.getDrop()).corrupt(faults.getCorrupt()).delay(faults.getDelay(), faults.getDelayNanos()));
+				for(int i = 0 ; i < stations ; i++) bld.station(1000 + i, new FixedTraffic(1000 + (i + 1) % stations, msgs));
+				RingTopology ring = bld.build();
+				long start = System.nanoTime();
+				ring.start();
+				try
+				{
+					if(!ring.awaitCompletion(RING_TIMEOUT_MILLIS)) 
+						throw new IllegalStateException("Messages not acknowledged after " + RING_TIMEOUT_MILLIS + " ms");
+					return((double)stations * messages * 1e9 / (System.nanoTime() - start));
+				}
+				finally 
+				{
+					ring.stop();
+					Arrays.fill(recovered, 0);
+					for(int i = 0 ; i < stations ; i++)
+					{
+						TokRing tr = ring.getStation(i).getTokRing();
+						recovered[0] += tr.getTokensRegenerated();
+						recovered[1] += tr.getRetransmitted();
+						recovered[2] += tr.getCorruptFrames();
+					}
+				}
+			}
+		});
+		double p = faults == null ? 0 : faults.getDrop() + faults.getCorrupt() + faults.getDelay();
+		report("faults", params("fault", kind, "probability", p), scores, "msgs/s");
+		System.out.printf("    tokens regenerated=%d retransmits=%d corrupt frames=%d (last iteration)\n", recovered[0], recovered[1], recovered[2]);
+	}
+
+	/*-------------------------------------------------------------
+	Benchmark: multicast
+	Description:
+	    Station 1000 of a ring of 16 stations sends 1000 notifications
+	    to the 15 others - a unicast message to each receiver, or a
+	    message to a group that the receivers joined.  Unicast
+	    notifications are done once acknowledged, group ones once
+	    they are back at the sender (seen by every station).  Score
+	    is deliveries (notifications times receivers) per second, and
+	    the group notifications must all have been copied.
+	-------------------------------------------------------------*/
+	private static void multicast(final boolean group) throws Exception
+	{
+		final int stations = 16;
+		final int notifications = 1000;
+		final int address = TokRing.groupAddress(1);
+		final RingConfig config = new RingConfig();
+		config.setFormat(TokRing.Format.BINARY);
+		config.setWindow(4);
+		config.getHoldingPolicy().setMaxFrames(8);
+		final int [] receivers = new int[stations - 1];
+		for(int i = 0 ; i < receivers.length ; i++) receivers[i] = 1001 + i;
+		double [] scores = measure(new Task() {
+			public double run() throws Exception
+			{
+				RingTopology.Builder bld = new RingTopology.Builder().config(config).pairKind(TwistedPair.Kind.RING).pairCapacity(4096);
+				bld.station(1000, new FanOut(group ? new int[] {address} : receivers, notifications));
+				for(int id : receivers) bld.station(id, null).join(id, address);
+				RingTopology ring = bld.build();
+				TokRing sender = ring.getStation(0).getTokRing();
+				long start = System.nanoTime();
+				ring.start();
+				try
+				{
+					if(!ring.awaitCompletion(RING_TIMEOUT_MILLIS)) 
+						throw new IllegalStateException("Notifications not delivered after " + RING_TIMEOUT_MILLIS + " ms");
+					double score = (double)receivers.length * notifications * 1e9 / (System.nanoTime() - start);
+					if(group && sender.getGroupCopied() != notifications)
+						throw new IllegalStateException("Group notifications copied: " + sender.getGroupCopied() + " of " + notifications);
+					return(score);
+				}
+				finally { ring.stop(); }
+			}
+		});
+		report("multicast", params("receivers", receivers.length, "mode", group ? "group" : "unicast"), scores, "deliveries/s");
+	}
+
+	/*-------------------------------------------------------------
+	Benchmark: fragment
+	Description:
+	    Station 1000 of a ring of 8 stations sends 20 messages of 16K
+	    characters to station 1004, while the 7 others send 200 small
+	    messages each to the next station.  The ring is simulated, as
+	    the cost of a long frame is its time on the wire: each hop
+	    receives a whole frame before forwarding it, at 10M characters
+	    per second, with a hop delay of 1 us.  Score is small messages
+	    per simulated second, until the last one is acknowledged.
+	    Without an MTU, a long message holds the token and each hop
+	    for the whole message.
+	-------------------------------------------------------------*/
+	private static void fragment(int mtu) throws Exception
+	{
+		final int stations = 8;
+		final int small = 200;
+		final RingConfig config = new RingConfig();
+		config.setFormat(TokRing.Format.BINARY);
+		config.setWindow(4);
+		config.getHoldingPolicy().setMaxFrames(8);
+		config.getHoldingPolicy().setMaxChars(4096);
+		config.setMtu(mtu);
+		final String [] bulk = new String[20];
+		char [] chars = new char[16384];
+		Arrays.fill(chars, 'x');
+		Arrays.fill(bulk, new String(chars));
+		final String [] msgs = new String[small];
+		Arrays.fill(msgs, "Benchmark message");
+		double [] scores = measure(new Task() {
+			public double run() throws Exception
+			{
+				RingTopology.Builder bld = new RingTopology.Builder().config(config);
+				bld.station(1000, new FixedTraffic(1004, bulk));
+				Timed [] timed = new Timed[stations - 1];
+				for(int i = 1 ; i < stations ; i++) bld.station(1000 + i, timed[i-1] = new Timed(1000 + (i + 1) % stations, msgs));
+				RingSimulator sim = new RingSimulator.Builder().ring(bld).hopDelay(1000).bandwidth(10000000).seed(1).build();
+				sim.start();
+				long start = timed[0].clock.nanoTime();
+				if(!sim.run(RING_TIMEOUT_MILLIS * 1000000L))
+					throw new IllegalStateException("Messages not acknowledged after " + RING_TIMEOUT_MILLIS + " simulated ms");
+				long last = start;
+				for(Timed t : timed) last = Math.max(last, t.doneAt);
+				return((double)timed.length * small * 1e9 / (last - start));
+			}
+		});
+		report("fragment", params("mtu", mtu), scores, "msgs/s (simulated)");
+	}
+
+	/*
+	 * Traffic of the fragment benchmark - a FixedTraffic that records
+	 * when all its messages are acknowledged, on the simulated clock.
+	 */
+	private static class Timed implements TrafficProfile
+	{
+		private final int dest;
+		private final String [] msgs;
+		private int next = 0;
+		RingClock clock;
+		long doneAt = 0;
+
+		Timed(int destination, String [] messages)
+		{
+			dest = destination;
+			msgs = messages;
+		}
+
+		public int nextDestination() { return(next == msgs.length ? NONE : dest); }
+		public String takeMessage() { return(msgs[next++]); }
+		public boolean isFinished() { return(next == msgs.length); }
+		public void setClock(RingClock clk) { clock = clk; }
+		public void acknowledged(int from, int count) { if(count == msgs.length) doneAt = clock.nanoTime(); }
+	}
+
+	/*
+	 * Traffic of the multicast benchmark - each notification is sent
+	 * to every destination of dests in turn.
+	 */
+	private static class FanOut implements TrafficProfile
+	{
+		private final int [] dests;
+		private final int total;   // messages
+		private int next = 0;
+
+		FanOut(int [] destinations, int notifications)
+		{
+			dests = destinations;
+			total = notifications * destinations.length;
+		}
+
+		public int nextDestination() { return(next == total ? NONE : dests[next % dests.length]); }
+		public String takeMessage() { next++; return("Benchmark notification"); }
+		public boolean isFinished() { return(next == total); }
+	}
+
+	/*---------------------------------------------
+	 * Measurement and reporting
+	 -----------------------------------------------*/
+	private interface Task
+	{
+		public double run() throws Exception;  // returns the score of one iteration
+	}
+
+	private static double [] measure(Task task) throws Exception
+	{
+		for(int i = 0 ; i < warmups ; i++) task.run();
+		double [] scores = new double[iterations];
+		for(int i = 0 ; i < iterations ; i++) scores[i] = task.run();
+		return(scores);
+	}
+
+	private static Map<String,Object> params(Object... keyValues)
+	{
+		LinkedHashMap<String,Object> map = new LinkedHashMap<String,Object>();
+		for(int i = 0 ; i < keyValues.length ; i += 2) map.put((String)keyValues[i], keyValues[i+1]);
+		return(map);
+	}
+
+	private static TwistedPair newPair(TwistedPair.Kind kind)
+	{
+		if(kind == TwistedPair.Kind.RING) return(new TwistedPairRing());
+		if(kind == TwistedPair.Kind.SEGMENT) return(new TwistedPairSegments(SegmentPool.getShared()));
+		if(kind == TwistedPair.Kind.MAPPED)  // same code as in a mapped file, in a direct buffer
+		{
+			int capacity = TwistedPairRing.DEFAULT_CAPACITY;
+			return(new TwistedPairMapped(ByteBuffer.allocateDirect(TwistedPairMapped.regionSize(capacity)), capacity));
+		}
+		if(kind == TwistedPair.Kind.MONITOR) return(new TwistedPairVer1());
+		throw new IllegalArgumentException(kind + " twisted pairs cannot be benchmarked by threads");
+	}
+
+	private static void report(String name, Map<String,Object> params, double [] scores, String unit)
+	{
+		double mean = 0;
+		for(double s : scores) mean += s;
+		mean /= scores.length;
+		double var = 0;
+		for(double s : scores) var += (s - mean) * (s - mean);
+		double stddev = scores.length > 1 ? Math.sqrt(var / (scores.length - 1)) : 0;
+		StringBuilder json = new StringBuilder("{\"benchmark\":\"" + key(name, params) + "\",\"params\":{");
+		String sep = "";
+		for(Map.Entry<String,Object> e : params.entrySet())
+		{
+			json.append(sep).append('"').append(e.getKey()).append("\":\"").append(e.getValue()).append('"');
+			sep = ",";
+		}
+		json.append(String.format("},\"score\":%.3f,\"error\":%.3f,\"unit\":\"%s\",\"iterations\":%d}", mean, stddev, unit, scores.length));
+		results.add(json.toString());
+		System.out.printf("%-45s %15.1f +- %-12.1f %s\n", key(name, params), mean, stddev, unit);
+	}
+
+	// Identifies a benchmark and its parameters, e.g. parse:format=TEXT,frames=10
+	private static String key(String name, Map<String,Object> params)
+	{
+		StringBuilder key = new StringBuilder(name);
+		String sep = ":";
+		for(Map.Entry<String,Object> e : params.entrySet())
+		{
+			key.append(sep).append(e.getKey()).append('=').append(e.getValue());
+			sep = ",";
+		}
+		return(key.toString());
+	}
+
+	/*-------------------------------------------------------------
+	Method: compare
+	Description:
+	    Prints the ratio of each score of current to the same score in
+	    baseline (for ns/op, a ratio above 1 is slower).
+	-------------------------------------------------------------*/
+	private static void compare(String baseline, String current) throws IOException
+	{
+		Map<String,String[]> base = load(baseline);
+		Map<String,String[]> cur = load(current);
+		for(Map.Entry<String,String[]> e : cur.entrySet())
+		{
+			String [] b = base.get(e.getKey());
+			double score = Double.parseDouble(e.getValue()[0]);
+			if(b == null) System.out.printf("%-45s %15.1f %s (no baseline)\n", e.getKey(), score, e.getValue()[1]);
+			else System.out.printf("%-45s %15.1f %s  x%.3f of baseline\n", e.getKey(), score, e.getValue()[1],
+					               score / Double.parseDouble(b[0]));
+		}
+	}
+
+	// benchmark key -> {score, unit}
+	private static Map<String,String[]> load(String fileName) throws IOException
+	{
+		Pattern p = Pattern.compile("\"benchmark\":\"([^\"]*)\".*\"score\":([-0-9.Ee]+).*\"unit\":\"([^\"]*)\"");
+		LinkedHashMap<String,String[]> map = new LinkedHashMap<String,String[]>();
+		BufferedReader in = new BufferedReader(new FileReader(fileName));
+		try
+		{
+			String line;
+			while((line = in.readLine()) != null)
+			{
+				Matcher m = p.matcher(line);
+				if(m.find()) map.put(m.group(1), new String[] {m.group(2), m.group(3)});
+			}
+		}
+		finally { in.close(); }
+		return(map);
+	}
+}
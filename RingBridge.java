@@ -0,0 +1,65 @@
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/*
+ * Class: RingBridge
+ * Description: Bridge station of a MultiRing.  The bridge has a station
+ * on each ring, whose TokRing is in bridge mode (TokRing.setBridge()):
+ *  - it copies the frames whose destination is routed to another ring
+ *    (see RingRouter) and gives them to forward(), which queues them
+ *    on the bridge station of that ring;
+ *  - at each token capture, it xmits the frames queued by the other
+ *    rings as they were received, with their original source,
+ *    destination and sequence number, so acknowledgements work across
+ *    rings;
+ *  - it removes from its ring the frames whose source is on another
+ *    ring, i.e. the frames that it xmitted.
+ * Frames sent to a group address are forwarded to all the other rings;
+ * they are not acknowledged, so the bridge counts them until they come
+ * back to the bridge station of their ring (see getGroupsInTransit()).
+ * Frames are queued between the threads of the bridge stations with
+ * TokRing.inject().
+ */
+public class RingBridge
+{
+	private final RingRouter router;
+	private final TokRing [] stations;  // bridge station of each ring
+	private final LongAdder forwarded = new LongAdder();
+	private final AtomicInteger groupsInTransit = new AtomicInteger();
+
+	public RingBridge(RingRouter rtr)
+	{
+		router = rtr;
+		stations = new TokRing[rtr.getRings()];
+	}
+
+	public RingRouter getRouter() { return(router); }
+	public long getForwarded() { return(forwarded.sum()); }
+	// Group frames queued on other rings and not back yet - MultiRing completion
+	public int getGroupsInTransit() { return(groupsInTransit.get()); }
+
+	// Makes tr the bridge station of ring
+	public void attach(int ring, TokRing tr)
+	{
+		stations[ring] = tr;
+		tr.setBridge(this, ring);
+	}
+
+	/*
+	 * Called by the bridge station of another ring - queues the len
+	 * characters of frame at offset on the bridge station of ring.
+	 */
+	void forward(int ring, char [] frame, int offset, int len)
+	{
+		stations[ring].inject(Arrays.copyOfRange(frame, offset, offset + len));
+		forwarded.increment();
+	}
+
+	/*
+	 * Group frames - counted when forwarded, and when they come back
+	 * to the bridge station of the other ring (or were lost).
+	 */
+	void groupForwarded(int count) { groupsInTransit.addAndGet(count); }
+	void groupsDone(int count) { groupsInTransit.addAndGet(-count); }
+}
@@ -0,0 +1,190 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/*------------------------------------------------------------
+Class: RingCapture
+
+Description:
+   Capture of the frames xmitted on the cables of rings, written to a
+   compact binary file for offline analysis and replay (see RingReplay).
+   The twisted pairs of a captured cable are wrapped in
+   TwistedPairCapture pairs (Cable.withCapture()) that record each
+   frame xmitted with its time, cable and direction:
+
+      RingCapture capture = RingCapture.create("ring.cap", 64 << 20);
+      new RingTopology.Builder().capture(capture)...
+      ...
+      capture.close();
+
+   The file is allocated, memory-mapped and its pages touched when it
+   is created.  Each xmit reserves the room for its frames with a
+   single atomic add, then copies them into the mapping - no lock, no
+   system call, no page fault, so that a capture can be left on.  Once
+   the file is full, the frames are counted as dropped and not
+   recorded.
+
+   File layout (big endian):
+      0  MAGIC
+      4  VERSION
+      8  rings - number of rings registered
+     12  the first cable id and the number of cables of each ring, up
+         to MAX_RINGS
+   HEADER  records, 8 byte aligned:
+      0  length of the frame in characters - written last, 0 ends the
+         capture
+      4  cable id << 1 | direction (TX - station to hub, RX - hub to
+         station)
+      8  nanoseconds since the capture was created
+     16  the characters of the frame
+   Characters that are not a whole frame are recorded as one record.
+-------------------------------------------------------------*/
+public class RingCapture
+{
+	public final static int MAGIC = 0x544B5243;  // "TKRC"
+	public final static int VERSION = 1;
+	public final static int HEADER = 4096;
+	public final static int MAX_RINGS = (HEADER - 12) / 8;
+	public final static int REC_HEADER = 16;
+	public final static int TX = 0;   // direction - xmitted by the station
+	public final static int RX = 1;   // direction - xmitted by the hub to the station
+	private final static int RINGS_POS = 8;
+	private final static int PAGE = 4096;
+
+	private final String fileName;
+	private final MappedByteBuffer map;
+	private final CharBuffer chars;   // view of map for copying frames
+	private final long startNanos = System.nanoTime();
+	private final AtomicLong position = new AtomicLong(HEADER);  // next record
+	private final LongAdder recorded = new LongAdder();
+	private final LongAdder dropped = new LongAdder();
+	private int rings = 0;
+	private int nextCable = 0;
+
+	private RingCapture(String name, MappedByteBuffer buf)
+	{
+		fileName = name;
+		map = buf;
+		for(int i = 0 ; i < map.capacity() ; i += PAGE) map.put(i, (byte)0);  // no page faults while recording
+		chars = buf.asCharBuffer();
+		map.putInt(0, MAGIC);
+		map.putInt(4, VERSION);
+		map.putInt(RINGS_POS, 0);
+		map.putInt(HEADER, 0);
+	}
+
+	/*-------------------------------------------------------------
+	Method: create
+	Parameters: String name - capture file, replaced if it exists
+	            int bytes - size of the file
+	Returns: a capture with no rings
+	-------------------------------------------------------------*/
+	public static RingCapture create(String name, int bytes) throws IOException
+	{
+		if(bytes < HEADER + 1024) throw new IllegalArgumentException("Capture file too small: " + bytes);
+		File file = new File(name);
+		file.delete();
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try
+		{
+			raf.setLength(bytes);
+			return(new RingCapture(name, raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, bytes)));
+		}
+		finally { raf.close(); }  // the mapping stays valid
+	}
+
+	// Getters
+	public String getFileName() { return(fileName); }
+	public long getRecorded() { return(recorded.sum()); }
+	public long getDropped() { return(dropped.sum()); }
+	public long getBytes() { return(Math.min(position.get(), map.capacity())); }
+
+	/*
+	 * Registers a ring of count cables - returns the id of its first
+	 * cable, the others follow.
+	 */
+	public synchronized int register(int count)
+	{
+		if(rings == MAX_RINGS) throw new IllegalStateException("Cannot capture more than " + MAX_RINGS + " rings");
+		int first = nextCable;
+		map.putInt(RINGS_POS + 4 + 8 * rings, first);
+		map.putInt(RINGS_POS + 8 + 8 * rings, count);
+		rings++;
+		map.putInt(RINGS_POS, rings);
+		nextCable += count;
+		return(first);
+	}
+
+	/*-------------------------------------------------------------
+	Method: record
+	Parameters: int cable - cable id (see register())
+	            int direction - TX or RX
+	            char [] src, int offset, int len - frames xmitted
+	Description:
+	    Records each frame of src - called by the thread xmitting
+	    them, before they are xmitted.
+	-------------------------------------------------------------*/
+	public void record(int cable, int direction, char [] src, int offset, int len)
+	{
+		if(len <= 0) return;
+		int end = offset + len;
+		int bytes = 0;
+		int frames = 0;
+		for(int i = offset ; i < end ; frames++)
+		{
+			int frameLen = frameLength(src, i, end);
+			bytes += recordBytes(frameLen);
+			i += frameLen;
+		}
+		long pos = position.getAndAdd(bytes);
+		if(pos + bytes > map.capacity() - 4)  // room for the end mark
+		{
+			dropped.add(frames);
+			return;
+		}
+		int at = (int)pos;
+		long nanos = System.nanoTime() - startNanos;
+		int info = (cable << 1) | direction;
+		for(int i = offset ; i < end ; )
+		{
+			int frameLen = frameLength(src, i, end);
+			map.putInt(at + 4, info);
+			map.putLong(at + 8, nanos);
+			chars.put((at + REC_HEADER) / 2, src, i, frameLen);
+			map.putInt(at, frameLen);
+			at += recordBytes(frameLen);
+			i += frameLen;
+		}
+		recorded.add(frames);
+	}
+
+	// Length of the frame at start - the rest if it is not a whole frame
+	private static int frameLength(char [] src, int start, int end)
+	{
+		int len = TokRing.frameLength(src, start, end);
+		return(len > 0 ? len : end - start);
+	}
+
+	static int recordBytes(int frameLen)
+	{
+		return((REC_HEADER + 2 * frameLen + 7) & ~7);
+	}
+
+	public String summary()
+	{
+		return("capture " + fileName + ": frames recorded=" + getRecorded() + " dropped=" + getDropped() + " bytes=" + getBytes());
+	}
+
+	/*
+	 * Forces the capture to the disk - the file can then be replayed.
+	 */
+	public void close()
+	{
+		map.force();
+	}
+}
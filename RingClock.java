@@ -0,0 +1,16 @@
+/*
+ * Interface: RingClock
+ * Description: Time source of the TokRing interfaces - used for the
+ * xmit time of frames, the token holding time and the RingMetrics.
+ * Rings run on the SYSTEM clock; a RingSimulator gives its stations
+ * its simulated clock (see RingConfig.setClock()).
+ */
+public interface RingClock
+{
+	public final static RingClock SYSTEM = System::nanoTime;
+
+	/*
+	 * Current time in nanoseconds - only differences are meaningful.
+	 */
+	public long nanoTime();
+}
@@ -0,0 +1,97 @@
+/*------------------------------------------------------------
+Class: RingConfig
+
+Description:
+   Settings for the TokRing interface of a station.  The same
+   object can be shared by all stations of a ring.
+      format - format of the frames created by the station.
+      window - number of messages that may be waiting for an
+               acknowledgement, per destination (1 gives 
+               stop-and-wait).
+      holdingPolicy - what a station transmits each time it captures
+               the token (default - one frame).
+      ackPriority - priority of the Acks (see TokRing).  Above the
+               priority of the messages, Acks are not delayed by bulk
+               messages, but each reservation costs token rotations
+               at the raised priority (default 0).
+      clock - time source of the station (RingClock.SYSTEM, or the
+               simulated clock of a RingSimulator).
+      monitorTimeout - nanoseconds without a token after which the
+               active monitor regenerates it (0 - no active monitor,
+               the default).  Longer than the longest token rotation.
+      retransmitTimeout - nanoseconds without an Ack after which the
+               messages waiting for an Ack are xmitted again (0 - no
+               retransmission, the default; BINARY frames only).
+               Longer than the monitor timeout plus a rotation per
+               fragment of the longest message (see mtu).
+      mtu - longest message, in characters, xmitted in a single
+               frame; longer messages are fragmented (0 - not
+               limited, the default; BINARY frames only).
+-------------------------------------------------------------*/
+public class RingConfig
+{
+	private TokRing.Format format = TokRing.Format.TEXT;
+	private int window = 1;
+	private TokenHoldingPolicy holdingPolicy = new TokenHoldingPolicy();
+	private int ackPriority = 0;
+	private RingClock clock = RingClock.SYSTEM;
+	private long monitorTimeout = 0;
+	private long retransmitTimeout = 0;
+	private int mtu = 0;
+
+	public RingConfig()
+	{
+	}
+
+	// Copy of the settings of config
+	public RingConfig(RingConfig config)
+	{
+		format = config.format;
+		window = config.window;
+		holdingPolicy = config.holdingPolicy;
+		ackPriority = config.ackPriority;
+		clock = config.clock;
+		monitorTimeout = config.monitorTimeout;
+		retransmitTimeout = config.retransmitTimeout;
+		mtu = config.mtu;
+	}
+
+	public TokRing.Format getFormat() { return(format); }
+	public int getWindow() { return(window); }
+	public TokenHoldingPolicy getHoldingPolicy() { return(holdingPolicy); }
+	public int getAckPriority() { return(ackPriority); }
+	public RingClock getClock() { return(clock); }
+	public long getMonitorTimeout() { return(monitorTimeout); }
+	public long getRetransmitTimeout() { return(retransmitTimeout); }
+	public int getMtu() { return(mtu); }
+
+	public void setFormat(TokRing.Format fmt) { format = fmt; }
+	public void setWindow(int win)
+	{
+		if(win < 1) throw new IllegalArgumentException("Window must be at least 1: " + win);
+		window = win;
+	}
+	public void setHoldingPolicy(TokenHoldingPolicy policy) { holdingPolicy = policy; }
+	public void setClock(RingClock clk) { clock = clk; }
+	public void setMonitorTimeout(long nanos)
+	{
+		if(nanos < 0) throw new IllegalArgumentException("Negative monitor timeout: " + nanos);
+		monitorTimeout = nanos;
+	}
+	public void setRetransmitTimeout(long nanos)
+	{
+		if(nanos < 0) throw new IllegalArgumentException("Negative retransmit timeout: " + nanos);
+		retransmitTimeout = nanos;
+	}
+	public void setMtu(int chars)
+	{
+		if(chars < 0) throw new IllegalArgumentException("Negative MTU: " + chars);
+		mtu = chars;
+	}
+	public void setAckPriority(int priority)
+	{
+		if(priority < 0 || priority >= TokRing.PRIORITIES) 
+			throw new IllegalArgumentException("Priority must be 0 to " + (TokRing.PRIORITIES-1) + ": " + priority);
+		ackPriority = priority;
+	}
+}
@@ -0,0 +1,185 @@
+import java.io.PrintStream;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/*------------------------------------------------------------
+Class: RingLog
+
+Description:
+   Logging for the stations, hub and twisted pairs.  Instead of
+   printing on System.out (and taking the PrintStream lock) on the
+   thread that logs, log() puts the line in a bounded lock-free ring
+   of events.  A background writer thread takes the lines in batches
+   and prints each batch with a single write to the current System.out.
+
+   Each subsystem has a level; a line is only logged when its level is
+   at most the level of its subsystem.  Lines that cost something to
+   build are guarded with isEnabled(), e.g.
+      if(RingLog.isEnabled(RingLog.Subsystem.STATION, RingLog.Level.TRACE))
+         RingLog.log(RingLog.Subsystem.STATION, RingLog.Level.TRACE, "...");
+   so that they cost a volatile read when the level is off.  Levels are
+   set with setLevel(), or with the system properties ringlog.level
+   (all subsystems) and ringlog.<subsystem>, e.g. -Dringlog.station=INFO.
+   The default is TRACE - everything is printed.
+
+   The ring is a multi-producer queue of slots with sequence numbers
+   (Vyukov's bounded queue).  When it is full, log() waits for the
+   writer rather than dropping the line.  flush() waits until all lines
+   logged so far have been printed.
+-------------------------------------------------------------*/
+public class RingLog
+{
+	public enum Level {OFF, ERROR, INFO, TRACE};
+	public enum Subsystem {STATION, TOKRING, PAIR, HUB, METRICS};
+
+	private final static int CAPACITY = 1 << 14;   // events, a power of two
+	private final static int MAX_BATCH = 256;      // lines printed with one write
+	private static volatile Level [] levels = new Level[Subsystem.values().length];
+	// The ring of events - slot i holds event i+k*CAPACITY when its sequence is i+k*CAPACITY+1
+	private final static String [] events = new String[CAPACITY];
+	private final static AtomicLongArray sequences = new AtomicLongArray(CAPACITY);
+	private final static AtomicLong tail = new AtomicLong();  // next event to log
+	private static long head = 0;                   // next event to print - writer thread only
+	private static volatile long printed = 0;       // events printed so far
+	private static volatile boolean writerParked = false;
+	private static volatile Thread writer = null;
+
+	static
+	{
+		for(int i = 0 ; i < CAPACITY ; i++) sequences.set(i, i);
+		Level all = Level.valueOf(System.getProperty("ringlog.level", "TRACE").trim().toUpperCase());
+		for(Subsystem sub : Subsystem.values())
+		{
+			String value = System.getProperty("ringlog." + sub.name().toLowerCase());
+			levels[sub.ordinal()] = value != null ? Level.valueOf(value.trim().toUpperCase()) : all;
+		}
+	}
+
+	private RingLog() { }
+
+	/*
+	 * Methods for setting and testing levels
+	 */
+	public static boolean isEnabled(Subsystem sub, Level level)
+	{
+		return(level.compareTo(levels[sub.ordinal()]) <= 0);
+	}
+
+	public static Level getLevel(Subsystem sub) { return(levels[sub.ordinal()]); }
+
+	public static void setLevel(Subsystem sub, Level level)
+	{
+		Level [] updated = levels.clone();
+		updated[sub.ordinal()] = level;
+		levels = updated;
+	}
+
+	// Sets the level of all subsystems
+	public static void setLevel(Level level)
+	{
+		Level [] updated = new Level[levels.length];
+		for(int i = 0 ; i < updated.length ; i++) updated[i] = level;
+		levels = updated;
+	}
+
+	/*-------------------------------------------------------------
+	Method: log
+	Parameters: sub, level - subsystem and level of the line
+	            String line - line to print (without the new line)
+	Description:
+	    Queues line for the writer thread if the level is enabled.
+	-------------------------------------------------------------*/
+	public static void log(Subsystem sub, Level level, String line)
+	{
+		if(!isEnabled(sub, level)) return;
+		long t;
+		while(true)  // claim a slot
+		{
+			t = tail.get();
+			long seq = sequences.get((int)t & (CAPACITY - 1));
+			if(seq == t)
+			{
+				if(tail.compareAndSet(t, t + 1)) break;
+			}
+			else if(seq < t)  // full - wait for the writer
+			{
+				wakeWriter();
+				Thread.yield();
+			}
+		}
+		int ix = (int)t & (CAPACITY - 1);
+		events[ix] = line;
+		sequences.set(ix, t + 1);  // publish
+		if(writerParked || writer == null) wakeWriter();
+	}
+
+	public static void logf(Subsystem sub, Level level, String format, Object... args)
+	{
+		if(isEnabled(sub, level)) log(sub, level, String.format(format, args));
+	}
+
+	/*
+	 * Waits until the lines logged so far have been printed.
+	 */
+	public static void flush()
+	{
+		long target = tail.get();
+		while(printed < target)
+		{
+			wakeWriter();
+			LockSupport.parkNanos(100000);
+		}
+	}
+
+	private static void wakeWriter()
+	{
+		Thread thr = writer;
+		if(thr == null) startWriter();
+		else LockSupport.unpark(thr);
+	}
+
+	// The writer thread is started by the first line logged
+	private static synchronized void startWriter()
+	{
+		if(writer != null) return;
+		Thread thr = new Thread(new Runnable() {
+			public void run() { write(); }
+		}, "RingLog writer");
+		thr.setDaemon(true);
+		thr.start();
+		writer = thr;
+	}
+
+	// Loop of the writer thread
+	private static void write()
+	{
+		StringBuilder batch = new StringBuilder();
+		while(true)
+		{
+			int lines = 0;
+			while(lines < MAX_BATCH)
+			{
+				int ix = (int)head & (CAPACITY - 1);
+				if(sequences.get(ix) != head + 1) break;  // empty (or not yet published)
+				batch.append(events[ix]).append('\n');
+				events[ix] = null;
+				sequences.set(ix, head + CAPACITY);  // free the slot
+				head++;
+				lines++;
+			}
+			if(lines > 0)
+			{
+				PrintStream out = System.out;
+				out.print(batch);
+				out.flush();
+				batch.setLength(0);
+				printed = head;
+				continue;
+			}
+			writerParked = true;
+			if(sequences.get((int)head & (CAPACITY - 1)) != head + 1) LockSupport.parkNanos(1000000);  // re-check after advertising
+			writerParked = false;
+		}
+	}
+}
@@ -0,0 +1,230 @@
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/*------------------------------------------------------------
+Class: RingMetrics
+
+Description:
+   Latency and throughput measurements for the ring:
+      - token rotation time, measured by each station between two
+        captures of the token
+      - transmit queue depth sampled at each token capture, and the
+        current depth of the TxIndex/RxIndex buffers of each station
+      - end-to-end latency from xmitMessage() to the copy of the frame
+        in RxIndex (BINARY frames only - they carry the xmit time), 
+        recorded once per message: Acks are not recorded, and a
+        fragmented message only with its last fragment
+      - ack round trip time, from xmitMessage() to the Ack
+      - frames and characters xmitted by the station on each Cable
+      - number of waits, and time waited, in the twisted pairs
+
+   Metrics are off by default and cost a single test of a static 
+   field when off.  enable() must be called before the ring is created;
+   it also registers the JMX MBean.  startDump() prints a snapshot
+   periodically, with per-cable rates.
+-------------------------------------------------------------*/
+public class RingMetrics implements RingMetricsMBean
+{
+	private static final RingMetrics metrics = new RingMetrics();
+	private static boolean enabled = false;  // set before the ring threads start
+
+	final Histogram tokenRotation = new Histogram();
+	final Histogram txQueueDepth = new Histogram();
+	final Histogram latency = new Histogram();
+	final Histogram ackRtt = new Histogram();
+	private final LongAdder pairWaits = new LongAdder();
+	private final LongAdder pairWaitNanos = new LongAdder();
+	private final CopyOnWriteArrayList<TokRing> stations = new CopyOnWriteArrayList<TokRing>();
+	private Thread dumpThread;
+
+	private RingMetrics() { }
+
+	public static RingMetrics get() { return(metrics); }
+	public static boolean isEnabled() { return(enabled); }
+
+	/*
+	 * Turns the metrics on and registers the MBean.
+	 */
+	public static synchronized void enable()
+	{
+		if(enabled) return;
+		enabled = true;
+		try
+		{
+			ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, new ObjectName("TokRing:type=RingMetrics"));
+		}
+		catch (JMException ex) 
+		{ 
+			RingLog.log(RingLog.Subsystem.METRICS, RingLog.Level.ERROR, "RingMetrics: MBean not registered: " + ex.getMessage());
+		}
+	}
+
+	/*---------------------------------------------
+	 * Recording - called on the stations' threads
+	 -----------------------------------------------*/
+	void register(TokRing stn) { stations.add(stn); }
+
+	// Called after a thread waited in a twisted pair since startNanos
+	public static void pairWaited(long startNanos)
+	{
+		if(!enabled) return;
+		metrics.pairWaits.increment();
+		metrics.pairWaitNanos.add(System.nanoTime() - startNanos);
+	}
+
+	/*---------------------------------------------
+	 * Periodic dump
+	 -----------------------------------------------*/
+	/*
+	 * Prints a snapshot every periodMillis, from a daemon thread.
+	 */
+	public synchronized void startDump(final long periodMillis)
+	{
+		if(dumpThread != null) return;
+		dumpThread = new Thread(new Runnable() {
+			public void run()
+			{
+				long [] lastFrames = new long[0];
+				long [] lastChars = new long[0];
+				long lastTime = System.nanoTime();
+				while(true)
+				{
+					try { Thread.sleep(periodMillis); }
+					catch (InterruptedException ex) { break; }
+					long now = System.nanoTime();
+					double secs = (now - lastTime) / 1e9;
+					StringBuilder out = new StringBuilder(getSnapshot());
+					int n = stations.size();
+					if(lastFrames.length != n) { lastFrames = new long[n]; lastChars = new long[n]; }
+					for(int i = 0 ; i < n ; i++)
+					{
+						Cable cbl = stations.get(i).getCable();
+						long frames = cbl.getFramesXmitted();
+						long chars = cbl.getCharsXmitted();
+						out.append(String.format("cable %d: %.0f frames/s %.0f chars/s\n",
+								cbl.getNum(), (frames - lastFrames[i]) / secs, (chars - lastChars[i]) / secs));
+						lastFrames[i] = frames;
+						lastChars[i] = chars;
+					}
+					lastTime = now;
+					out.setLength(out.length() - 1);  // RingLog adds the last new line
+					RingLog.log(RingLog.Subsystem.METRICS, RingLog.Level.INFO, out.toString());
+				}
+			}
+		}, "RingMetrics dump");
+		dumpThread.setDaemon(true);
+		dumpThread.start();
+	}
+
+	public synchronized void stopDump()
+	{
+		if(dumpThread != null) dumpThread.interrupt();
+		dumpThread = null;
+	}
+
+	/*---------------------------------------------
+	 * MBean attributes
+	 -----------------------------------------------*/
+	public long getTokenRotations() { return(tokenRotation.getCount()); }
+	public long getTokenRotationP50Micros() { return(tokenRotation.getPercentile(50) / 1000); }
+	public long getTokenRotationP99Micros() { return(tokenRotation.getPercentile(99) / 1000); }
+	public long getTokenRotationMaxMicros() { return(tokenRotation.getMax() / 1000); }
+	public long getDeliveredMessages() { return(latency.getCount()); }
+	public long getLatencyP50Micros() { return(latency.getPercentile(50) / 1000); }
+	public long getLatencyP99Micros() { return(latency.getPercentile(99) / 1000); }
+	public long getLatencyMaxMicros() { return(latency.getMax() / 1000); }
+	public long getAcks() { return(ackRtt.getCount()); }
+	public long getAckRttP50Micros() { return(ackRtt.getPercentile(50) / 1000); }
+	public long getAckRttP99Micros() { return(ackRtt.getPercentile(99) / 1000); }
+	public long getPairWaits() { return(pairWaits.sum()); }
+	public long getPairWaitMicros() { return(pairWaitNanos.sum() / 1000); }
+
+	public int getTxQueueDepthTotal()
+	{
+		int total = 0;
+		for(TokRing stn : stations) total += stn.getTxDepth();
+		return(total);
+	}
+	public int getTxQueueDepthMax()
+	{
+		int max = 0;
+		for(TokRing stn : stations) max = Math.max(max, stn.getTxDepth());
+		return(max);
+	}
+	public int getRxQueueDepthTotal()
+	{
+		int total = 0;
+		for(TokRing stn : stations) total += stn.getRxDepth();
+		return(total);
+	}
+	public int getRxQueueDepthMax()
+	{
+		int max = 0;
+		for(TokRing stn : stations) max = Math.max(max, stn.getRxDepth());
+		return(max);
+	}
+	public long getFramesXmitted()
+	{
+		long total = 0;
+		for(TokRing stn : stations) total += stn.getCable().getFramesXmitted();
+		return(total);
+	}
+	public long getCharsXmitted()
+	{
+		long total = 0;
+		for(TokRing stn : stations) total += stn.getCable().getCharsXmitted();
+		return(total);
+	}
+	// Recovery from faults (see FaultProfile)
+	public long getCorruptFrames()
+	{
+		long total = 0;
+		for(TokRing stn : stations) total += stn.getCorruptFrames();
+		return(total);
+	}
+	public long getTokensRegenerated()
+	{
+		long total = 0;
+		for(TokRing stn : stations) total += stn.getTokensRegenerated();
+		return(total);
+	}
+	public long getTokensPurged()
+	{
+		long total = 0;
+		for(TokRing stn : stations) total += stn.getTokensPurged();
+		return(total);
+	}
+	public long getRetransmits()
+	{
+		long total = 0;
+		for(TokRing stn : stations) total += stn.getRetransmitted();
+		return(total);
+	}
+
+	public String getSnapshot()
+	{
+		return("token rotation (us): " + tokenRotation.summary(1000) + "\n" +
+		       "tx queue depth at capture (frames): " + txQueueDepth.summary(1) + "\n" +
+		       "end-to-end latency (us): " + latency.summary(1000) + "\n" +
+		       "ack round trip (us): " + ackRtt.summary(1000) + "\n" +
+		       "queues (frames): tx total=" + getTxQueueDepthTotal() + " max=" + getTxQueueDepthMax() +
+		       " rx total=" + getRxQueueDepthTotal() + " max=" + getRxQueueDepthMax() + "\n" +
+		       "xmitted: frames=" + getFramesXmitted() + " chars=" + getCharsXmitted() + "\n" +
+		       "twisted pair waits: " + getPairWaits() + " (" + getPairWaitMicros() + " us)\n" +
+		       "faults: corrupt frames=" + getCorruptFrames() + " tokens regenerated=" + getTokensRegenerated() +
+		       " purged=" + getTokensPurged() + " retransmits=" + getRetransmits() + "\n");
+	}
+
+	public void reset()
+	{
+		tokenRotation.reset();
+		txQueueDepth.reset();
+		latency.reset();
+		ackRtt.reset();
+		pairWaits.reset();
+		pairWaitNanos.reset();
+	}
+}
@@ -0,0 +1,33 @@
+/*
+ * Interface: RingMetricsMBean
+ * Description: JMX view of RingMetrics (object name TokRing:type=RingMetrics).
+ * Times are in microseconds, queue depths in frames.
+ */
+public interface RingMetricsMBean
+{
+	public long getTokenRotations();
+	public long getTokenRotationP50Micros();
+	public long getTokenRotationP99Micros();
+	public long getTokenRotationMaxMicros();
+	public long getDeliveredMessages();
+	public long getLatencyP50Micros();
+	public long getLatencyP99Micros();
+	public long getLatencyMaxMicros();
+	public long getAcks();
+	public long getAckRttP50Micros();
+	public long getAckRttP99Micros();
+	public int getTxQueueDepthTotal();
+	public int getTxQueueDepthMax();
+	public int getRxQueueDepthTotal();
+	public int getRxQueueDepthMax();
+	public long getFramesXmitted();
+	public long getCharsXmitted();
+	public long getPairWaits();
+	public long getPairWaitMicros();
+	public long getCorruptFrames();
+	public long getTokensRegenerated();
+	public long getTokensPurged();
+	public long getRetransmits();
+	public String getSnapshot();
+	public void reset();
+}
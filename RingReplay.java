@@ -0,0 +1,298 @@
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.locks.LockSupport;
+
+/*------------------------------------------------------------
+Class: RingReplay
+
+Description:
+   Feeds a RingCapture back into rings, to reproduce offline the load
+   of a captured run:
+
+      java RingReplay ring.cap [-speed S] [-pair KIND] [-hub THREADS|EVENT_LOOP]
+
+   The rings of the capture are built again, with cables of the given
+   pair kind (RING by default) and hub threads or event loops, but
+   without stations: the frames captured in the TX direction (xmitted
+   by the stations) are xmitted again on the same cables, at their
+   captured times divided by the speed (1 - original speed, 10 - ten
+   times faster, 0 - as fast as possible).  The hubs forward them as in
+   the captured run, and a drain thread per cable receives what a
+   station received.  When the RX direction of a cable was captured,
+   the drain checks that it receives the same characters - but for
+   the frames xmitted to the cable without a hub, at the start (the
+   token started by the ring), which are not replayed.
+
+   The report gives, for each ring, the frames and characters
+   replayed, the replay time against the captured time, the largest
+   lag behind the captured times, and the cables whose frames differ
+   from the capture (e.g. cables of other processes were not captured,
+   or the capture was full).
+-------------------------------------------------------------*/
+public class RingReplay
+{
+	private final static long DRAIN_MILLIS = 10000;  // waiting for the hubs to forward the last frames
+
+	// The records of the capture, in capture order
+	private int count = 0;
+	private long [] nanos = new long[1024];
+	private int [] cableIds = new int[1024];
+	private int [] directions = new int[1024];
+	private int [] offsets = new int[1024];   // in characters
+	private int [] lengths = new int[1024];
+	private CharBuffer chars;                 // the capture file
+	private int [] ringFirst;                 // first cable id of each ring
+	private int [] ringCount;
+	private int cableCount = 0;
+
+	private RingReplay(String fileName) throws IOException
+	{
+		RandomAccessFile raf = new RandomAccessFile(fileName, "r");
+		MappedByteBuffer map;
+		try { map = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length()); }
+		finally { raf.close(); }
+		if(map.capacity() < RingCapture.HEADER || map.getInt(0) != RingCapture.MAGIC || map.getInt(4) != RingCapture.VERSION)
+			throw new IOException(fileName + " is not a ring capture");
+		chars = map.asCharBuffer();
+		int rings = map.getInt(8);
+		ringFirst = new int[rings];
+		ringCount = new int[rings];
+		for(int r = 0 ; r < rings ; r++)
+		{
+			ringFirst[r] = map.getInt(12 + 8 * r);
+			ringCount[r] = map.getInt(16 + 8 * r);
+			cableCount = Math.max(cableCount, ringFirst[r] + ringCount[r]);
+		}
+		int pos = RingCapture.HEADER;
+		while(pos + RingCapture.REC_HEADER <= map.capacity())
+		{
+			int len = map.getInt(pos);
+			if(len <= 0) break;
+			if(count == nanos.length) grow();
+			int info = map.getInt(pos + 4);
+			nanos[count] = map.getLong(pos + 8);
+			cableIds[count] = info >>> 1;
+			directions[count] = info & 1;
+			offsets[count] = (pos + RingCapture.REC_HEADER) / 2;
+			lengths[count] = len;
+			count++;
+			pos += RingCapture.recordBytes(len);
+		}
+	}
+
+	private void grow()
+	{
+		int size = 2 * nanos.length;
+		nanos = Arrays.copyOf(nanos, size);
+		cableIds = Arrays.copyOf(cableIds, size);
+		directions = Arrays.copyOf(directions, size);
+		offsets = Arrays.copyOf(offsets, size);
+		lengths = Arrays.copyOf(lengths, size);
+	}
+
+	// Next cable of the ring of cable id
+	private int nextCable(int id)
+	{
+		for(int r = 0 ; r < ringFirst.length ; r++)
+			if(id >= ringFirst[r] && id < ringFirst[r] + ringCount[r])
+				return(ringFirst[r] + (id - ringFirst[r] + 1) % ringCount[r]);
+		throw new IllegalStateException("Cable " + id + " is not in a ring of the capture");
+	}
+
+	private int previousCable(int id)
+	{
+		int prev = id;
+		while(nextCable(prev) != id) prev = nextCable(prev);
+		return(prev);
+	}
+
+	/*
+	 * Receives the frames forwarded to a cable, and compares them with
+	 * the frames captured in the RX direction.
+	 */
+	private static class Drain implements Runnable
+	{
+		private final TwistedPair pair;
+		private final char [] expected;   // null - RX not captured
+		private final int skipped;        // characters of expected not forwarded by a hub
+		private volatile long received = 0;
+		private volatile long mismatch = -1;  // first character that differs
+
+		Drain(TwistedPair rx, char [] captured, int skip)
+		{
+			pair = rx;
+			expected = captured;
+			skipped = skip;
+		}
+
+		// Frames xmitted when the ring stopped were not forwarded in the captured run
+		boolean matches()
+		{
+			return(mismatch < 0 && received + skipped >= expected.length);
+		}
+
+		public void run()
+		{
+			try
+			{
+				while(true)
+				{
+					String frames = pair.recv();
+					if(expected != null && mismatch < 0)
+					{
+						for(int i = 0 ; i < frames.length() ; i++)
+						{
+							long at = skipped + received + i;
+							if(at >= expected.length) break;  // in flight when the capture ended
+							if(expected[(int)at] != frames.charAt(i))
+							{
+								mismatch = at;
+								break;
+							}
+						}
+					}
+					received += frames.length();
+				}
+			}
+			catch (InterruptedException ex) { }
+		}
+	}
+
+	/*-------------------------------------------------------------
+	Method: replay
+	Parameters: double speed - 0 for as fast as possible
+	            TwistedPair.Kind kind, RingTopology.HubMode hubMode
+	Returns: the report of the replay
+	-------------------------------------------------------------*/
+	private String replay(double speed, TwistedPair.Kind kind, RingTopology.HubMode hubMode) throws InterruptedException
+	{
+		// Captured frames of each cable and direction
+		long [] txChars = new long[cableCount];
+		int [] txFrames = new int[cableCount];
+		int [] rxChars = new int[cableCount];
+		for(int i = 0 ; i < count ; i++)
+		{
+			if(directions[i] == RingCapture.TX)
+			{
+				txChars[cableIds[i]] += lengths[i];
+				txFrames[cableIds[i]]++;
+			}
+			else rxChars[cableIds[i]] += lengths[i];
+		}
+		// The rings without stations
+		RingThreadFactory factory = new RingThreadFactory(RingThreadFactory.Mode.PLATFORM);
+		ArrayList<Thread> threads = new ArrayList<Thread>();
+		Cable [] cables = new Cable[cableCount];
+		Drain [] drains = new Drain[cableCount];
+		for(int c = 0 ; c < cableCount ; c++) cables[c] = new Cable(c, kind);
+		HubEventLoop [] loops = new HubEventLoop[hubMode == RingTopology.HubMode.EVENT_LOOP ? Runtime.getRuntime().availableProcessors() : 0];
+		for(int i = 0 ; i < loops.length ; i++) threads.add(factory.newThread(loops[i] = new HubEventLoop()));
+		for(int c = 0 ; c < cableCount ; c++)
+		{
+			if(loops.length > 0) loops[c % loops.length].register(cables[c], cables[nextCable(c)]);
+			else threads.add(factory.newThread(new HubThread(cables[c], cables[nextCable(c)])));
+		}
+		// The frames received by each station, for the drains
+		char [][] captured = new char[cableCount][];
+		int [] at = new int[cableCount];
+		for(int c = 0 ; c < cableCount ; c++) if(rxChars[c] > 0) captured[c] = new char[rxChars[c]];
+		for(int i = 0 ; i < count ; i++)
+		{
+			if(directions[i] != RingCapture.RX) continue;
+			chars.get(offsets[i], captured[cableIds[i]], at[cableIds[i]], lengths[i]);
+			at[cableIds[i]] += lengths[i];
+		}
+		for(int c = 0 ; c < cableCount ; c++)
+		{
+			int skip = (int)Math.max(0, rxChars[c] - txChars[previousCable(c)]);
+			drains[c] = new Drain(cables[c].getRxPair(), captured[c], skip);
+			threads.add(factory.newThread(drains[c]));
+		}
+		for(Thread thr : threads) thr.start();
+		// The frames xmitted by the stations, batched as captured
+		char [] batch = new char[256];
+		long maxLag = 0;
+		long start = System.nanoTime();
+		long first = count > 0 ? nanos[0] : 0;
+		int i = 0;
+		while(i < count)
+		{
+			if(directions[i] != RingCapture.TX) { i++; continue; }
+			int len = 0;
+			int j = i;
+			for( ; j < count && nanos[j] == nanos[i] && cableIds[j] == cableIds[i] && directions[j] == RingCapture.TX ; j++)
+			{
+				if(len + lengths[j] > batch.length) batch = Arrays.copyOf(batch, Math.max(2 * batch.length, len + lengths[j]));
+				chars.get(offsets[j], batch, len, lengths[j]);
+				len += lengths[j];
+			}
+			if(speed > 0)
+			{
+				long due = start + (long)((nanos[i] - first) / speed);
+				long wait;
+				while((wait = due - System.nanoTime()) > 0) LockSupport.parkNanos(wait);
+				maxLag = Math.max(maxLag, System.nanoTime() - due);
+			}
+			cables[cableIds[i]].stationTransmit(batch, 0, len);
+			i = j;
+		}
+		long xmitted = System.nanoTime() - start;
+		// Waits for the hubs to forward everything
+		long deadline = System.currentTimeMillis() + DRAIN_MILLIS;
+		for(int c = 0 ; c < cableCount ; c++)
+			while(drains[c].received < txChars[previousCable(c)] && System.currentTimeMillis() < deadline) Thread.sleep(1);
+		long elapsed = System.nanoTime() - start;
+		for(Thread thr : threads) thr.interrupt();
+		for(Thread thr : threads) thr.join();
+		// The report
+		StringBuilder out = new StringBuilder();
+		long span = count > 0 ? nanos[count-1] - first : 0;
+		out.append(String.format("replayed %d records in %.1f ms (xmitted in %.1f ms, captured over %.1f ms, max lag %.3f ms)\n",
+		                         count, elapsed / 1e6, xmitted / 1e6, span / 1e6, maxLag / 1e6));
+		for(int r = 0 ; r < ringFirst.length ; r++)
+		{
+			long frames = 0, total = 0;
+			int differ = 0, notCaptured = 0;
+			for(int c = ringFirst[r] ; c < ringFirst[r] + ringCount[r] ; c++)
+			{
+				frames += txFrames[c];
+				total += txChars[c];
+				if(drains[c].expected == null) notCaptured++;
+				else if(!drains[c].matches()) differ++;
+			}
+			out.append(String.format("ring %d: %d cables, %d frames, %d chars xmitted; %d cables differ from the capture, %d without RX capture\n",
+			                         r, ringCount[r], frames, total, differ, notCaptured));
+		}
+		return(out.toString());
+	}
+
+	public static void main(String[] args) throws Exception
+	{
+		if(args.length < 1)
+		{
+			System.err.println("usage: java RingReplay <capture file> [-speed S] [-pair KIND] [-hub THREADS|EVENT_LOOP]");
+			return;
+		}
+		double speed = 1;
+		TwistedPair.Kind kind = TwistedPair.Kind.RING;
+		RingTopology.HubMode hubMode = RingTopology.HubMode.THREADS;
+		for(int i = 1 ; i < args.length ; i++)
+		{
+			if(args[i].equals("-speed")) speed = Double.parseDouble(args[++i]);
+			else if(args[i].equals("-pair")) kind = TwistedPair.Kind.valueOf(args[++i].toUpperCase());
+			else if(args[i].equals("-hub")) hubMode = RingTopology.HubMode.valueOf(args[++i].toUpperCase());
+			else throw new IllegalArgumentException("Unknown option " + args[i]);
+		}
+		if(kind == TwistedPair.Kind.MAPPED || kind == TwistedPair.Kind.SIMULATED)
+			throw new IllegalArgumentException("Cannot replay on " + kind + " twisted pairs");
+		RingLog.setLevel(RingLog.Level.ERROR);
+		RingReplay replay = new RingReplay(args[0]);
+		System.out.print(replay.replay(speed, kind, hubMode));
+		RingLog.flush();
+	}
+}
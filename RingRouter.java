@@ -0,0 +1,80 @@
+import java.util.Arrays;
+
+/*
+ * Class: RingRouter
+ * Description: Routing table of a MultiRing - gives the ring of each
+ * station id.  Stations are placed on a ring by hashing their id,
+ * unless a route was added for the id with route().  The table is an
+ * open addressing table of ints, so that a lookup allocates nothing;
+ * routes are added before the rings are started and only read after.
+ */
+public class RingRouter
+{
+	private final int rings;
+	private int [] keys = new int[16];    // station ids
+	private int [] values = new int[16];  // ring of the id, -1 for a free entry
+	private int count = 0;
+
+	public RingRouter(int ringCount)
+	{
+		if(ringCount < 1) throw new IllegalArgumentException("Need at least one ring: " + ringCount);
+		rings = ringCount;
+		Arrays.fill(values, -1);
+	}
+
+	public int getRings() { return(rings); }
+
+	/*
+	 * Places station id on ring, whatever its hash.
+	 */
+	public void route(int id, int ring)
+	{
+		if(ring < 0 || ring >= rings) throw new IllegalArgumentException("No ring " + ring + " for station " + TokRing.idName(id));
+		if(2 * (count + 1) > keys.length) grow();
+		if(put(keys, values, id, ring)) count++;
+	}
+
+	// Ring of station id
+	public int ringOf(int id)
+	{
+		int mask = keys.length - 1;
+		for(int i = mix(id) & mask ; values[i] >= 0 ; i = (i + 1) & mask)
+			if(keys[i] == id) return(values[i]);
+		return(hashRing(id));
+	}
+
+	// Ring given by the hash of id
+	public int hashRing(int id)
+	{
+		return(Math.floorMod(mix(id), rings));
+	}
+
+	private static int mix(int id)
+	{
+		int h = id * 0x9E3779B9;
+		return(h ^ (h >>> 16));
+	}
+
+	// Returns true if id was not in the table
+	private static boolean put(int [] keys, int [] values, int id, int ring)
+	{
+		int mask = keys.length - 1;
+		int i = mix(id) & mask;
+		while(values[i] >= 0 && keys[i] != id) i = (i + 1) & mask;
+		boolean added = values[i] < 0;
+		keys[i] = id;
+		values[i] = ring;
+		return(added);
+	}
+
+	private void grow()
+	{
+		int [] newKeys = new int[keys.length * 2];
+		int [] newValues = new int[keys.length * 2];
+		Arrays.fill(newValues, -1);
+		for(int i = 0 ; i < keys.length ; i++)
+			if(values[i] >= 0) put(newKeys, newValues, keys[i], values[i]);
+		keys = newKeys;
+		values = newValues;
+	}
+}
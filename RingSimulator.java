@@ -0,0 +1,381 @@
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Properties;
+import java.util.SplittableRandom;
+
+/*------------------------------------------------------------
+Class: RingSimulator
+
+Description:
+   Runs a token ring as a discrete event simulation: a single thread
+   drives the TokRing, Cable and Station objects of the ring on a
+   simulated clock, so that large rings run in much less than their
+   simulated time, and runs are reproducible.
+
+      RingSimulator sim = new RingSimulator.Builder()
+                              .ring(new RingTopology.Builder()
+                                        .config(config)
+                                        .station(1, traffic)
+                                        .stations(9999, 2))
+                              .hopDelay(500)
+                              .bandwidth(2000000)
+                              .seed(42)
+                              .build();
+      sim.start();
+      sim.run(1000000000L);   // one simulated second
+      System.out.println(sim.report());
+
+   The cables have TwistedPairSim pairs: the txPair of each station is
+   linked to the rxPair of the next station (a hop).  A frame xmitted on
+   a hop is delivered once it has been serialised at the bandwidth of
+   the hop and has propagated for the hop delay, plus a random jitter
+   drawn from the generator seeded by seed().  The events are the
+   deliveries: the event queue holds the next delivery of each hop,
+   ordered by time, and each event delivers the characters of one xmit
+   and polls the receiving station (TokRing.pollTokenRing() and
+   Station.processMessages()), which may xmit on its own hop.  Stations
+   take no simulated time to process frames.
+
+   The stations use the simulated clock (RingConfig.setClock()), so the
+   RingMetrics and the token holding time are in simulated time.  Runs
+   with the same ring, settings and seed are identical.  A run ends early
+   when the work of the stations is complete (see RingActivity), with
+   the clock at the time of completion.
+
+   Run from the command line with a properties file:
+      java RingSimulator ring.properties
+   with the keys of RingTopology.load() (ring.pair, ring.threads and
+   ring.hub are ignored) and:
+      sim.hopDelay    propagation delay of a hop in nanoseconds
+      sim.bandwidth   characters per second of a hop (0 - unlimited)
+      sim.jitter      largest random extra delay of a hop in nanoseconds
+      sim.seed        seed of the random generator
+      sim.millis      simulated milliseconds to run (default - the
+                      phases of the LoadReport, or 1000)
+-------------------------------------------------------------*/
+public class RingSimulator
+{
+	private final static long EPOCH = 1000000000L;  // clock at time 0 - frame xmit times are never 0
+	private final Station [] stations;
+	private final TwistedPairSim [] hops;   // txPair of each station
+	private final EventQueue events;
+	private final RingActivity activity;
+	private final long hopDelay;
+	private final long bandwidth;
+	private final long jitter;
+	private final SplittableRandom random;
+	private long now = 0;          // simulated time in nanoseconds
+	private long deliveries = 0;   // xmits delivered
+	private long charsXmitted = 0;
+	private long wallNanos = 0;    // time spent in run()
+
+	private RingSimulator(Builder bld)
+	{
+		int n = bld.ring.size();
+		hopDelay = bld.hopDelay;
+		bandwidth = bld.bandwidth;
+		jitter = bld.jitter;
+		random = new SplittableRandom(bld.seed);
+		RingConfig config = new RingConfig(bld.ring.getConfig());
+		config.setClock(new RingClock() {
+			public long nanoTime() { return(EPOCH + now); }
+		});
+		stations = new Station[n];
+		hops = new TwistedPairSim[n];
+		activity = new RingActivity(n);
+		TwistedPairSim [] rx = new TwistedPairSim[n];
+		for(int i = 0 ; i < n ; i++)
+		{
+			hops[i] = new TwistedPairSim(this);
+			rx[i] = new TwistedPairSim(this);
+			stations[i] = new Station(bld.ring.getId(i), bld.ring.getTraffic(i), Cable.simulated(i, hops[i], rx[i]), config);
+			stations[i].setActivity(activity);
+			for(int group : bld.ring.getGroups(bld.ring.getId(i))) stations[i].getTokRing().joinGroup(group);
+		}
+		for(int i = 0 ; i < n ; i++) hops[i].link(i, rx[(i + 1) % n]);
+		events = new EventQueue(n);
+	}
+
+	// Getters
+	public int size() { return(stations.length); }
+	public Station getStation(int ix) { return(stations[ix]); }
+	public long getTime() { return(now); }
+	public long getDeliveries() { return(deliveries); }
+	public long getCharsXmitted() { return(charsXmitted); }
+	public RingActivity getActivity() { return(activity); }
+	public boolean isComplete() { return(activity.isComplete()); }
+
+	/*
+	 * Generator seeded by Builder.seed() - for traffic profiles that
+	 * must be reproducible.
+	 */
+	public SplittableRandom getRandom() { return(random); }
+
+	/*-------------------------------------------------------------
+	Method: start
+	Description:
+	    Lets the stations queue their first messages, then xmits the
+	    token on the hop of the last station, as RingTopology.start().
+	-------------------------------------------------------------*/
+	public void start() throws InterruptedException
+	{
+		for(Station stn : stations) stn.processMessages();
+		hops[hops.length - 1].xmit(""+TokRing.SYN);  // Start token
+	}
+
+	/*
+	 * Stops the stations taking new messages - run() then drains the
+	 * queued messages and their Acks.
+	 */
+	public void quiesce()
+	{
+		for(Station stn : stations) stn.quiesce();
+	}
+
+	/*-------------------------------------------------------------
+	Method: run
+	Parameters: long nanos - simulated time to run
+	Returns: true if the work of the stations is complete
+	Description:
+	    Processes the events of the next nanos of simulated time, in
+	    time order, and moves the clock to the end of that time - or
+	    stops at the event that completes the work of the stations.
+	-------------------------------------------------------------*/
+	public boolean run(long nanos) throws InterruptedException
+	{
+		long started = System.nanoTime();
+		long end = now + nanos;
+		while(!events.isEmpty() && events.minTime() <= end)
+		{
+			if(activity.isComplete())
+			{
+				wallNanos += System.nanoTime() - started;
+				return(true);
+			}
+			int hop = events.minHop();
+			now = events.minTime();
+			long next = hops[hop].deliver();
+			if(next < 0) events.removeMin();
+			else events.replaceMin(next);
+			deliveries++;
+			int ix = hop + 1 == stations.length ? 0 : hop + 1;
+			TokRing tr = stations[ix].getTokRing();
+			while(tr.pollTokenRing() == TokRing.Status.MSG_STN) stations[ix].processMessages();
+		}
+		now = end;
+		wallNanos += System.nanoTime() - started;
+		return(activity.isComplete());
+	}
+
+	/*
+	 * Summary of the run - with the RingMetrics when they are enabled.
+	 */
+	public String report()
+	{
+		double simSecs = now / 1e9;
+		double wallSecs = wallNanos / 1e9;
+		String rpt = String.format("stations: %d, simulated: %.3f ms%s, wall: %.3f ms\n", stations.length, simSecs * 1e3, 
+		                           activity.isComplete() ? " (complete)" : "", wallSecs * 1e3) +
+		             String.format("hop deliveries: %d (%d chars), %.0f per simulated second, %.0f per wall second\n",
+		                           deliveries, charsXmitted, deliveries / Math.max(simSecs, 1e-9), deliveries / Math.max(wallSecs, 1e-9));
+		if(RingMetrics.isEnabled()) rpt += RingMetrics.get().getSnapshot();
+		return(rpt);
+	}
+
+	/*
+	 * Called by the TwistedPairSim pairs - counts len characters
+	 * xmitted on a hop and returns their serialisation time.
+	 */
+	long xmitted(int len)
+	{
+		charsXmitted += len;
+		return(bandwidth == 0 ? 0 : len * 1000000000L / bandwidth);
+	}
+
+	// Propagation time of an xmit
+	long propagation()
+	{
+		return(jitter == 0 ? hopDelay : hopDelay + random.nextLong(jitter + 1));
+	}
+
+	// Called by a TwistedPairSim when its hop has nothing else in flight
+	void schedule(int hop, long time)
+	{
+		events.add(hop, time);
+	}
+
+	/*-------------------------------------------------------------
+	Method: load
+	Parameters:
+	    Properties props - see the keys above
+	Description:
+	    Builds the simulator of the ring described by props.
+	-------------------------------------------------------------*/
+	public static RingSimulator load(Properties props)
+	{
+		Builder bld = new Builder().ring(RingTopology.parse(props));
+		String value;
+		if((value = props.getProperty("sim.hopDelay")) != null) bld.hopDelay(Long.parseLong(value.trim()));
+		if((value = props.getProperty("sim.bandwidth")) != null) bld.bandwidth(Long.parseLong(value.trim()));
+		if((value = props.getProperty("sim.jitter")) != null) bld.jitter(Long.parseLong(value.trim()));
+		if((value = props.getProperty("sim.seed")) != null) bld.seed(Long.parseLong(value.trim()));
+		return(bld.build());
+	}
+
+	/**
+	 * @param args - properties file describing the ring and the
+	 *               simulation (see above)
+	 */
+	public static void main(String[] args) throws IOException, InterruptedException
+	{
+		if(args.length != 1)
+		{
+			System.err.println("usage: java RingSimulator <ring.properties>");
+			return;
+		}
+		Properties props = new Properties();
+		Reader in = new FileReader(args[0]);
+		try { props.load(in); }
+		finally { in.close(); }
+		// per message lines would be most of the run - unless asked for
+		if(System.getProperty("ringlog.level") == null) RingLog.setLevel(RingLog.Level.INFO);
+		RingMetrics.enable();
+		RingSimulator sim = load(props);
+		sim.start();
+		long millis = LoadReport.get().isConfigured() && LoadReport.get().getRunMillis() > 0 ? LoadReport.get().getRunMillis() : 1000;
+		sim.run(Long.parseLong(props.getProperty("sim.millis", Long.toString(millis)).trim()) * 1000000L);
+		RingLog.flush();  // the report is printed whatever the log level
+		System.out.print(sim.report());
+		if(LoadReport.get().isConfigured()) System.out.print(LoadReport.get().summary());
+	}
+
+	/*-------------------------------------------------------------
+	Class: Builder
+	Description:
+	    The ring (its stations, traffic and RingConfig) and the
+	    settings of the hops.
+	-------------------------------------------------------------*/
+	public static class Builder
+	{
+		private RingTopology.Builder ring;
+		private long hopDelay = 1000;       // 1 microsecond
+		private long bandwidth = 2000000;   // 16 Mbit/s of 8 bit characters
+		private long jitter = 0;
+		private long seed = 1;
+
+		public Builder ring(RingTopology.Builder bld)
+		{
+			ring = bld;
+			return(this);
+		}
+
+		// Propagation delay of a hop in nanoseconds
+		public Builder hopDelay(long nanos)
+		{
+			if(nanos < 0) throw new IllegalArgumentException("Negative hop delay: " + nanos);
+			hopDelay = nanos;
+			return(this);
+		}
+
+		// Characters per second of a hop - 0 for no serialisation time
+		public Builder bandwidth(long charsPerSecond)
+		{
+			if(charsPerSecond < 0) throw new IllegalArgumentException("Negative bandwidth: " + charsPerSecond);
+			bandwidth = charsPerSecond;
+			return(this);
+		}
+
+		// Largest random extra delay of a hop in nanoseconds
+		public Builder jitter(long nanos)
+		{
+			if(nanos < 0) throw new IllegalArgumentException("Negative jitter: " + nanos);
+			jitter = nanos;
+			return(this);
+		}
+
+		public Builder seed(long sd)
+		{
+			seed = sd;
+			return(this);
+		}
+
+		public RingSimulator build()
+		{
+			if(ring == null || ring.size() < 2) throw new IllegalArgumentException("A ring needs at least 2 stations");
+			return(new RingSimulator(this));
+		}
+	}
+
+	/*
+	 * Next delivery of each hop, as a binary heap ordered by time (then
+	 * by hop, so that simultaneous events are always processed in the
+	 * same order).
+	 */
+	private static class EventQueue
+	{
+		private final int [] heap;    // hops
+		private final long [] times;  // time of each heap entry
+		private int size = 0;
+
+		EventQueue(int hops)
+		{
+			heap = new int[hops];
+			times = new long[hops];
+		}
+
+		boolean isEmpty() { return(size == 0); }
+		int minHop() { return(heap[0]); }
+		long minTime() { return(times[0]); }
+
+		void add(int hop, long time)
+		{
+			int i = size++;
+			while(i > 0)  // sift up
+			{
+				int parent = (i - 1) >> 1;
+				if(!before(time, hop, times[parent], heap[parent])) break;
+				heap[i] = heap[parent];
+				times[i] = times[parent];
+				i = parent;
+			}
+			heap[i] = hop;
+			times[i] = time;
+		}
+
+		// The first hop has a new time
+		void replaceMin(long time)
+		{
+			siftDown(heap[0], time);
+		}
+
+		void removeMin()
+		{
+			size--;
+			if(size > 0) siftDown(heap[size], times[size]);
+		}
+
+		// Places hop at time from the root down
+		private void siftDown(int hop, long time)
+		{
+			int i = 0;
+			while(true)
+			{
+				int child = 2 * i + 1;
+				if(child >= size) break;
+				if(child + 1 < size && before(times[child+1], heap[child+1], times[child], heap[child])) child++;
+				if(!before(times[child], heap[child], time, hop)) break;
+				heap[i] = heap[child];
+				times[i] = times[child];
+				i = child;
+			}
+			heap[i] = hop;
+			times[i] = time;
+		}
+
+		private static boolean before(long t1, int h1, long t2, int h2)
+		{
+			return(t1 < t2 || (t1 == t2 && h1 < h2));
+		}
+	}
+}
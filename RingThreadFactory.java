@@ -0,0 +1,60 @@
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+
+/*------------------------------------------------------------
+Class: RingThreadFactory
+
+Description:
+   Creates the threads that run the Station and HubThread loops.
+      PLATFORM - one platform thread per loop (the original design).
+      VIRTUAL  - one virtual thread per loop, so that rings of thousands
+                 of stations do not need thousands of native threads.
+                 Requires Java 21; the API is looked up at run time so 
+                 that the simulator still builds on older versions.
+   Virtual threads must block in twisted pairs that park (RING) rather
+   than wait in a Java monitor (MONITOR), which pins the carrier thread.
+   Threads are terminated by interrupting them, in both modes.
+-------------------------------------------------------------*/
+public class RingThreadFactory implements ThreadFactory
+{
+	public enum Mode {PLATFORM, VIRTUAL};
+
+	private final Mode mode;
+	private Object virtualBuilder;  // Thread.Builder.OfVirtual (Java 21)
+	private Method unstarted;       // Thread.Builder.unstarted(Runnable)
+
+	public RingThreadFactory(Mode md)
+	{
+		mode = md;
+		if(mode == Mode.VIRTUAL)
+		{
+			try
+			{
+				virtualBuilder = Thread.class.getMethod("ofVirtual").invoke(null);
+				unstarted = Class.forName("java.lang.Thread$Builder").getMethod("unstarted", Runnable.class);
+			}
+			catch (ReflectiveOperationException ex)
+			{
+				throw new UnsupportedOperationException("Virtual threads need Java 21 or later", ex);
+			}
+		}
+	}
+
+	public Mode getMode() { return(mode); }
+
+	/*
+	 * Creates an unstarted thread running r.
+	 */
+	public Thread newThread(Runnable r)
+	{
+		if(mode == Mode.PLATFORM) return(new Thread(r));
+		try
+		{
+			return((Thread)unstarted.invoke(virtualBuilder, r));
+		}
+		catch (ReflectiveOperationException ex)
+		{
+			throw new IllegalStateException("Cannot create virtual thread", ex);
+		}
+	}
+}
@@ -0,0 +1,700 @@
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+
+/*------------------------------------------------------------
+Class: RingTopology
+
+Description:
+   Creates the cables and threads of a token ring with any number of
+   stations.  Station i is attached to cable i, and the hub thread
+   monitoring cable i forwards frames to cable i+1 (the last cable
+   forwards to cable 0).
+
+   The ring is described with a Builder:
+      RingTopology ring = new RingTopology.Builder()
+                             .station('A', new FixedTraffic('C', messagesA))
+                             .stations(100, 1000)
+                             .build();
+   or loaded from a properties file with load() - see load() for the
+   keys.  start() starts all threads and the token, stop() terminates
+   them.  awaitCompletion() waits until the local stations have sent
+   all their messages and received their Acks, quiesce() stops them
+   taking new messages (see Ring).
+
+   The station and hub loops run on threads created by a
+   RingThreadFactory, either platform threads or virtual threads.  With
+   virtual threads the twisted pairs default to RING, whose blocking
+   does not pin the carrier threads.
+
+   The hub is either one HubThread per cable (THREADS) or a fixed number
+   of HubEventLoop threads servicing all the cables (EVENT_LOOP).
+
+   With MAPPED twisted pairs, the cables are files in a directory
+   (Builder.mappedDir()) and the ring can be spread over several
+   processes: each process builds the same ring with the range of
+   stations that it runs (Builder.local()), and runs those stations and
+   the hub threads of their cables.  The process running the last
+   station starts the token.
+
+   A ring can also be spread over nodes: each node runs a range of
+   stations (Builder.local()) and is connected to the node running the
+   next stations (Builder.next()).  The last local hub thread forwards
+   to the first station of the next node over TCP, and the first local
+   station receives from the previous node on the port given by
+   Builder.listen().  The other cables are local, of the pair kind.
+
+   With Builder.journalDir(), each local station journals its messages
+   in a FrameJournal in that directory; the messages that were not
+   acknowledged when the ring stopped are sent again by the next ring
+   built with the same directory and stations.
+
+   With Builder.capture(), the frames xmitted on the local cables are
+   recorded in a RingCapture, for RingReplay.
+-------------------------------------------------------------*/
+public class RingTopology implements Ring
+{
+	public enum HubMode {THREADS, EVENT_LOOP};
+	private final static long CONNECT_MILLIS = 30000;  // waiting for the next node to listen
+
+	private Cable [] cables;
+	private Station [] stations;  // null for the stations of other processes
+	private Thread [] threads;  // threads running the local stations, then the hub
+	private int firstLocal;     // the stations run by this process
+	private int localCount;
+	private RingActivity activity;  // completion of the local stations
+	private FaultProfile faults;    // null - no faults injected
+	private RingCapture capture;    // null - frames are not captured
+
+	private RingTopology(Builder bld, TwistedPair.Kind pairKind)
+	{
+		int n = bld.ids.size();
+		firstLocal = bld.firstLocal;
+		localCount = bld.localCount < 0 ? n : bld.localCount;
+		RingThreadFactory factory = new RingThreadFactory(bld.threadMode);
+		int hubThreads = bld.hubMode == HubMode.THREADS ? localCount : Math.min(bld.hubLoops, localCount);
+		cables = new Cable[n];
+		stations = new Station[n];
+		threads = new Thread[localCount + hubThreads];
+		activity = new RingActivity(localCount);
+		if(bld.nextHost != null) connectCables(bld, pairKind);
+		else for(int i = 0 ; i < n ; i++) cables[i] = createCable(bld, pairKind, i);
+		capture = bld.capture;
+		if(capture != null)  // before the faults - the frames are recorded as they are on the wire
+		{
+			int firstId = capture.register(n);
+			for(int l = 0 ; l < localCount ; l++) cables[firstLocal+l] = cables[firstLocal+l].withCapture(capture, firstId + firstLocal + l);
+		}
+		faults = bld.faults;
+		if(faults != null)
+			for(int l = 0 ; l < localCount ; l++) cables[firstLocal+l] = cables[firstLocal+l].withFaults(faults);
+		for(int l = 0 ; l < localCount ; l++)
+		{
+			int i = firstLocal + l;
+			stations[i] = new Station(bld.ids.get(i), bld.traffic.get(i), cables[i], bld.config);
+			stations[i].setActivity(activity);
+			for(int group : bld.getGroups(bld.ids.get(i))) stations[i].getTokRing().joinGroup(group);
+			if(bld.journalDir != null) stations[i].getTokRing().setJournal(openJournal(bld.journalDir, bld.ids.get(i), bld.journalSegment));
+			threads[l] = factory.newThread(stations[i]);
+		}
+		long ringChars = 0;  // what the pairs can hold - limits a token capture
+		for(Cable cbl : cables)
+		{
+			if(cbl == null || cbl.getTxPair() == null)  // on another node - not known
+			{
+				ringChars = Integer.MAX_VALUE;
+				break;
+			}
+			ringChars += (long)cbl.getTxPair().capacity() + cbl.getRxPair().capacity();
+		}
+		for(int l = 0 ; l < localCount ; l++) 
+			stations[firstLocal+l].getTokRing().setRingCapacity((int)Math.min(ringChars, Integer.MAX_VALUE));
+		if(bld.config.getMonitorTimeout() > 0 && isLocal(n - 1))  // the station that starts the token
+			stations[n-1].getTokRing().setActiveMonitor(bld.config.getMonitorTimeout());
+		if(bld.hubMode == HubMode.THREADS)
+		{
+			for(int l = 0 ; l < localCount ; l++)
+				threads[localCount+l] = factory.newThread(new HubThread(cables[firstLocal+l], cables[(firstLocal+l+1) % n]));
+		}
+		else
+		{
+			HubEventLoop [] loops = new HubEventLoop[hubThreads];
+			for(int i = 0 ; i < hubThreads ; i++)
+			{
+				loops[i] = new HubEventLoop();
+				threads[localCount+i] = factory.newThread(loops[i]);
+			}
+			for(int l = 0 ; l < localCount ; l++)  // cables are spread over the loops
+				loops[l % hubThreads].register(cables[firstLocal+l], cables[(firstLocal+l+1) % n]);
+		}
+	}
+
+	private static Cable createCable(Builder bld, TwistedPair.Kind pairKind, int i)
+	{
+		if(pairKind != TwistedPair.Kind.MAPPED) return(new Cable(i, pairKind, bld.pairCapacity));
+		try
+		{
+			return(Cable.mapped(i, new File(bld.mappedDir, "cable" + i + ".map").getPath(), bld.pairCapacity));
+		}
+		catch (IOException ex) { throw new UncheckedIOException("Cannot map cable " + i, ex); }
+	}
+
+	private static RingCapture createCapture(String fileName, int bytes)
+	{
+		try { return(RingCapture.create(fileName, bytes)); }
+		catch (IOException ex) { throw new UncheckedIOException("Cannot create capture file " + fileName, ex); }
+	}
+
+	private static FrameJournal openJournal(String dir, int id, int segmentBytes)
+	{
+		try { return(FrameJournal.open(dir, id, segmentBytes)); }
+		catch (IOException ex) { throw new UncheckedIOException("Cannot open the journal of station " + TokRing.idName(id), ex); }
+	}
+
+	/*
+	 * Creates the local cables, the cable from the previous node and the
+	 * cable to the next node: listens, connects to the next node (retried
+	 * until it listens), then accepts the previous node.
+	 */
+	private void connectCables(Builder bld, TwistedPair.Kind pairKind)
+	{
+		int n = cables.length;
+		int next = (firstLocal + localCount) % n;  // first station of the next node
+		try
+		{
+			ServerSocketChannel server = ServerSocketChannel.open();
+			try
+			{
+				server.bind(new InetSocketAddress(bld.listenPort));
+				SocketChannel toNext = null;
+				long deadline = System.currentTimeMillis() + CONNECT_MILLIS;
+				while(toNext == null)
+				{
+					try { toNext = SocketChannel.open(new InetSocketAddress(bld.nextHost, bld.nextPort)); }
+					catch (IOException ex)
+					{
+						if(System.currentTimeMillis() > deadline) throw ex;
+						Thread.sleep(100);
+					}
+				}
+				toNext.socket().setTcpNoDelay(true);
+				cables[next] = Cable.hubEnd(next, toNext);
+				SocketChannel fromPrevious = server.accept();
+				fromPrevious.socket().setTcpNoDelay(true);
+				cables[firstLocal] = Cable.stationEnd(firstLocal, fromPrevious, pairKind, bld.pairCapacity);
+			}
+			finally { server.close(); }
+		}
+		catch (IOException ex) { throw new UncheckedIOException("Cannot connect the ring to " + bld.nextHost + ":" + bld.nextPort, ex); }
+		catch (InterruptedException ex) { throw new IllegalStateException("Interrupted while connecting the ring"); }
+		for(int l = 1 ; l < localCount ; l++) cables[firstLocal+l] = createCable(bld, pairKind, firstLocal+l);
+	}
+
+	// Getters
+	public int size() { return(stations.length); }
+	public Station getStation(int ix) { return(stations[ix]); }
+	public Cable getCable(int ix) { return(cables[ix]); }
+	public boolean isLocal(int ix) { return(stations[ix] != null); }
+	public boolean isDistributed() { return(localCount < stations.length); }
+	public RingActivity getActivity() { return(activity); }
+	public FaultProfile getFaults() { return(faults); }
+
+	/*-------------------------------------------------------------
+	Method: start
+	Description:
+	    Starts the local station and hub threads, then the token if
+	    the last station is local - the token is xmitted as if by the
+	    hub thread of the last station.
+	-------------------------------------------------------------*/
+	public void start() throws InterruptedException
+	{
+		for(Thread thr : threads) thr.start();
+		if(isLocal(size() - 1)) cables[0].hubTransmit(""+TokRing.SYN); // Start token
+	}
+
+	/*-------------------------------------------------------------
+	Method: quiesce
+	Description:
+	    Stops the local stations taking new messages; each station
+	    sees it at its next pass of the token.
+	-------------------------------------------------------------*/
+	public void quiesce()
+	{
+		for(int l = 0 ; l < localCount ; l++) stations[firstLocal+l].quiesce();
+	}
+
+	public boolean isComplete() { return(activity.isComplete()); }
+
+	public boolean awaitCompletion(long millis) throws InterruptedException
+	{
+		return(activity.awaitCompletion(millis));
+	}
+
+	/*-------------------------------------------------------------
+	Method: stop
+	Description:
+	    Terminates all threads and waits for them, then closes the
+	    cables.  The frames still in the cables are lost - the work
+	    should be complete first, unless the messages are journaled.  Logs the faults injected
+	    and the frames captured, if any.
+	-------------------------------------------------------------*/
+	public void stop() throws InterruptedException
+	{
+		for(Thread thr : threads) thr.interrupt();
+		for(Thread thr : threads) thr.join();
+		for(int l = 0 ; l < localCount ; l++)
+		{
+			FrameJournal journal = stations[firstLocal+l].getTokRing().getJournal();
+			if(journal != null) journal.close();
+		}
+		for(Cable cbl : cables)
+		{
+			try { if(cbl != null) cbl.close(); }
+			catch (IOException ex) { RingLog.log(RingLog.Subsystem.HUB, RingLog.Level.ERROR, "Cannot close cable " + cbl.getNum() + ": " + ex.getMessage()); }
+		}
+		if(faults != null) RingLog.logf(RingLog.Subsystem.HUB, RingLog.Level.INFO, "%s", faults.summary());
+		if(capture != null)
+		{
+			capture.close();
+			RingLog.logf(RingLog.Subsystem.HUB, RingLog.Level.INFO, "%s", capture.summary());
+		}
+	}
+
+	/*-------------------------------------------------------------
+	Method: load
+	Parameters:
+	    fileName - properties file describing the ring
+	Description:
+	    Builds a ring from the following keys (all optional except
+	    one of ring.stations or ring.ids):
+	      ring.stations         number of stations, ids 1 to N
+	      ring.firstId          id of the first station when ring.stations is used
+	      ring.ids              comma separated ids, e.g. A,B,C,D or 100,200,300
+	      ring.threads          PLATFORM or VIRTUAL threads
+	      ring.hub              THREADS or EVENT_LOOP
+	      ring.hub.loops        number of event loops (default - one per core)
+	      ring.pair             MONITOR, RING, SEGMENT or MAPPED twisted pairs
+	      ring.pair.capacity    capacity of RING and MAPPED twisted pairs
+	      ring.pair.dir         directory of the cable files of MAPPED pairs
+	      ring.local            stations run by this process - first-last
+	                            station indexes (from 0), e.g. 0-31
+	      ring.listen           port on which the previous node connects
+	      ring.next             host:port of the node running the next stations
+	      ring.journal.dir      directory of the station journals (FrameJournal)
+	      ring.journal.segment  size of the journal segment files in bytes
+	      ring.capture.file     file capturing the frames (RingCapture)
+	      ring.capture.bytes    size of the capture file (default 64 MB)
+	      ring.format           TEXT or BINARY frames
+	      ring.window           messages waiting for an Ack, per destination
+	      ring.holding.frames   token holding policy limits
+	      ring.holding.chars
+	      ring.holding.nanos
+	      ring.holding.early    true for early token release
+	      ring.priority.ack     priority of the Acks (0 to 7)
+	      ring.monitor.millis   token lost after this time - the last
+	                            station regenerates it (active monitor)
+	      ring.retransmit.millis messages not acknowledged after this 
+	                            time are xmitted again (BINARY frames)
+	      ring.mtu              longer messages are fragmented (BINARY frames)
+	      fault.*               faults injected in the frames xmitted by the
+	                            stations (see FaultProfile.parse())
+	      metrics.enabled       true to enable RingMetrics
+	      metrics.dumpMillis    period of the RingMetrics snapshot dump
+	      log.level             RingLog level of all subsystems (OFF, ERROR, INFO, TRACE)
+	      log.<subsystem>       RingLog level of a subsystem, e.g. log.station
+	      traffic.count         messages sent by each station (default 0)
+	      traffic.pattern       NEXT or OPPOSITE - destination of those messages
+	      traffic.model         FIXED (default - the messages above), or a
+	                            generated Workload: CONSTANT, POISSON or
+	                            CLOSED (see Workload.parse() for its keys)
+	      station.<id>.dest     destination of the messages of station <id>
+	      station.<id>.messages messages of station <id>, separated by |
+	      station.<id>.priority priority of the messages of station <id>
+	      station.<id>.groups   groups joined by station <id>, e.g. 1,2
+	    Ids made of a single letter are the letter's character code.
+	    A destination can also be * (all the stations) or group:<n>.
+	-------------------------------------------------------------*/
+	public static RingTopology load(String fileName) throws IOException
+	{
+		Properties props = new Properties();
+		Reader in = new FileReader(fileName);
+		try { props.load(in); }
+		finally { in.close(); }
+		return(load(props));
+	}
+
+	public static RingTopology load(Properties props)
+	{
+		return(parse(props).build());
+	}
+
+	// The builder described by props (see load())
+	static Builder parse(Properties props)
+	{
+		Builder bld = new Builder();
+		RingConfig config = new RingConfig();
+		TokenHoldingPolicy holding = config.getHoldingPolicy();
+		String value;
+		// The stations
+		ArrayList<Integer> ids = new ArrayList<Integer>();
+		if((value = props.getProperty("ring.ids")) != null)
+		{
+			for(String id : value.split(",")) ids.add(parseId(id));
+		}
+		else
+		{
+			int count = Integer.parseInt(required(props, "ring.stations"));
+			int firstId = Integer.parseInt(props.getProperty("ring.firstId", "1"));
+			for(int i = 0 ; i < count ; i++) ids.add(firstId + i);
+		}
+		// The ring
+		if((value = props.getProperty("ring.threads")) != null) bld.threadMode(RingThreadFactory.Mode.valueOf(value.trim().toUpperCase()));
+		if((value = props.getProperty("ring.hub")) != null) bld.hubMode(HubMode.valueOf(value.trim().toUpperCase()));
+		if((value = props.getProperty("ring.hub.loops")) != null) bld.hubLoops(Integer.parseInt(value.trim()));
+		if((value = props.getProperty("ring.pair")) != null) bld.pairKind(TwistedPair.Kind.valueOf(value.trim().toUpperCase()));
+		if((value = props.getProperty("ring.pair.capacity")) != null) bld.pairCapacity(Integer.parseInt(value.trim()));
+		if((value = props.getProperty("ring.pair.dir")) != null) bld.mappedDir(value.trim());
+		if((value = props.getProperty("ring.journal.dir")) != null) bld.journalDir(value.trim());
+		if((value = props.getProperty("ring.journal.segment")) != null) bld.journalSegment(Integer.parseInt(value.trim()));
+		if((value = props.getProperty("ring.capture.file")) != null)
+			bld.capture(createCapture(value.trim(), Integer.parseInt(props.getProperty("ring.capture.bytes", "" + (64 << 20)).trim())));
+		if((value = props.getProperty("ring.local")) != null)
+		{
+			String [] range = value.split("-");
+			int first = Integer.parseInt(range[0].trim());
+			int last = range.length > 1 ? Integer.parseInt(range[1].trim()) : first;
+			bld.local(first, last - first + 1);
+		}
+		if((value = props.getProperty("ring.listen")) != null) bld.listen(Integer.parseInt(value.trim()));
+		if((value = props.getProperty("ring.next")) != null)
+		{
+			int colon = value.lastIndexOf(':');
+			if(colon < 0) throw new IllegalArgumentException("ring.next must be host:port - " + value);
+			bld.next(value.substring(0, colon).trim(), Integer.parseInt(value.substring(colon+1).trim()));
+		}
+		if((value = props.getProperty("ring.format")) != null) config.setFormat(TokRing.Format.valueOf(value.trim().toUpperCase()));
+		if((value = props.getProperty("ring.window")) != null) config.setWindow(Integer.parseInt(value.trim()));
+		if((value = props.getProperty("ring.holding.frames")) != null) holding.setMaxFrames(Integer.parseInt(value.trim()));
+		if((value = props.getProperty("ring.holding.chars")) != null) holding.setMaxChars(Integer.parseInt(value.trim()));
+		if((value = props.getProperty("ring.holding.nanos")) != null) holding.setMaxNanos(Long.parseLong(value.trim()));
+		if((value = props.getProperty("ring.holding.early")) != null) holding.setEarlyRelease(Boolean.parseBoolean(value.trim()));
+		if((value = props.getProperty("ring.priority.ack")) != null) config.setAckPriority(Integer.parseInt(value.trim()));
+		if((value = props.getProperty("ring.monitor.millis")) != null) config.setMonitorTimeout(Long.parseLong(value.trim()) * 1000000L);
+		if((value = props.getProperty("ring.retransmit.millis")) != null) config.setRetransmitTimeout(Long.parseLong(value.trim()) * 1000000L);
+		if((value = props.getProperty("ring.mtu")) != null) config.setMtu(Integer.parseInt(value.trim()));
+		bld.config(config);
+		bld.faults(FaultProfile.parse(props));
+		// The metrics - enabled before the stations are created
+		if(Boolean.parseBoolean(props.getProperty("metrics.enabled", "false").trim())) RingMetrics.enable();
+		if((value = props.getProperty("metrics.dumpMillis")) != null) 
+		{
+			RingMetrics.enable();
+			RingMetrics.get().startDump(Long.parseLong(value.trim()));
+		}
+		// The log levels
+		if((value = props.getProperty("log.level")) != null) RingLog.setLevel(RingLog.Level.valueOf(value.trim().toUpperCase()));
+		for(RingLog.Subsystem sub : RingLog.Subsystem.values())
+		{
+			if((value = props.getProperty("log." + sub.name().toLowerCase())) != null) 
+				RingLog.setLevel(sub, RingLog.Level.valueOf(value.trim().toUpperCase()));
+		}
+		// The traffic
+		int count = Integer.parseInt(props.getProperty("traffic.count", "0").trim());
+		String pattern = props.getProperty("traffic.pattern", "NEXT").trim().toUpperCase();
+		Workload load = Workload.parse(props);
+		int n = ids.size();
+		int [] idArray = new int[n];
+		for(int i = 0 ; i < n ; i++) idArray[i] = ids.get(i);
+		for(int i = 0 ; i < n ; i++)
+		{
+			String key = "station." + TokRing.idName(ids.get(i));
+			String dest = props.getProperty(key + ".dest");
+			String msgs = props.getProperty(key + ".messages");
+			int priority = Integer.parseInt(props.getProperty(key + ".priority", "0").trim());
+			TrafficProfile traffic;
+			if(dest != null && msgs != null)
+				traffic = new FixedTraffic(parseDest(dest), msgs.split("\\|"), priority);
+			else if(load != null) traffic = load.station(idArray, i);
+			else
+			{
+				int destIx;
+				if(pattern.equals("NEXT")) destIx = (i + 1) % n;
+				else if(pattern.equals("OPPOSITE")) destIx = (i + n/2) % n;
+				else throw new IllegalArgumentException("Unknown traffic.pattern: " + pattern);
+				String [] generated = new String[count];
+				for(int m = 0 ; m < count ; m++)
+					generated[m] = "Message " + (m+1) + " from " + TokRing.idName(ids.get(i));
+				traffic = new FixedTraffic(ids.get(destIx), generated, priority);
+			}
+			bld.station(ids.get(i), traffic);
+			if((value = props.getProperty(key + ".groups")) != null)
+				for(String group : value.split(",")) bld.join(ids.get(i), TokRing.groupAddress(Integer.parseInt(group.trim())));
+		}
+		return(bld);
+	}
+
+	private static String required(Properties props, String key)
+	{
+		String value = props.getProperty(key);
+		if(value == null) throw new IllegalArgumentException("Missing property " + key);
+		return(value.trim());
+	}
+
+	// A single letter gives the letter's code (e.g. A), otherwise a number
+	static int parseId(String str)
+	{
+		str = str.trim();
+		if(str.length() == 1 && Character.isLetter(str.charAt(0))) return(str.charAt(0));
+		return(Integer.parseInt(str));
+	}
+
+	// A station id, * (BROADCAST) or group:<n> (see TokRing.groupAddress())
+	static int parseDest(String str)
+	{
+		str = str.trim();
+		if(str.equals("*")) return(TokRing.BROADCAST);
+		if(str.startsWith("group:")) return(TokRing.groupAddress(Integer.parseInt(str.substring(6).trim())));
+		return(parseId(str));
+	}
+
+	/*-------------------------------------------------------------
+	Class: Builder
+	Description:
+	    Describes a ring - stations are placed on the ring in the
+	    order in which they are added.
+	-------------------------------------------------------------*/
+	public static class Builder
+	{
+		private ArrayList<Integer> ids = new ArrayList<Integer>();
+		private ArrayList<TrafficProfile> traffic = new ArrayList<TrafficProfile>();
+		private RingConfig config = new RingConfig();
+		private TwistedPair.Kind pairKind = null;  // default depends on the thread mode
+		private RingThreadFactory.Mode threadMode = RingThreadFactory.Mode.PLATFORM;
+		private HubMode hubMode = HubMode.THREADS;
+		private int hubLoops = Runtime.getRuntime().availableProcessors();
+		private int pairCapacity = TwistedPairRing.DEFAULT_CAPACITY;
+		private String mappedDir = null;
+		private int firstLocal = 0;
+		private int localCount = -1;  // all stations
+		private int listenPort = 0;
+		private String nextHost = null;  // null - the ring is not spread over nodes
+		private int nextPort = 0;
+		private FaultProfile faults = null;
+		private String journalDir = null;  // null - no journals
+		private int journalSegment = FrameJournal.DEFAULT_SEGMENT;
+		private RingCapture capture = null;
+		private HashMap<Integer,ArrayList<Integer>> groups = new HashMap<Integer,ArrayList<Integer>>();  // groups joined by each station
+
+		public Builder config(RingConfig cfg)
+		{
+			config = cfg;
+			return(this);
+		}
+
+		public Builder pairKind(TwistedPair.Kind kind)
+		{
+			pairKind = kind;
+			return(this);
+		}
+
+		public Builder threadMode(RingThreadFactory.Mode mode)
+		{
+			threadMode = mode;
+			return(this);
+		}
+
+		public Builder hubMode(HubMode mode)
+		{
+			hubMode = mode;
+			return(this);
+		}
+
+		// Number of event loops for the EVENT_LOOP hub
+		public Builder hubLoops(int loops)
+		{
+			if(loops < 1) throw new IllegalArgumentException("Need at least one hub event loop: " + loops);
+			hubLoops = loops;
+			return(this);
+		}
+
+		public Builder pairCapacity(int capacity)
+		{
+			pairCapacity = capacity;
+			return(this);
+		}
+
+		// Directory of the cable files - MAPPED twisted pairs
+		public Builder mappedDir(String dir)
+		{
+			mappedDir = dir;
+			return(this);
+		}
+
+		// Directory of the journals of the stations (see FrameJournal)
+		public Builder journalDir(String dir)
+		{
+			journalDir = dir;
+			return(this);
+		}
+
+		// Records the frames xmitted on the local cables (null - none)
+		public Builder capture(RingCapture cap)
+		{
+			capture = cap;
+			return(this);
+		}
+
+		public Builder journalSegment(int bytes)
+		{
+			journalSegment = bytes;
+			return(this);
+		}
+
+		/*
+		 * The stations run by this process - count stations from index
+		 * first (stations are indexed from 0 in the order they are added).
+		 */
+		public Builder local(int first, int count)
+		{
+			if(first < 0 || count < 1) throw new IllegalArgumentException("Invalid local stations: " + first + ", " + count);
+			firstLocal = first;
+			localCount = count;
+			return(this);
+		}
+
+		/*
+		 * Faults injected in the frames xmitted by the local stations
+		 * (null - none).  Needs the active monitor and retransmission
+		 * in the RingConfig to recover from lost frames.
+		 */
+		public Builder faults(FaultProfile profile)
+		{
+			faults = profile;
+			return(this);
+		}
+
+		// Port on which the node running the previous stations connects
+		public Builder listen(int port)
+		{
+			listenPort = port;
+			return(this);
+		}
+
+		// Node running the next stations
+		public Builder next(String host, int port)
+		{
+			nextHost = host;
+			nextPort = port;
+			return(this);
+		}
+
+		/*
+		 * Adds a station; trfc gives the messages that it sends
+		 * (null - the station only acknowledges messages).
+		 */
+		public Builder station(int id, TrafficProfile trfc)
+		{
+			ids.add(id);
+			traffic.add(trfc != null ? trfc : new FixedTraffic(TrafficProfile.NONE, new String[0]));
+			return(this);
+		}
+
+		/*
+		 * Adds count stations that do not send messages, with ids
+		 * firstId, firstId+1, ...
+		 */
+		public Builder stations(int count, int firstId)
+		{
+			for(int i = 0 ; i < count ; i++) station(firstId + i, null);
+			return(this);
+		}
+
+		/*
+		 * Station id joins group address group (see
+		 * TokRing.groupAddress()) when the ring is built.
+		 */
+		public Builder join(int id, int group)
+		{
+			if(!TokRing.isGroupAddress(group) || group == TokRing.BROADCAST) throw new IllegalArgumentException("Not a group address: " + group);
+			ArrayList<Integer> joined = groups.get(id);
+			if(joined == null) groups.put(id, joined = new ArrayList<Integer>());
+			joined.add(group);
+			return(this);
+		}
+
+		// Number of stations added so far
+		public int size() { return(ids.size()); }
+
+		// Getters for MultiRing
+		int getId(int ix) { return(ids.get(ix)); }
+		TrafficProfile getTraffic(int ix) { return(traffic.get(ix)); }
+		RingConfig getConfig() { return(config); }
+		String getMappedDir() { return(mappedDir); }
+		List<Integer> getGroups(int id) { return(groups.containsKey(id) ? groups.get(id) : Collections.<Integer>emptyList()); }
+
+		/*
+		 * A builder with the same settings and no stations.
+		 */
+		Builder copySettings()
+		{
+			Builder copy = new Builder();
+			copy.config = config;
+			copy.pairKind = pairKind;
+			copy.threadMode = threadMode;
+			copy.hubMode = hubMode;
+			copy.hubLoops = hubLoops;
+			copy.pairCapacity = pairCapacity;
+			copy.mappedDir = mappedDir;
+			copy.faults = faults;
+			copy.journalDir = journalDir;
+			copy.journalSegment = journalSegment;
+			copy.capture = capture;  // each ring registers its cables
+			copy.groups = groups;     // by station id
+			return(copy);
+		}
+
+		public RingTopology build()
+		{
+			if(ids.size() < 2) throw new IllegalArgumentException("A ring needs at least 2 stations");
+			if(new HashSet<Integer>(ids).size() != ids.size())
+				throw new IllegalArgumentException("Station ids must be unique");
+			boolean virtual = threadMode == RingThreadFactory.Mode.VIRTUAL;
+			TwistedPair.Kind kind = pairKind;
+			if(kind == null) kind = virtual ? TwistedPair.Kind.RING : TwistedPair.Kind.MONITOR;
+			if(virtual && kind == TwistedPair.Kind.MONITOR)
+				throw new IllegalArgumentException("MONITOR twisted pairs pin virtual threads - use RING");
+			if(kind == TwistedPair.Kind.SIMULATED)
+				throw new IllegalArgumentException("SIMULATED twisted pairs are run by a RingSimulator");
+			if(localCount >= 0 && firstLocal + localCount > ids.size())
+				throw new IllegalArgumentException("Local stations beyond the end of the ring");
+			if(localCount >= 0 && localCount < ids.size() && kind != TwistedPair.Kind.MAPPED && nextHost == null)
+				throw new IllegalArgumentException("A ring spread over processes needs MAPPED twisted pairs or the next node");
+			if(nextHost != null && (kind == TwistedPair.Kind.MAPPED || localCount < 0 || localCount == ids.size()))
+				throw new IllegalArgumentException("A ring spread over nodes needs local stations and local twisted pairs");
+			if(kind == TwistedPair.Kind.MAPPED && mappedDir == null)
+				throw new IllegalArgumentException("MAPPED twisted pairs need a directory for the cable files");
+			if(kind == TwistedPair.Kind.RING || kind == TwistedPair.Kind.MAPPED)  // a frame is xmitted whole
+			{
+				for(int i = 0 ; i < ids.size() ; i++)
+				{
+					int longest = traffic.get(i).maxMessageLength();
+					if(longest >= 0 && TokRing.longestFrame(config.getFormat(), config.getMtu(), longest) > pairCapacity)
+						throw new IllegalArgumentException("Messages of " + longest + " characters of station " + ids.get(i) + 
+						                                   " do not fit in twisted pairs of " + pairCapacity + " characters - set ring.mtu (BINARY frames) or ring.pair.capacity");
+				}
+			}
+			return(new RingTopology(this, kind));
+		}
+	}
+}
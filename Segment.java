@@ -0,0 +1,54 @@
+/*
+ * Class: Segment
+ * Description: Buffer of characters carried by a TwistedPairSegments.
+ * A segment has a single owner at a time: the station that fills it
+ * hands it to the txPair, the hub moves it to the next rxPair without
+ * copying, and the receiving station releases it back to its pool once
+ * the frames have been consumed.
+ */
+public class Segment
+{
+	final char [] data;   // characters, from 0 to length
+	int length;
+	volatile Segment next;  // link in the queue of a twisted pair
+	private final SegmentPool pool;  // null if the segment is not pooled
+
+	Segment(int size, SegmentPool owner)
+	{
+		data = new char[size];
+		pool = owner;
+	}
+
+	public char [] array() { return(data); }
+	public int length() { return(length); }
+	public int capacity() { return(data.length); }
+
+	// Replaces the contents with len characters of src
+	public void set(char [] src, int offset, int len)
+	{
+		System.arraycopy(src, offset, data, 0, len);
+		length = len;
+	}
+
+	public void set(String str)
+	{
+		str.getChars(0, str.length(), data, 0);
+		length = str.length();
+	}
+
+	/*
+	 * Returns the segment to its pool - the segment must not be used
+	 * after it is released.
+	 */
+	public void release()
+	{
+		length = 0;
+		next = null;
+		if(pool != null) pool.recycle(this);
+	}
+
+	public String toString()
+	{
+		return(new String(data, 0, length));
+	}
+}
@@ -0,0 +1,59 @@
+/*
+ * Class: SegmentPool
+ * Description: Pool of Segments of a fixed size.  acquire() takes a
+ * free segment (or allocates one) and Segment.release() gives it back,
+ * so the steady state allocates no buffers.  Requests larger than the
+ * segment size get a segment of their own that is not pooled.
+ *
+ * The free segments are kept on a bounded stack guarded by the pool's
+ * monitor - the critical sections are a few instructions long.
+ */
+public class SegmentPool
+{
+	public final static int DEFAULT_SEGMENT_SIZE = 4096;  // characters
+	public final static int DEFAULT_MAX_FREE = 4096;      // segments kept
+	private static SegmentPool shared = new SegmentPool(DEFAULT_SEGMENT_SIZE, DEFAULT_MAX_FREE);
+
+	private final int segmentSize;
+	private final Segment [] free;  // stack of free segments
+	private int freeCount = 0;
+	private long allocated = 0;     // segments created by the pool
+
+	public SegmentPool(int size, int maxFree)
+	{
+		segmentSize = size;
+		free = new Segment[maxFree];
+	}
+
+	// Pool used by the SEGMENT twisted pairs of Cables
+	public static SegmentPool getShared() { return(shared); }
+
+	public int getSegmentSize() { return(segmentSize); }
+	public synchronized int getFreeCount() { return(freeCount); }
+	public synchronized long getAllocated() { return(allocated); }
+
+	/*
+	 * Returns an empty segment that can hold at least len characters.
+	 */
+	public Segment acquire(int len)
+	{
+		if(len > segmentSize) return(new Segment(len, null));  // too large to pool
+		synchronized(this)
+		{
+			if(freeCount > 0)
+			{
+				Segment seg = free[--freeCount];
+				free[freeCount] = null;
+				return(seg);
+			}
+			allocated++;
+		}
+		return(new Segment(segmentSize, this));
+	}
+
+	// Called by Segment.release()
+	synchronized void recycle(Segment seg)
+	{
+		if(freeCount < free.length) free[freeCount++] = seg;  // otherwise left to the garbage collector
+	}
+}
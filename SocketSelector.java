@@ -0,0 +1,114 @@
+import java.io.IOException;
+import java.nio.channels.CancelledKeyException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/*------------------------------------------------------------
+Class: SocketSelector
+
+Description:
+   Thread reading the connections of the receiving ends of
+   TwistedPairSockets.  All the connections are registered with one
+   Selector; when a connection can be read, its characters are xmitted
+   into the pair's ring, where the station receives them.  The thread
+   never blocks on a full ring: the pair stops reading its connection
+   until its station has received, and is then resumed (resume()).
+   The thread is a daemon started with the first registration.
+-------------------------------------------------------------*/
+public class SocketSelector implements Runnable
+{
+	private static SocketSelector shared = null;
+
+	private final Selector selector;
+	private final ConcurrentLinkedQueue<Object[]> registrations = new ConcurrentLinkedQueue<Object[]>();  // {channel, pair}
+	private final ConcurrentLinkedQueue<TwistedPairSocket> resumed = new ConcurrentLinkedQueue<TwistedPairSocket>();
+	private Thread thread = null;
+
+	public SocketSelector() throws IOException
+	{
+		selector = Selector.open();
+	}
+
+	// Selector used by Cable.stationEnd()
+	public static synchronized SocketSelector getShared() throws IOException
+	{
+		if(shared == null) shared = new SocketSelector();
+		return(shared);
+	}
+
+	/*
+	 * Reads ch into pair from now on.
+	 */
+	public void register(SocketChannel ch, TwistedPairSocket pair) throws IOException
+	{
+		ch.configureBlocking(false);
+		registrations.add(new Object[] {ch, pair});
+		synchronized(this)
+		{
+			if(thread == null)
+			{
+				thread = new Thread(this, "SocketSelector");
+				thread.setDaemon(true);
+				thread.start();
+			}
+		}
+		selector.wakeup();
+	}
+
+	/*
+	 * Reads the connection of pair again - called once its station has
+	 * made room in the ring.
+	 */
+	void resume(TwistedPairSocket pair)
+	{
+		resumed.add(pair);
+		selector.wakeup();
+	}
+
+	public void run()
+	{
+		try
+		{
+			while(!Thread.currentThread().isInterrupted())
+			{
+				Object [] reg;
+				while((reg = registrations.poll()) != null)
+				{
+					try { ((TwistedPairSocket)reg[1]).registered(((SocketChannel)reg[0]).register(selector, SelectionKey.OP_READ, reg[1])); }
+					catch (ClosedChannelException ex) { }
+				}
+				TwistedPairSocket pair;
+				while((pair = resumed.poll()) != null) 
+				{
+					try { pair.resume(); }
+					catch (CancelledKeyException ex) { }  // connection closed
+				}
+				selector.select();
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while(keys.hasNext())
+				{
+					SelectionKey key = keys.next();
+					keys.remove();
+					pair = (TwistedPairSocket)key.attachment();
+					boolean open;
+					try { open = pair.readChannel(); }
+					catch (IOException ex) { open = false; }
+					if(!open)  // remote end closed
+					{
+						key.cancel();
+						key.channel().close();
+						RingLog.log(RingLog.Subsystem.PAIR, RingLog.Level.INFO, "TwistedPair (" + pair.getTwistedPairId() + ") connection closed");
+					}
+				}
+			}
+		}
+		catch (IOException ex)
+		{
+			RingLog.log(RingLog.Subsystem.PAIR, RingLog.Level.ERROR, "SocketSelector failed: " + ex.getMessage());
+		}
+	}
+}
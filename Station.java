@@ -1,39 +1,74 @@
 /*
  * Class: Station
- * Description: This class implements the station thread that
- * sends messages to another station thread.  The Constructor sets 
- * the station identifier, the identifier of the station to which messages are 
- * sent, and the reference to the array of messages to be sent.
+ * Description: This class implements the station loop that
+ * sends messages to other station threads.  The Constructor sets 
+ * the station identifier and the traffic profile giving the messages
+ * to send and their destinations (for example the identifier of a 
+ * station and an array of messages to be sent to it - FixedTraffic).
  * 
- * After each message is sent the station thread waits for an 
- * acknowledgement (Ack message).  All communication is done using
+ * Up to the TokRing window of messages are sent before the station
+ * thread waits for an acknowledgement (Ack message); with a window of 1
+ * it waits after each message.  All communication is done using
  * calls to the TokRing object (interface to the token ring network).
  * When the station thread receives a messages, it responds by returning 
- * an acknowledgement.
+ * an acknowledgement - but for messages sent to a group address.
+ *
+ * The loop is run by a thread created by a RingThreadFactory (platform
+ * or virtual thread) and terminates when that thread is interrupted.
+ * A quiesced station takes no new messages from its traffic profile;
+ * the messages already queued are still sent and acknowledged.  The
+ * station reports its outstanding messages, and when it has finished
+ * sending, to the RingActivity of its ring.
  */
-public class Station extends Thread
+public class Station implements Runnable
 {
-	private char identifier;    // This stations identifier
-	private char destination;   // identifier for destination of messages
-	private String[] messages;  // Sequence of messages to transmit to destination
-    // for messages
-    private final String ACKNOWLEDGEMENT="Ack";  // acknowledgement message
+	private int identifier;     // This stations identifier
+	private String name;        // identifier for printing
+	private TrafficProfile traffic;  // messages to transmit and their destinations
     private TokRing tokRingInterface;
+    private long threadId;      // identifier of the thread running the station
+    private Frame received = new Frame(); // for receiving messages
+    private volatile boolean quiesced = false;  // set by quiesce() - no new messages
+    private RingActivity activity;   // completion detection of the ring - null if none
+    private int reported = 0;        // outstanding messages reported to activity
+    private boolean finished = false;  // reported to activity as finished
 	
-	public Station(char id, char dest, String[] msgs, Cable cbl)
+	public Station(int id, int dest, String[] msgs, Cable cbl)
+	{
+		this(id, new FixedTraffic(dest, msgs), cbl, new RingConfig());
+	}
+
+	public Station(int id, TrafficProfile trfc, Cable cbl, RingConfig config)
 	{
 		identifier = id;
-		destination = dest;
-		messages = msgs;
-		tokRingInterface = new TokRing(cbl, id, this.getId());
+		name = TokRing.idName(id);
+		traffic = trfc;
+		traffic.setClock(config.getClock());
+		tokRingInterface = new TokRing(cbl, id, 0, config);
+		tokRingInterface.setTokenListener(new Runnable() {
+			public void run() { queueMessages(); }
+		});
 	}
+
+	public int getIdentifier() { return(identifier); }
+	public TokRing getTokRing() { return(tokRingInterface); }
+	public TrafficProfile getTraffic() { return(traffic); }
+
+	// Sets the RingActivity of the ring - called before the station is started
+	public void setActivity(RingActivity act) { activity = act; }
+
+	/*
+	 * Stops taking new messages from the traffic profile - called by
+	 * any thread; the station sees it at its next pass.
+	 */
+	public void quiesce() { quiesced = true; }
 	/*-------------------------------------------------------------
 	Function: run
 	Description:
-	   In a loop send the messages found in the array "messages". Between
-	   the transmission of each message wait for an acknowledgement (note
-	   that ackFlag ensures that an acknowledgement has been received
-	   before transmitting the next message).
+	   In a loop send the messages given by the traffic profile. Messages
+	   are sent while the TokRing window to the destination is open (note
+	   that canXmit() ensures that no more than window messages are 
+	   waiting for an acknowledgement).
 	   When a message is received, print to the screen
 	   the message and send an acknowledgement to the source
 	   of the message.
@@ -44,61 +79,115 @@ public class Station extends Thread
 	-------------------------------------------------------------*/
 	public void run()
 	{
-		int i=0;                // index for messages[]
-		boolean ackFlag = true; // acknowledgement flag
-		TokRing.Status flag;    // return flag from readMessage()
-		Frame msgRcv = new Frame(); // for receiving messages
+		threadId = Thread.currentThread().getId();
+		tokRingInterface.setThreadId(threadId);
 
 		// loop for transmission and reception
 	    do 
 		{
-		   // Reception of messages 
-		   flag = tokRingInterface.recvMessage(msgRcv); 
-		   if(flag == TokRing.Status.MSG_EMPTY) /* do nothing */;
-		   else if(flag == TokRing.Status.MSG_RECV)  // Message received received
-		   {
-			  if(msgRcv.getMsg().equals(ACKNOWLEDGEMENT))
-			  {
-			      if(msgRcv.getSource() == destination) // check out the source
-			      { 
-				     ackFlag = true; 
-					 System.out.println("Station " + identifier + " (" + this.getId() + 
-					                    "): Received from station " + msgRcv.getSource() + 
-					                    " an acknowldegement");
-			      } 
-				  else System.out.println("Station " + identifier + " (" + this.getId() + 
-				                          "): Received an Ack from " + msgRcv.getSource() + 
-				                          "ignored");					  
-			  }
-			  else 
-			  {     // Received a message - msgRcv contains it, msgRcv.getSource gives id station that sent it
-				   System.out.println("Station " + identifier + " (" + this.getId() + 
-	                                  "): Received from station " + msgRcv.getSource() + 
-	                                  " >" + msgRcv.getMsg() + "<");
-				   tokRingInterface.xmitMessage(msgRcv.getSource(), ACKNOWLEDGEMENT);
-			  }				  
-		   }
-		   else // fatal or unknown error
-			     System.out.printf("Station %c (%d): unknown value returned by recvMessage (%d)\n",
-			    		            identifier,getId(),flag);
-
-		   // Transmission of messages 
-		   if(ackFlag && (messages[i] != null))
-		   {  // Send message
-		      tokRingInterface.xmitMessage(destination, messages[i]);
-			  System.out.println("Station " + identifier + " (" + this.getId() + 
-					             "): Sent to station " + destination + " >" + messages[i] + "<");
-			  ackFlag = false; // becomes true at arrival of an ACK
-			  i++;             // points to next message for next time
-		   }
+		   processMessages();
 		   try
 		   {
 		     tokRingInterface.monitorTokenRing();
 		   }
 	       catch (InterruptedException ex) { break; }
-	       if(this.isInterrupted()) break;  // have been interrupted - break out of loop and terminate
+	       if(Thread.currentThread().isInterrupted()) break;  // have been interrupted - break out of loop and terminate
 		} while(true);
-	    System.out.println("Station " + identifier + " terminated");
-	    System.out.flush();
+	    log(RingLog.Level.INFO, "Station " + name + " terminated");
+	}
+
+	/*-------------------------------------------------------------
+	Function: processMessages
+	Description:
+	   One pass of the station loop, without blocking: processes the
+	   messages received so far, then queues the messages that the
+	   windows allow.  Called by run() between calls to
+	   monitorTokenRing(), and by a RingSimulator after each call to
+	   TokRing.pollTokenRing().
+	-------------------------------------------------------------*/
+	public void processMessages()
+	{
+		TokRing.Status flag;    // return flag from readMessage()
+		Frame msgRcv = received; // for receiving messages
+
+		   // Reception of messages - all messages received so far
+		   while((flag = tokRingInterface.recvMessage(msgRcv)) != TokRing.Status.MSG_EMPTY)
+		   {
+			   if(flag == TokRing.Status.MSG_RECV)  // Message received received
+			   {
+				  if(msgRcv.isAck())
+				  {   // window is updated by tokRingInterface
+					 traffic.acknowledged(msgRcv.getSource(), tokRingInterface.acknowledged(msgRcv.getSource()));
+					 if(tracing())
+						 log(RingLog.Level.TRACE, "Station " + name + " (" + threadId + 
+					                    "): Received from station " + TokRing.idName(msgRcv.getSource()) + 
+					                    " an acknowldegement");
+				  }
+				  else 
+				  {     // Received a message - msgRcv contains it, msgRcv.getSource gives id station that sent it
+					   if(tracing())
+						   log(RingLog.Level.TRACE, "Station " + name + " (" + threadId + 
+		                                  "): Received from station " + TokRing.idName(msgRcv.getSource()) + 
+		                                  " >" + msgRcv.getPayload() + "<");
+					   if(!TokRing.isGroupAddress(msgRcv.getDest()))  // group messages are not acknowledged
+						   tokRingInterface.xmitAck(msgRcv.getSource());
+				  }				  
+			   }
+			   else // fatal or unknown error
+				     log(RingLog.Level.ERROR, "Station " + name + " (" + threadId +
+				    		            "): unknown value returned by recvMessage (" + flag + ")");
+		   }
+
+		   queueMessages();
+	}
+
+	/*
+	 * Transmission of messages - queues the messages that the windows
+	 * allow.  Also run by the TokRing each time the token arrives.
+	 */
+	private void queueMessages()
+	{
+		int dest;               // destination of the next message
+		   while(!quiesced && (dest = traffic.nextDestination()) != TrafficProfile.NONE && tokRingInterface.canXmit(dest))
+		   {  // Send message - window closes when too many are waiting for an ACK
+			  int priority = traffic.nextPriority();
+			  String msg = traffic.takeMessage();  // moves to next message for next time
+		      tokRingInterface.xmitMessage(dest, msg, priority);
+			  if(tracing())
+				  log(RingLog.Level.TRACE, "Station " + name + " (" + threadId + 
+					             "): Sent to station " + TokRing.idName(dest) + " >" + msg + "<");
+		   }
+		   if(activity != null) reportActivity();
+	}
+
+	/*
+	 * Reports the change of the outstanding messages since the last
+	 * report, then whether the station has finished sending - in that
+	 * order, so the ring is never seen complete with messages unreported.
+	 */
+	private void reportActivity()
+	{
+		int outstanding = tokRingInterface.outstanding();
+		if(outstanding != reported)
+		{
+			activity.changed(outstanding - reported);
+			reported = outstanding;
+		}
+		if(!finished && (quiesced || traffic.isFinished()))
+		{
+			finished = true;
+			activity.finished();
+		}
+	}
+
+	// For logging messages - per message lines are only built when traced
+	private static boolean tracing()
+	{
+		return(RingLog.isEnabled(RingLog.Subsystem.STATION, RingLog.Level.TRACE));
+	}
+
+	private static void log(RingLog.Level level, String msg)
+	{
+		RingLog.log(RingLog.Subsystem.STATION, level, msg);
 	}
 }
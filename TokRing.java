@@ -1,3 +1,9 @@
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
 /*------------------------------------------------------------
 Class: tokRing
 
@@ -12,10 +18,104 @@ It monitors the network as follows:
 5) If the frame received is the token and txBuf not empty, write 
    the frame to the T-pair of the Cable.
 6) If the received frame source address is the station's address, 
-   write the token on the T-pair of the Cable.
+   write the token on the T-pair of the Cable once all frames
+   transmitted with the token have come back (the frames are removed
+   from the ring).
 7) If the destination address of a received frame is the station's 
    address, the frame is written to rxBuf.
 The standard error can be used to write messages to screen.
+
+Two wire formats are supported (see extractMsg() for details):
+   TEXT   - the original STX D S <message> ETX / SYN character format.
+   BINARY - length prefixed frames with a header giving the source and
+            destination ids and a flags field (token/data/ack).
+Both formats are recognised on reception.  Station ids are ints; the
+TEXT format can only carry ids that are a single character other than
+the frame delimiters (e.g. 'A'), the BINARY format carries any id.
+
+Delivery is pipelined: up to RingConfig.getWindow() messages per
+destination may be waiting for an acknowledgement (see canXmit()).
+Binary frames carry a sequence number and acknowledgements are
+cumulative - an Ack carries the sequence number of the last message
+received in order.  Text frames have no sequence number, so each Ack
+acknowledges the oldest outstanding message.
+
+A station that captures the token transmits the queued frames allowed
+by its TokenHoldingPolicy in a batch per priority.  With early release,
+the token is xmitted after the frames and the station's frames are only
+removed when they come back.  Frames received from the network are
+parsed in place using offsets, and frames are forwarded as received,
+without being decoded and encoded again.  The transmit and receive
+queues are FrameQueue objects that keep the length of each frame, so
+queueing and taking a frame never copies or parses the other queued
+frames.
+
+Frames and the token carry IEEE 802.5 style access control fields
+(binary format only): a priority (0 to PRIORITIES-1) and a
+reservation.  The station has a transmit queue per priority, and it
+only captures the token if its highest pending priority is at least
+the priority of the token; it then xmits its frames of priority at
+least that of the token, highest priority first.  A station whose
+pending frames have a lower priority reserves the next token by
+raising the reservation of the frames and tokens that it forwards.
+The station that captured the token releases it with the priority of
+the reservations seen on its returning frames; if that raises the
+priority, the station remembers it (a stack of priorities) and lowers
+the priority again when the token comes back at the raised priority.
+Acks are queued at RingConfig.getAckPriority() - above the priority
+of the messages, they overtake bulk messages.  TEXT tokens (SYN) have priority 0 and TEXT frames carry
+no access control - the transmit queues are still taken highest
+priority first.
+
+The TokRing of a bridge station of a MultiRing (see RingBridge) takes
+the frames destined for other rings, xmits the frames injected by the
+other rings and removes them when they come back.
+
+Binary frames carry a frame check sequence, the CRC32C of the frame
+without its access control (see FrameCheck).  The destination of a
+frame and the active monitor check it; a station that finds a frame
+that fails the check sets the error detected bit of its access control
+and forwards it without copying it, and the source counts the error
+when it removes the frame, as any frame of its own that comes back -
+the token is released as usual.  The active monitor also sets the
+monitor bit of the frames in error that pass it, and removes those
+that come back to it (their source is unknown).  The active monitor (setActiveMonitor(), one
+station of the ring) regenerates the token when it has not seen it for
+RingConfig.getMonitorTimeout(); each regeneration starts a new token
+generation, carried by binary tokens, and the active monitor removes
+the tokens of older generations (a token thought lost that turns up).
+A station still waiting for its frames when a token arrives gives
+them up.  With RingConfig.getRetransmitTimeout(), a station xmits
+again the messages waiting for an Ack from a station that has not
+acknowledged anything for that time (go-back-N): the receiver drops
+the messages that do not follow the last one received in order, and
+acknowledges that one again.  Without faults (see FaultProfile), none
+of this happens.
+
+With a FrameJournal (setJournal()), the messages queued and the Acks
+received are recorded, and the journal is committed at each token
+capture, before the frames are xmitted; the messages of a previous run
+that were not acknowledged are queued again.
+
+A binary frame can be sent to a group address (groupAddress(), for the
+stations that joined the group with joinGroup()) or to BROADCAST (all
+the stations).  Each member copies the frame as it passes and forwards
+it, setting the address recognised and frame copied bits of its access
+control (the 802.5 frame status - not covered by the frame check), and
+the sender removes the frame when it comes back: a message to K
+stations costs one frame and one token capture instead of K.  Group
+messages are datagrams - they have no sequence number, no Ack, no
+window, and are neither retransmitted nor journaled.  A bridge station
+forwards them to all the other rings.
+
+With RingConfig.getMtu(), a message longer than the MTU is queued as
+fragments of at most MTU characters (binary frames with the offset of
+the fragment in the message and a last fragment flag), so that a long
+message neither holds the token for long nor is copied whole at each
+hop.  The fragments of a message are reassembled in a buffer kept for
+their source and destination before recvMessage() returns the message;
+they carry the sequence number of the message, which is acknowledged,
+retransmitted and journaled as a whole.
 -------------------------------------------------------------*/
 
 public class TokRing 
@@ -27,54 +127,612 @@ public class TokRing
     private final int DEST_POS = 1;  // Position of the destination identifier
     private final int SRC_POS = 2;   // Position of the source identifier
     private final int MSG_POS = 3;    // Position of the message
+    // Definitions for binary frames - each header field is one or two characters
+    public final static char BFS = '\u0001';  // Start of a binary frame
+    private final static int HDR_LEN_POS = 1;  // Position of the header length
+    private final static int FLAGS_POS = 2;    // Position of the flags
+    private final static int LEN_POS = 3;      // Position of the payload length (2 chars)
+    private final static int BDEST_POS = 5;    // Position of the destination identifier (2 chars)
+    private final static int BSRC_POS = 7;     // Position of the source identifier (2 chars)
+    private final static int SEQ_POS = 9;      // Position of the sequence number (2 chars)
+    private final static int TS_POS = 11;      // Position of the xmit time (4 chars)
+    private final static int ACC_POS = 15;     // Position of the access control - priority and reservation
+    private final static int FCS_POS = 16;     // Position of the frame check sequence (2 chars)
+    private final static int BIN_HDR_LEN = 18; // Length of the header written by this version
+    private final static int OFFSET_POS = 18;  // Position of the offset of a fragment in its message (2 chars)
+    private final static int FRAG_HDR_LEN = 20; // Length of the header of fragments
+    // Access control - priority in bits 0-2, reservation in bits 3-5, frame status in bits 6-9
+    public final static int PRIORITIES = 8;
+    private final static int PRI_MASK = 0x07;
+    private final static int RES_SHIFT = 3;
+    private final static int RES_MASK = 0x38;
+    private final static int ADDR_RECOGNIZED = 0x40;  // set by the stations that recognise the destination
+    private final static int FRAME_COPIED = 0x80;     // set by the stations that copy the frame
+    private final static int FRAME_ERROR = 0x100;     // set by the station that finds a bad frame check
+    private final static int FRAME_MONITORED = 0x200; // set by the active monitor on frames in error
+    // Group addresses - station ids are below GROUP_BIT
+    public final static int GROUP_BIT = 0x40000000;
+    public final static int BROADCAST = 0x7FFFFFFF;   // all the stations
+    // Values for the flags field of binary frames
+    public final static int FLAG_TOKEN = 0x01;
+    public final static int FLAG_DATA = 0x02;
+    public final static int FLAG_ACK = 0x04;
+    public final static int FLAG_LAST_FRAG = 0x08;  // last fragment of a message
+    public final static String ACK_MSG = "Ack";  // payload of acknowledgements
     // 
     public enum Status {FINISH, MSG_TOK, MSG_EMPTY, MSG_RECV, MSG_STN };
-    // Buffers for exchanging messages with station and network
-    String [] buffers = new String[3]; // three buffers
-    private final int RxIndex = 0; // Receive buffer
-    private final int TxIndex = 1; // Transmit buffer
-    private final int AllFramesIx = 2; // Buffering received frames from network.
+    public enum Format {TEXT, BINARY};
+    // Queues and buffer for exchanging messages with station and network
+    private FrameQueue rxQueue = new FrameQueue();  // Receive queue - frames for the station
+    private FrameQueue [] txQueues = new FrameQueue[PRIORITIES];  // Transmit queue of each priority - null until used
+    private FrameBuffer allFrames = new FrameBuffer(); // Buffering received frames from network.
+    private Frame monitorFrame = new Frame();  // for getting frame parts in monitorTokenRing()
+    private FramePool framePool = new FramePool();  // frames returned by recvMessages()
+    // Position of the last frame found by extractMsg() in allFrames
+    private int frameStart;
+    private int frameEnd;
+    // Sequence numbers exchanged with other stations
+    private HashMap<Integer,Peer> peers = new HashMap<Integer,Peer>();
+    private int framesOut = 0;  // frames transmitted with the token and not yet back
+    private int unacked = 0;    // messages to all destinations waiting for an acknowledgement
+    private FrameCheck frameCheck = new FrameCheck();
+    // Recovery from lost frames (see RingConfig)
+    private long monitorTimeout = 0;  // 0 - not the active monitor
+    private long lastToken = 0;       // time the active monitor last saw the token
+    private int tokenGeneration = 0;  // generation of the last token seen
+    private long retransmitTimeout;   // 0 - no retransmission
+    private volatile long corruptFrames = 0;     // frames that failed the frame check
+    private volatile long tokensRegenerated = 0; // by the active monitor
+    private volatile long tokensPurged = 0;      // tokens of older generations removed by the active monitor
+    private volatile long retransmitted = 0;     // messages xmitted again
+    // Fragmentation (see RingConfig.getMtu())
+    private int mtu;                  // 0 - messages are not fragmented
+    private HashMap<Long,Reassembly> reassembly = new HashMap<Long,Reassembly>();  // by source and destination
+    private volatile long fragmentsSent = 0;
+    private volatile long reassembled = 0;       // messages
+    private volatile long fragmentsDropped = 0;  // not following the previous fragment
+    private FrameJournal journal = null;  // null - messages are not journaled
+    private volatile int [] groups = new int[0];  // group addresses joined by the station
+    private volatile long groupSent = 0;       // group messages xmitted
+    private volatile long groupCopied = 0;     // group frames come back copied by a member
+    private volatile long groupUncopied = 0;   // group frames come back copied by no member
+    private volatile long groupLost = 0;       // group frames not back when the token came back
+    private int groupPending = 0;   // group frames queued or xmitted, not back yet
+    private int groupInFlight = 0;  // group frames xmitted since the token was last seen
+    private FrameBuffer batch = new FrameBuffer();  // token xmitted by the station
+    // Priorities of the token captured by the station (until it is released)
+    private int tokenPriority;
+    private int reservation;    // highest reservation seen since the capture
+    // Priorities raised by the station - old and new priority of each raise
+    private int [] stackOld = new int[PRIORITIES];
+    private int [] stackNew = new int[PRIORITIES];
+    private int stackDepth = 0;
+    // For RingMetrics - time of the last token capture
+    private long lastCapture = 0;
+    private RingMetrics metrics = RingMetrics.isEnabled() ? RingMetrics.get() : null;
 	// Some identifiers and references
 	Cable stnCable;
-	char stationId;
+	int stationId;
 	long threadId;  // Thread identifier
+	Format format;  // Format of frames created by this station
+	int window;     // messages per destination waiting for an Ack
+	TokenHoldingPolicy holding; // frames xmitted per token capture
+	int ackPriority;  // priority of the Acks
+	RingClock clock;  // time source - simulated by a RingSimulator
+	private final int tokenLength;  // Length of the token in the station's format
+	private int ringChars = Integer.MAX_VALUE;  // characters the twisted pairs of the ring can hold
+	// Bridge mode - null for the other stations
+	private RingBridge bridge;
+	private RingRouter router;
+	private int ringIndex;      // ring of the station
+	private ConcurrentLinkedQueue<char[]> injected;  // frames from other rings
+	private Runnable tokenListener;  // run each time the token arrives
 	
-	public TokRing(Cable cbl, char stnId, long tid)
+	public TokRing(Cable cbl, int stnId, long tid)
+	{
+		this(cbl, stnId, tid, new RingConfig());
+	}
+
+	public TokRing(Cable cbl, int stnId, long tid, RingConfig config)
 	{
+		if(config.getFormat() == Format.TEXT && !isTextId(stnId))
+			throw new IllegalArgumentException("Station id " + stnId + " cannot be carried by TEXT frames");
+		if(isGroupAddress(stnId))
+			throw new IllegalArgumentException("Station id " + stnId + " is a group address");
 		stnCable = cbl;		
 		stationId = stnId;
 		threadId = tid;
-		buffers[RxIndex]="";
-		buffers[TxIndex]="";
-		buffers[AllFramesIx]="";
+		format = config.getFormat();
+		window = config.getWindow();
+		holding = config.getHoldingPolicy();
+		ackPriority = config.getAckPriority();
+		clock = config.getClock();
+		retransmitTimeout = config.getRetransmitTimeout();
+		if(retransmitTimeout > 0 && format == Format.TEXT)
+			throw new IllegalArgumentException("Retransmission needs BINARY frames (sequence numbers)");
+		mtu = config.getMtu();
+		if(mtu > 0 && format == Format.TEXT)
+			throw new IllegalArgumentException("Fragmentation needs BINARY frames");
+		tokenLength = format == Format.BINARY ? BIN_HDR_LEN : 1;
+		txQueues[0] = new FrameQueue();
+		if(metrics != null) metrics.register(this);
 	}
 	
+	// Thread identifier for messages - set by the thread running the station
+	public void setThreadId(long tid) { threadId = tid; }
+
+	/*
+	 * Sets the listener run each time the token arrives, before the
+	 * station decides to capture it - the station queues its messages.
+	 */
+	public void setTokenListener(Runnable listener) { tokenListener = listener; }
+
+	/*
+	 * Journals the messages of the station in journal, and queues the
+	 * messages recovered by the journal - called before the station
+	 * is started.
+	 */
+	public void setJournal(FrameJournal jnl)
+	{
+		journal = jnl;
+		for(FrameJournal.Entry entry : jnl.recovered()) xmitMessage(entry.getDest(), entry.getMessage(), entry.getPriority());
+		if(!jnl.recovered().isEmpty())
+			RingLog.logf(RingLog.Subsystem.TOKRING, RingLog.Level.INFO, "Station %s: %d messages recovered from the journal", 
+			             idName(stationId), jnl.recovered().size());
+	}
+
+	public FrameJournal getJournal() { return(journal); }
+
+	/*
+	 * Group membership - the station copies the frames sent to the
+	 * groups that it joined (see groupAddress()).  Called by any thread;
+	 * the station sees the change with the next frame.
+	 */
+	public synchronized void joinGroup(int address)
+	{
+		if(!isGroupAddress(address) || address == BROADCAST) throw new IllegalArgumentException("Not a group address: " + address);
+		if(isMember(address)) return;
+		int [] joined = Arrays.copyOf(groups, groups.length + 1);
+		joined[groups.length] = address;
+		groups = joined;
+	}
+
+	public synchronized void leaveGroup(int address)
+	{
+		int [] joined = groups;
+		for(int i = 0 ; i < joined.length ; i++)
+		{
+			if(joined[i] != address) continue;
+			int [] left = Arrays.copyOf(joined, joined.length - 1);
+			if(i < left.length) left[i] = joined[joined.length - 1];
+			groups = left;
+			return;
+		}
+	}
+
+	public int [] getGroups() { return(groups.clone()); }
+
+	/*
+	 * True if the station copies the frames sent to dest: its own id,
+	 * BROADCAST and the groups that it joined.
+	 */
+	public boolean isMember(int dest)
+	{
+		if(dest == stationId || dest == BROADCAST) return(true);
+		if(!isGroupAddress(dest)) return(false);
+		int [] joined = groups;
+		for(int i = 0 ; i < joined.length ; i++)
+			if(joined[i] == dest) return(true);
+		return(false);
+	}
+
+	// Getters for group messages and their frames - approximate when read by other threads
+	public long getGroupSent() { return(groupSent); }
+	public long getGroupCopied() { return(groupCopied); }
+	public long getGroupUncopied() { return(groupUncopied); }
+	public long getGroupLost() { return(groupLost); }
+
+	/*
+	 * Makes the station the active monitor of its ring: it regenerates
+	 * the token after timeoutNanos without it - called before the 
+	 * station is started, for one station of the ring.
+	 */
+	public void setActiveMonitor(long timeoutNanos)
+	{
+		if(timeoutNanos <= 0) throw new IllegalArgumentException("Monitor timeout must be positive: " + timeoutNanos);
+		monitorTimeout = timeoutNanos;
+	}
+
+	/*
+	 * Characters the twisted pairs of the ring can hold together - a
+	 * token capture xmits no more (but at least one frame), or the 
+	 * station would block on its txPair while its frames fill its 
+	 * rxPair.  Called before the station is started.
+	 */
+	public void setRingCapacity(int chars)
+	{
+		if(chars <= 0) throw new IllegalArgumentException("Ring capacity must be positive: " + chars);
+		ringChars = chars;
+	}
+
+	// Getters for the recovery from faults - approximate when read by other threads
+	public long getCorruptFrames() { return(corruptFrames); }
+	public long getTokensRegenerated() { return(tokensRegenerated); }
+	public long getTokensPurged() { return(tokensPurged); }
+	public long getRetransmitted() { return(retransmitted); }
+
+	// Getters for fragmentation - approximate when read by other threads
+	public int getMtu() { return(mtu); }
+	public long getFragmentsSent() { return(fragmentsSent); }
+	public long getReassembled() { return(reassembled); }
+	public long getFragmentsDropped() { return(fragmentsDropped); }
+
+	// Getters for RingMetrics - depths are in frames and approximate
+	public Cable getCable() { return(stnCable); }
+	public int getTxDepth()
+	{
+		int depth = 0;
+		for(FrameQueue queue : txQueues) 
+			if(queue != null) depth += queue.size();
+		return(depth);
+	}
+	public int getRxDepth() { return(rxQueue.size()); }
+
+	/*
+	 * Hooks for RingBenchmark: takes the frames queued for transmission
+	 * at priority 0, and queues received frames, without a cable.
+	 */
+	FrameQueue takeXmitQueue()
+	{
+		FrameQueue frames = txQueues[0];
+		txQueues[0] = new FrameQueue();
+		return(frames);
+	}
+
+	void putRecvQueue(FrameQueue frames)
+	{
+		rxQueue.addAll(frames);
+	}
+
+	/*
+	 * Makes the station the bridge station of ring ring (see
+	 * RingBridge) - called before the ring is started.
+	 */
+	void setBridge(RingBridge brdg, int ring)
+	{
+		bridge = brdg;
+		router = brdg.getRouter();
+		ringIndex = ring;
+		injected = new ConcurrentLinkedQueue<char[]>();
+	}
+
+	/*
+	 * Queues a frame from another ring - bridge stations only; called
+	 * by the threads of the other bridge stations.
+	 */
+	void inject(char [] frame)
+	{
+		injected.add(frame);
+	}
+
 	/*-------------------------------------------------------------
 	Method: xmitMessage
-	Parameters: char dest - destination of message 
+	Parameters: int dest - destination of message 
 	            String *msg - message string to send
+	            int priority - 0 (default) to PRIORITIES-1
 	Returns: nothing
 	Description:
-	   Creates a frame an appends it to the end of transmit buffer.
+	   Creates a frame an appends it to the end of the transmit queue
+	   of its priority.
+	   The message counts against the window of dest until it is 
+	   acknowledged (see canXmit()).  Messages to the same destination
+	   should have the same priority, as frames of different priorities
+	   may be delivered out of order.  A message to a group address
+	   or BROADCAST is a datagram: it is not acknowledged and does not
+	   count against a window (BINARY frames only), but it is 
+	   outstanding until it comes back to the station.  A message
+	   longer than the MTU is queued as fragments.
 	-------------------------------------------------------------*/
-	public void xmitMessage(char dest, String msg)
+	public void xmitMessage(int dest, String msg)
+	{
+		xmitMessage(dest, msg, 0);
+	}
+
+	public void xmitMessage(int dest, String msg, int priority)
+	{
+		if(priority < 0 || priority >= PRIORITIES) throw new IllegalArgumentException("Priority must be 0 to " + (PRIORITIES-1) + ": " + priority);
+		if(isGroupAddress(dest))
+		{
+			if(format == Format.TEXT) throw new IllegalArgumentException("Group addresses need BINARY frames");
+			groupPending += queueMessage(dest, 0, priority, msg);  // frames, until they are back
+			groupSent++;
+			return;
+		}
+		Peer peer = getPeer(dest);
+		if(metrics != null) peer.sent(peer.nextSeq, window, clock.nanoTime());
+		if(retransmitTimeout > 0) peer.keep(peer.nextSeq, msg, priority, window, clock.nanoTime() + retransmitTimeout);
+		if(journal != null) journal.sent(dest, peer.nextSeq, priority, msg);
+		queueMessage(dest, peer.nextSeq++, priority, msg);  // Append frames to queue
+		unacked++;
+	}
+
+	/*
+	 * Appends the frame of message msg to the transmit queue of
+	 * priority - the frames of its fragments if it is longer than the
+	 * MTU.  Returns the number of frames.
+	 */
+	private int queueMessage(int dest, int seq, int priority, String msg)
 	{
-		String frame = ""+STX+stationId+dest+msg+ETX;
-		buffers[TxIndex] = buffers[TxIndex]+frame;  // Append frame to buffer
+		FrameQueue queue = txQueue(priority);
+		int len = msg.length();
+		if(mtu == 0 || len <= mtu)
+		{
+			encodeFrame(queue.beginFrame(), FLAG_DATA, dest, stationId, seq, priority, msg);
+			queue.endFrame();
+			return(1);
+		}
+		int frames = 0;
+		for(int offset = 0 ; offset < len ; offset += mtu)
+		{
+			int last = offset + mtu >= len ? FLAG_LAST_FRAG : 0;
+			encodeFrame(queue.beginFrame(), FLAG_DATA | last, dest, stationId, seq, priority, msg, offset, Math.min(mtu, len - offset), true);
+			queue.endFrame();
+			frames++;
+		}
+		fragmentsSent += frames;
+		return(frames);
 	}
+
+	/*-------------------------------------------------------------
+	Method: xmitAck
+	Parameters: int dest - station whose messages are acknowledged
+	Returns: nothing
+	Description:
+	   Appends an acknowledgement frame to the transmit queue of the
+	   Ack priority.  In the binary format, the Ack is cumulative: it
+	   carries the sequence number of the last message received in 
+	   order from dest.
+	-------------------------------------------------------------*/
+	public void xmitAck(int dest)
+	{
+		FrameQueue queue = txQueue(ackPriority);
+		encodeFrame(queue.beginFrame(), FLAG_ACK, dest, stationId, getPeer(dest).received, ackPriority, ACK_MSG);
+		queue.endFrame();
+	}
+
+	/*-------------------------------------------------------------
+	Method: canXmit
+	Parameters: int dest - destination of the next message
+	Returns: true if fewer than window messages to dest are waiting
+	         for an acknowledgement - always for a group address.
+	-------------------------------------------------------------*/
+	public boolean canXmit(int dest)
+	{
+		if(isGroupAddress(dest)) return(true);
+		return(outstanding(dest) < window);
+	}
+
+	// Number of messages to dest acknowledged so far
+	public int acknowledged(int dest)
+	{
+		Peer peer = peers.get(dest);
+		return(peer == null ? 0 : peer.acked);
+	}
+
+	// Number of messages to dest waiting for an acknowledgement
+	public int outstanding(int dest)
+	{
+		Peer peer = peers.get(dest);
+		return(peer == null ? 0 : peer.nextSeq - 1 - peer.acked);
+	}
+
+	// Number of messages to all destinations waiting for an acknowledgement, or to come back (groups)
+	public int outstanding() { return(unacked + groupPending); }
 	
 	/*-------------------------------------------------------------
 	Method: recvMessage
 	Parameters: Frame - for returning frame parts, source, dest, msg
-	Returns: Return value from extractMsg which can be
-	           MSG_EMPTY - buffer is empty.
-	           MSG_RECV - message was found.
+	Returns: MSG_EMPTY - receive queue is empty.
+	         MSG_RECV - message was found.
 	Description:
-	    Remove a frame from receive buffer if possible.
+	    Remove a frame from receive queue if possible.  The payload of
+	    the frame is valid until the next call to monitorTokenRing();
+	    the payload of a reassembled message until the next call to
+	    recvMessage().
 	-------------------------------------------------------------*/
 	public Status recvMessage(Frame frm)
 	{
-		return(extractMsg(RxIndex,frm));		
+		FrameBuffer rx = rxQueue.buffer();
+		while(!rxQueue.isEmpty())
+		{
+			decodeFrame(rx, rx.start(), rx.start() + rxQueue.length(0), frm);
+			boolean whole = reassemble(rx, rx.start(), frm);
+			rxQueue.remove(1);
+			if(whole && trackSequence(frm)) return(Status.MSG_RECV);
+		}
+		return(Status.MSG_EMPTY);
+	}
+
+	/*-------------------------------------------------------------
+	Method: recvMessages
+	Parameters: Collection out - to which the frames are added
+	            int max - largest number of frames to remove
+	Returns: number of frames added to out (0 - queue is empty)
+	Description:
+	    Removes up to max frames from the receive queue in one batch,
+	    without blocking.  The frames come from a FramePool - the
+	    caller gives them back with Frame.release().  Their payloads
+	    are valid until the next call to monitorTokenRing().  A
+	    reassembled message ends the batch - its payload is valid
+	    until the next call to recvMessages().
+	-------------------------------------------------------------*/
+	public int recvMessages(Collection<? super Frame> out, int max)
+	{
+		FrameBuffer rx = rxQueue.buffer();
+		int pos = rx.start();
+		int n = 0;
+		int taken = 0;  // frames taken from the queue - some may be dropped
+		while(n < max && taken < rxQueue.size())
+		{
+			int len = rxQueue.length(taken);
+			Frame frm = framePool.acquire();
+			decodeFrame(rx, pos, pos + len, frm);
+			boolean fragment = isFragment(rx.array(), pos);
+			boolean whole = reassemble(rx, pos, frm);
+			if(whole && trackSequence(frm))
+			{
+				out.add(frm);
+				n++;
+			}
+			else frm.release();
+			pos += len;
+			taken++;
+			if(fragment && whole) break;  // the reassembly buffer is reused by the next message
+		}
+		rxQueue.remove(taken);
+		return(n);
+	}
+
+	/*-------------------------------------------------------------
+	Method: reassemble
+	Parameters: FrameBuffer buffer, int start - the frame decoded in frm
+	            Frame frm
+	Returns: false if the frame is a fragment and the message is not
+	         complete (or the fragment was dropped)
+	Description:
+	    Copies a fragment to the reassembly buffer of its source and
+	    destination, grown to the longest message received.  On the
+	    last fragment, the payload of frm becomes a view of the whole
+	    message in that buffer.  A fragment that does not follow the
+	    previous one (a fragment was lost) is dropped with the rest of
+	    its message; with retransmission, all the fragments of the
+	    message are xmitted again.  Frames that are not fragments
+	    are whole messages.
+	-------------------------------------------------------------*/
+	private boolean reassemble(FrameBuffer buffer, int start, Frame frm)
+	{
+		char [] array = buffer.array();
+		if(!isFragment(array, start)) return(true);
+		int offset = buffer.intAt(start+OFFSET_POS);
+		int len = buffer.intAt(start+LEN_POS);
+		long key = ((long)frm.getSource() << 32) | (frm.getDest() & 0xFFFFFFFFL);
+		Reassembly msg = reassembly.get(key);
+		if(msg == null)
+		{
+			msg = new Reassembly(Math.max(256, 4 * len));
+			reassembly.put(key, msg);
+		}
+		if(offset == 0)
+		{
+			msg.next = 0;
+			msg.seq = frm.getSeq();
+		}
+		if(offset != msg.next || frm.getSeq() != msg.seq)
+		{
+			msg.next = -1;
+			fragmentsDropped++;
+			return(false);
+		}
+		if(msg.chars.length < offset + len) msg.chars = Arrays.copyOf(msg.chars, Math.max(offset + len, 2 * msg.chars.length));
+		System.arraycopy(array, start + array[start+HDR_LEN_POS], msg.chars, offset, len);
+		msg.next = offset + len;
+		if((frm.getFlags() & FLAG_LAST_FRAG) == 0) return(false);
+		frm.setPayload(msg.chars, 0, msg.next);  // view of the whole message
+		msg.next = -1;
+		reassembled++;
+		return(true);
+	}
+
+	// True if the frame at start completes a message - not an Ack, nor a
+	// fragment other than the last one (see RingMetrics latency)
+	private static boolean isDelivery(Frame frm, char [] array, int start)
+	{
+		if(frm.isAck()) return(false);
+		return(!isFragment(array, start) || (frm.getFlags() & FLAG_LAST_FRAG) != 0);
+	}
+
+	// True if the frame at start is a fragment of a message
+	private static boolean isFragment(char [] array, int start)
+	{
+		return(array[start] == BFS && array[start+HDR_LEN_POS] >= FRAG_HDR_LEN);
+	}
+
+	/*-------------------------------------------------------------
+	Method: trackSequence
+	Parameters: Frame - frame received by the station
+	Returns: false if the message is dropped (retransmission only)
+	Description:
+	    Slides the window of the frame's source on an Ack, or records
+	    the message as received for the next cumulative Ack.
+	    Text frames have no sequence numbers and are counted.  With
+	    retransmission, a message that does not follow the last one
+	    received in order is dropped, and that one is acknowledged
+	    again.  Group messages have no sequence number.
+	-------------------------------------------------------------*/
+	private boolean trackSequence(Frame frm)
+	{
+		if(isGroupAddress(frm.getDest())) return(true);
+		Peer peer = getPeer(frm.getSource());
+		int seq = format == Format.BINARY ? frm.getSeq() : -1;
+		if(frm.isAck())
+		{
+			if(seq < 0) seq = peer.acked + 1;  // text - acknowledges the oldest message
+			if(seq > peer.acked && seq < peer.nextSeq) 
+			{
+				if(metrics != null) peer.acked(seq, metrics.ackRtt, clock.nanoTime());
+				unacked -= seq - peer.acked;
+				peer.acked = seq;
+				if(journal != null) journal.acked(frm.getSource(), seq);
+				if(retransmitTimeout > 0) peer.deadline = clock.nanoTime() + retransmitTimeout;
+			}
+		}
+		else
+		{
+			if(seq < 0) seq = peer.received + 1;
+			if(retransmitTimeout > 0 && seq != peer.received + 1)  // a duplicate, or a message was lost
+			{
+				xmitAck(frm.getSource());
+				return(false);
+			}
+			if(seq > peer.received) peer.received = seq;
+		}
+		return(true);
+	}
+
+	/*-------------------------------------------------------------
+	Method: retransmit
+	Description:
+	    Called at each token arrival while messages wait for an Ack.
+	    Queues again all the messages waiting for an Ack from each
+	    station that has not acknowledged any for retransmitTimeout,
+	    with their sequence numbers (go-back-N).
+	-------------------------------------------------------------*/
+	private void retransmit()
+	{
+		long now = clock.nanoTime();
+		for(Map.Entry<Integer,Peer> entry : peers.entrySet())
+		{
+			Peer peer = entry.getValue();
+			if(peer.nextSeq - 1 == peer.acked || now - peer.deadline < 0) continue;
+			for(int seq = peer.acked + 1 ; seq < peer.nextSeq ; seq++)
+			{
+				int ix = seq % peer.msgs.length;
+				queueMessage(entry.getKey(), seq, peer.priorities[ix], peer.msgs[ix]);
+				retransmitted++;
+			}
+			peer.deadline = now + retransmitTimeout;
+		}
+	}
+
+	private Peer getPeer(int id)
+	{
+		Peer peer = peers.get(id);
+		if(peer == null)
+		{
+			peer = new Peer();
+			peers.put(id, peer);
+		}
+		return(peer);
 	}
 	
 	/*-------------------------------------------------------------
@@ -92,54 +750,463 @@ public class TokRing
 	   the cable is empty.
 	-------------------------------------------------------------*/	
 	public void monitorTokenRing() throws InterruptedException
+	{
+		monitor(true);
+	}
+
+	/*-------------------------------------------------------------
+	Method: pollTokenRing
+	Parameters: none
+	Returns:  MSG_STN - message has been received for the station.
+	          MSG_EMPTY - all the frames received so far have been
+	                      processed.
+	Description:
+	   Same as monitorTokenRing() without blocking, for a station
+	   driven by a single thread (see RingSimulator).
+	-------------------------------------------------------------*/	
+	public Status pollTokenRing() throws InterruptedException
+	{
+		return(monitor(false));
+	}
+
+	private Status monitor(boolean wait) throws InterruptedException
 	{
 		   Status flag;               // return flag from readMsg()
-		   Frame frame = new Frame(); // for getting frame parts.
-		   String frameStr;
+		   Frame frame = monitorFrame; // for getting frame parts.
+		   boolean release;           // true to release the token
 
 		   // loop that monitors network
 		   // readMsg blocks when receive TwistedPair is empty.
 		   // Throws InterruptedException when Station thread is terminated
 		   do
 		   {
-		      flag = readMsg(frame);
+		      flag = readMsg(frame, wait);
+		      if(flag == Status.MSG_EMPTY) break;  // not waiting - nothing received
 		      // Transmitting message
 		      if(flag == Status.MSG_TOK) // token was received - note frame is meaningless
 		      {  
-		         if(extractMsg(TxIndex,frame) == Status.MSG_EMPTY)  // no frames to Xmit
-		            stnCable.stationTransmit(""+SYN);
-			     else
-			    	stnCable.stationTransmit(""+STX+frame.getSource()+frame.getDest()+frame.getMsg()+ETX);
+		    	 if(!acceptToken()) continue;  // removed by the active monitor
+		    	 if(metrics != null) tokenCaptured();
+		    	 if(retransmitTimeout > 0 && unacked > 0) retransmit();
+		    	 if(tokenListener != null) tokenListener.run();
+		    	 if(bridge != null) takeInjected();
+		    	 if(journal != null) journal.commit();  // group commit - before the frames are xmitted
+		    	 int access = accessOf(allFrames.array(), frameStart);
+		    	 int priority = access & PRI_MASK;
+		    	 int res = (access & RES_MASK) >> RES_SHIFT;
+		    	 if(stackDepth > 0 && priority == stackNew[stackDepth-1])  // priority raised by this station
+		    	 {
+		    		 priority = lowerPriority(res);
+		    		 res = 0;
+		    	 }
+		    	 int pending = pendingPriority();
+		    	 if(pending >= priority) xmitHeldFrames(priority, res);
+		    	 else xmitToken(priority, Math.max(res, pending));  // not captured - reserve it
 		      }
 		      // Message reception 
 		      else if(flag == Status.MSG_RECV) 
 		      {     // Received a message - msg contains it, source gives id station that sent it
-		         if(frame.getSource() == stationId) // frame sent by this station - need to release token
-			         frameStr = ""+SYN;
+		         if(isOwnFrame(frame)) // frame sent by this station - remove it from the ring
+		         {
+		        	 if((accessOf(allFrames.array(), frameStart) & FRAME_ERROR) != 0) frameFailed();
+		        	 else if(isGroupAddress(frame.getDest())) groupReturned(accessOf(allFrames.array(), frameStart));
+		        	 if(holding.isEarlyRelease() || framesOut == 0) release = false;  // token already released, or the frames were given up
+		        	 else
+		        	 {
+		        		 reservation = Math.max(reservation, (accessOf(allFrames.array(), frameStart) & RES_MASK) >> RES_SHIFT);
+		        		 framesOut--;
+		        		 release = framesOut == 0;  // all frames are back - need to release token
+		        	 }
+		         }
+			     else if((accessOf(allFrames.array(), frameStart) & FRAME_ERROR) != 0
+			    		 || (monitorTimeout > 0 || isMember(frame.getDest())) && !checkFrame(allFrames.array(), frameStart, frameEnd))
+			     {
+			    	 release = false;
+			    	 if(markError(allFrames.array(), frameStart))  // on to its source, not copied
+			    	 {
+			    		 stnCable.stationTransmit(allFrames.array(), frameStart, frameEnd - frameStart);
+			    		 countXmitted(1, frameEnd - frameStart);
+			    	 }
+			    	 else frameFailed();  // back at the active monitor - removed from the ring
+			     }
 			     else 
 			     {
-			    	 frameStr = ""+STX+frame.getDest()+frame.getSource()+frame.getMsg()+ETX;
-			         if(frame.getDest() == stationId) 
+			    	 release = false;
+			    	 boolean copy = bridge == null && isMember(frame.getDest());
+			    	 reserve(allFrames.array(), frameStart);
+			    	 if(copy) markCopied(allFrames.array(), frameStart);
+			         if(bridge != null && isGroupAddress(frame.getDest()))  // for all the rings - counted before the frame can be back at its source
+			         {
+			        	 bridge.groupForwarded(router.getRings() - 1);
+			        	 for(int ring = 0 ; ring < router.getRings() ; ring++)
+			        		 if(ring != ringIndex) bridge.forward(ring, allFrames.array(), frameStart, frameEnd - frameStart);
+			        	 flag = Status.MSG_STN;
+			         }
+			         stnCable.stationTransmit(allFrames.array(), frameStart, frameEnd - frameStart);  // forwarded as received
+			         countXmitted(1, frameEnd - frameStart);
+			         if(bridge != null && !isGroupAddress(frame.getDest())) 
+			         {
+			        	 int ring = router.ringOf(frame.getDest());
+			        	 if(ring != ringIndex)  // for another ring - cross the bridge
+			        	 {
+			        		 bridge.forward(ring, allFrames.array(), frameStart, frameEnd - frameStart);
+			        		 flag = Status.MSG_STN;
+			        	 }
+			         }
+			         else if(copy) 
 		             { 
-			        	buffers[RxIndex] = buffers[RxIndex]+frameStr; // save copy if for this station
+			        	rxQueue.add(allFrames.array(), frameStart, frameEnd - frameStart); // save copy if for this station
+			        	if(metrics != null && frame.getTimestamp() != 0 && isDelivery(frame, allFrames.array(), frameStart)) 
+			        		metrics.latency.record(clock.nanoTime() - frame.getTimestamp());
  			            flag = Status.MSG_STN;  // To return so that received message can be processed
 		             } 
 			     }
-		         stnCable.stationTransmit(frameStr);
+		         if(release) releaseToken(tokenPriority, reservation);
 		      }
 		      else // fatal or unknown error
-		         System.out.printf("Station %c (%d): unknown value returned by readMsg (%d)\n",
-		        		           stationId, threadId, flag);
+		         RingLog.logf(RingLog.Subsystem.TOKRING, RingLog.Level.ERROR, "Station %s (%d): unknown value returned by readMsg (%s)",
+		        		           idName(stationId), threadId, flag);
 
 		   } while( flag != Status.MSG_STN);
+		   return(flag);
 	}
+	/*-------------------------------------------------------------
+	Method: acceptToken
+	Returns: false if the token is removed from the ring
+	Description:
+	    Called when a token arrives.  The active monitor removes the
+	    tokens of an older generation, and those that fail the frame
+	    check; the other stations take the generation of the token.
+	    A station still waiting for its frames gives them up - they
+	    were lost and the token was regenerated.  The frames xmitted
+	    before the token are back by the time it arrives, so the
+	    group messages not back were lost.
+	-------------------------------------------------------------*/
+	private boolean acceptToken()
+	{
+		char [] array = allFrames.array();
+		int generation = array[frameStart] == BFS ? allFrames.intAt(frameStart+SEQ_POS) : tokenGeneration;
+		if(monitorTimeout > 0)
+		{
+			if(!checkFrame(array, frameStart, frameEnd))
+			{
+				frameFailed();
+				return(false);
+			}
+			if(generation != tokenGeneration)
+			{
+				tokensPurged++;
+				RingLog.logf(RingLog.Subsystem.TOKRING, RingLog.Level.INFO, "Station %s (%d): token of generation %d removed (current %d)",
+				             idName(stationId), threadId, generation, tokenGeneration);
+				return(false);
+			}
+			lastToken = clock.nanoTime();
+		}
+		else if(generation != tokenGeneration)
+		{
+			tokenGeneration = generation;
+			stackDepth = 0;  // the raised priorities went with the old token
+		}
+		framesOut = 0;
+		if(groupInFlight > 0)
+		{
+			groupLost += groupInFlight;
+			groupDone(groupInFlight);
+			groupInFlight = 0;
+		}
+		return(true);
+	}
+
+	/*
+	 * Active monitor - waits for frames, and regenerates the token
+	 * each time it has not been seen for monitorTimeout.
+	 */
+	private void awaitFrames() throws InterruptedException
+	{
+		TwistedPair rx = stnCable.getRxPair();
+		if(lastToken == 0) lastToken = clock.nanoTime();
+		while(!rx.await(lastToken + monitorTimeout - clock.nanoTime())) 
+		{
+			tokenGeneration++;
+			framesOut = 0;
+			stackDepth = 0;
+			tokensRegenerated++;
+			RingLog.logf(RingLog.Subsystem.TOKRING, RingLog.Level.INFO, "Station %s (%d): token lost - regenerated (generation %d)",
+			             idName(stationId), threadId, tokenGeneration);
+			xmitToken(0, 0);
+		}
+	}
+
+	/*
+	 * Checks the frame check sequence of the frame from start to end -
+	 * TEXT frames and binary frames without one pass.
+	 */
+	private boolean checkFrame(char [] array, int start, int end)
+	{
+		if(array[start] != BFS || array[start+HDR_LEN_POS] < FCS_POS + 2) return(true);
+		int fcs = (array[start+FCS_POS] << 16) | array[start+FCS_POS+1];
+		return(fcs == frameCheck.compute(array, start, end, start+ACC_POS, start+FCS_POS+2));
+	}
+
+	// A frame failed the frame check and is removed from the ring - by
+	// its source, or by the active monitor (a token, or a frame in 
+	// error whose source did not remove it)
+	private void frameFailed()
+	{
+		corruptFrames++;
+		RingLog.logf(RingLog.Subsystem.TOKRING, RingLog.Level.INFO, "stn(%s,%d): frame check failed - frame removed", idName(stationId), threadId);
+	}
+
+	/*-------------------------------------------------------------
+	Method: xmitHeldFrames
+	Parameters: int priority, int res - priority and reservation of
+	                                    the captured token
+	Description:
+	    Called when the token is captured.  Xmits the frames allowed by
+	    the token holding policy from the transmit queues of priority
+	    priority and above, highest priority first; the frames of a
+	    queue are contiguous, so they are xmitted with a single call
+	    to stationTransmit() straight from the queue.  The frames are
+	    only split when they would not fit in the twisted pair.
+	    The token is released after the frames if there are no frames
+	    to xmit or if early release is used; otherwise it is released
+	    when the frames come back.
+	-------------------------------------------------------------*/
+	private void xmitHeldFrames(int priority, int res) throws InterruptedException
+	{
+		long captured = clock.nanoTime();
+		int frames = 0;   // frames of all queues
+		int chars = 0;
+		int room = stnCable.getTxPair().capacity() - tokenLength;  // largest part
+		boolean more = true;
+		for(int p = PRIORITIES - 1 ; p >= priority && more ; p--)
+		{
+			FrameQueue queue = txQueues[p];
+			if(queue == null) continue;
+			FrameBuffer tx = queue.buffer();
+			int taken = 0;    // frames of this queue
+			int flushed = 0;  // frames xmitted before the last part
+			int sent = 0;     // characters xmitted before the last part
+			int pending = 0;  // characters of the last part
+			while(taken < queue.size())
+			{
+				int len = queue.length(taken);
+				if(frames > 0 && len > ringChars - chars)  // the ring cannot hold the frame
+				{
+					more = false;
+					break;
+				}
+				if(pending > 0 && pending + len > room)  // twisted pair is too short
+				{
+					stnCable.stationTransmit(tx.array(), tx.start() + sent, pending);
+					countXmitted(taken - flushed, pending);
+					flushed = taken;
+					sent += pending;
+					pending = 0;
+				}
+				if(groupPending > 0 && isGroupFrame(tx.array(), tx.start() + sent + pending)) groupInFlight++;
+				pending += len;
+				taken++;
+				frames++;
+				chars += len;
+				if(!holding.mayContinue(frames, chars, clock.nanoTime() - captured)) 
+				{
+					more = false;
+					break;
+				}
+			}
+			if(pending > 0)
+			{
+				stnCable.stationTransmit(tx.array(), tx.start() + sent, pending);
+				countXmitted(taken - flushed, pending);
+			}
+			queue.remove(taken);
+		}
+		if(frames == 0 || holding.isEarlyRelease()) releaseToken(priority, res);
+		else
+		{
+			framesOut += frames;
+			tokenPriority = priority;
+			reservation = res;
+		}
+	}
+
+	/*-------------------------------------------------------------
+	Method: releaseToken
+	Parameters: int priority - priority of the captured token
+	            int res - highest reservation seen since the capture
+	Description:
+	    Xmits the token.  When the reservations or the frames still
+	    queued by the station are above priority, the token is
+	    released with that priority and the station stacks the raise,
+	    to lower the priority once the token comes back at it (see
+	    lowerPriority()).
+	-------------------------------------------------------------*/
+	private void releaseToken(int priority, int res) throws InterruptedException
+	{
+		int target = Math.max(res, pendingPriority());
+		if(format == Format.BINARY && target > priority && stackDepth < PRIORITIES)
+		{
+			stackOld[stackDepth] = priority;
+			stackNew[stackDepth++] = target;
+			xmitToken(target, 0);
+		}
+		else xmitToken(priority, Math.max(res, 0));
+	}
+
+	/*
+	 * Called when the token comes back at the priority raised by this
+	 * station - returns the priority to which the token is lowered:
+	 * the priority before the raise, unless a reservation is higher.
+	 */
+	private int lowerPriority(int res)
+	{
+		int top = stackDepth - 1;
+		int priority = Math.max(stackOld[top], res);
+		if(priority > stackOld[top]) stackNew[top] = priority;  // still raised
+		else stackDepth--;
+		return(priority);
+	}
+
+	// Xmits a token in the station's format
+	private void xmitToken(int priority, int res) throws InterruptedException
+	{
+		batch.clear();
+		if(format == Format.TEXT) batch.append(SYN);
+		else encodeFrame(batch, FLAG_TOKEN, 0, 0, tokenGeneration, priority | (Math.max(res, 0) << RES_SHIFT), "");
+		stnCable.stationTransmit(batch.array(), batch.start(), batch.length());
+		countXmitted(1, batch.length());
+		if(monitorTimeout > 0) lastToken = clock.nanoTime();  // the active monitor's own token
+	}
+
+	// Highest priority of the queued frames, -1 if there are none
+	private int pendingPriority()
+	{
+		for(int p = PRIORITIES - 1 ; p >= 0 ; p--)
+			if(txQueues[p] != null && !txQueues[p].isEmpty()) return(p);
+		return(-1);
+	}
+
+	// Transmit queue of priority - created on first use
+	private FrameQueue txQueue(int priority)
+	{
+		if(txQueues[priority] == null) txQueues[priority] = new FrameQueue();
+		return(txQueues[priority]);
+	}
+
+	/*
+	 * Raises the reservation of a binary frame forwarded by the station
+	 * to the priority of its queued frames.
+	 */
+	private void reserve(char [] array, int start)
+	{
+		if(array[start] != BFS || array[start+HDR_LEN_POS] <= ACC_POS) return;
+		int pending = pendingPriority();
+		if(pending > (array[start+ACC_POS] & RES_MASK) >> RES_SHIFT)
+			array[start+ACC_POS] = (char)((array[start+ACC_POS] & ~RES_MASK) | (pending << RES_SHIFT));
+	}
+
+	// Sets the frame status of a binary frame copied by the station
+	private static void markCopied(char [] array, int start)
+	{
+		if(array[start] == BFS && array[start+HDR_LEN_POS] > ACC_POS) array[start+ACC_POS] |= ADDR_RECOGNIZED | FRAME_COPIED;
+	}
+
+	// Sets the frame status of a binary frame in error - false if the
+	// active monitor sees the frame in error for the second time
+	private boolean markError(char [] array, int start)
+	{
+		if(array[start] != BFS || array[start+HDR_LEN_POS] <= ACC_POS) return(true);
+		int access = array[start+ACC_POS];
+		if(monitorTimeout > 0)
+		{
+			if((access & FRAME_ERROR) != 0 && (access & FRAME_MONITORED) != 0) return(false);
+			access |= FRAME_MONITORED;
+		}
+		array[start+ACC_POS] = (char)(access | FRAME_ERROR);
+		return(true);
+	}
+
+	// A group frame of the station came back with access control access
+	private void groupReturned(int access)
+	{
+		if(groupInFlight == 0) return;  // given up when the token came back
+		groupInFlight--;
+		groupDone(1);
+		if((access & FRAME_COPIED) != 0) groupCopied++;
+		else groupUncopied++;
+	}
+
+	// Group frames back or lost - for a bridge station, frames of other rings
+	private void groupDone(int count)
+	{
+		groupPending -= count;
+		if(bridge != null) bridge.groupsDone(count);
+	}
+
+	// True if the frame at start is sent to a group address
+	private static boolean isGroupFrame(char [] array, int start)
+	{
+		return(array[start] == BFS && isGroupAddress((array[start+BDEST_POS] << 16) | array[start+BDEST_POS+1]));
+	}
+
+	// Access control of the frame or token at start - 0 for TEXT and SYN
+	private static int accessOf(char [] array, int start)
+	{
+		if(array[start] != BFS || array[start+HDR_LEN_POS] <= ACC_POS) return(0);
+		return(array[start+ACC_POS]);
+	}
+
+	/*
+	 * True if the frame was xmitted by this station - for a bridge
+	 * station, frames from other rings.
+	 */
+	private boolean isOwnFrame(Frame frame)
+	{
+		if(bridge != null) return(router.ringOf(frame.getSource()) != ringIndex);
+		return(frame.getSource() == stationId);
+	}
+
+	/*
+	 * Moves the frames injected by the other rings to the transmit
+	 * queue of their priority - reservations made on the other ring
+	 * and the frame status are cleared.
+	 */
+	private void takeInjected()
+	{
+		char [] frm;
+		while((frm = injected.poll()) != null) 
+		{
+			int priority = accessOf(frm, 0) & PRI_MASK;
+			if(frm[0] == BFS && frm[HDR_LEN_POS] > ACC_POS) frm[ACC_POS] = (char)priority;
+			if(isGroupFrame(frm, 0)) groupPending++;  // until it comes back
+			txQueue(priority).add(frm, 0, frm.length);
+		}
+	}
+
+	// Counts frames xmitted on the cable
+	private void countXmitted(int frames, int chars)
+	{
+		if(metrics != null) stnCable.countXmitted(frames, chars);
+	}
+
+	// Records the token rotation time and the transmit queue depth
+	private void tokenCaptured()
+	{
+		long now = clock.nanoTime();
+		if(lastCapture != 0) metrics.tokenRotation.record(now - lastCapture);
+		lastCapture = now;
+		metrics.txQueueDepth.record(getTxDepth());
+	}
+
 	/*-------------------------------------------------------------
 	Method: readMsg
 	Parameters: 
 	    Frame - components to frame received.
+	    boolean wait - false to return MSG_EMPTY instead of blocking
 	Description:
 	    Reads one or more frames from the receive twisted pair in the 
-	    Cable and stores them in buffer (AllFramesIx).  
+	    Cable and stores them in buffer allFrames.  
 
 	    If frames have been received, call extractMsg() to extract the
 	    first message; it returns MSG_TOK if a token is found or
@@ -153,22 +1220,24 @@ public class TokRing
 
 	    See extractMsg() for frame format.
 	-------------------------------------------------------------*/
-	private Status readMsg(Frame frame) throws InterruptedException
+	private Status readMsg(Frame frame, boolean wait) throws InterruptedException
 	{
 		   Status ret;		    // value returned by method
 		   Status retRead;      // to store value returned by read and extractMessage methods
 		   
 		   while(true) // Loop to find a message
 		   {
-		      if(buffers[AllFramesIx].equals("")) // buffer empty - need to read from the TwistedPair
+		      if(allFrames.isEmpty()) // buffer empty - need to read from the TwistedPair
 		      {
-		    	  buffers[AllFramesIx] = stnCable.stationReceive();  // Blocks when TwistedPair empty
+		    	  if(!wait && stnCable.getRxPair().pending() == 0) return(Status.MSG_EMPTY);
+		    	  if(wait && monitorTimeout > 0) awaitFrames();
+		    	  stnCable.stationReceive(allFrames);  // Blocks when TwistedPair empty
 		      }
 			   // Frames have been received
 			   // The following lines can be used for debugging
 			   //System.out.println("Station " + stationId+ " (" + "+threadId+
-			   //                   "): readMessage >" + buffers[AllFramesIx] + "<");
-			   retRead = extractMsg(AllFramesIx,frame);   // extracts from AllFrames buffer
+			   //                   "): readMessage >" + allFrames + "<");
+			   retRead = extractMsg(allFrames,frame);   // extracts from AllFrames buffer
 			   if(retRead != Status.MSG_EMPTY) // if MSG_EMPTY, no messages were found in the buffer 
 			   {
 			          ret = retRead;  // is MSG_ACK or MSG_RECV
@@ -179,17 +1248,162 @@ public class TokRing
 		   return(ret);	
 	}
 	
+	/*------------------------------------------------
+	Method: encodeFrame
+
+	Parameters:
+	    FrameBuffer out - buffer to which the frame is appended
+	    int flags - FLAG_TOKEN, FLAG_DATA and/or FLAG_ACK
+	    int dest, int src - destination and source identifiers
+	    int seq - sequence number, generation of a token (binary 
+	              format only)
+	    int access - priority, and reservation shifted by RES_SHIFT
+	                 (binary format only)
+	    String msg - the message
+	    int offset, int len - the characters of msg in the frame, and
+	                          fragment - true for a fragment (binary
+	                          format only)
+
+	Description: 
+	     Appends a frame in the station's format to out.
+	     See extractMsg() for the frame formats.
+	------------------------------------------------*/	
+	private void encodeFrame(FrameBuffer out, int flags, int dest, int src, int seq, int access, String msg)
+	{
+		encodeFrame(out, flags, dest, src, seq, access, msg, 0, msg.length(), false);
+	}
+
+	private void encodeFrame(FrameBuffer out, int flags, int dest, int src, int seq, int access, String msg, int offset, int len, boolean fragment)
+	{
+		if(format == Format.TEXT)
+		{
+			if(!isTextId(dest))
+				throw new IllegalArgumentException("Station id " + dest + " cannot be carried by TEXT frames");
+			out.append(STX);
+			out.append((char)dest);
+			out.append((char)src);
+			out.append(msg);
+			out.append(ETX);
+		}
+		else
+		{
+			int hdrLen = fragment ? FRAG_HDR_LEN : BIN_HDR_LEN;
+			out.ensureRoom(hdrLen + len);  // the frame is not moved while it is encoded
+			int start = out.end();
+			out.append(BFS);
+			out.append((char)hdrLen);
+			out.append((char)flags);
+			out.appendInt(len);
+			out.appendInt(dest);
+			out.appendInt(src);
+			out.appendInt(seq);
+			out.appendLong(metrics != null && (flags & FLAG_TOKEN) == 0 ? clock.nanoTime() : 0);
+			out.append((char)access);
+			out.appendInt(0);  // frame check sequence - set once the frame is complete
+			if(fragment) out.appendInt(offset);
+			out.append(msg, offset, len);
+			out.setInt(start+FCS_POS, frameCheck.compute(out.array(), start, out.end(), start+ACC_POS, start+FCS_POS+2));
+		}
+	}
+
+	/*
+	 * Length of the frame or token at start, -1 if the characters up
+	 * to end are not a whole frame (see TwistedPairFaults).
+	 */
+	public static int frameLength(char [] array, int start, int end)
+	{
+		if(array[start] == SYN) return(1);
+		if(array[start] == BFS)
+		{
+			if(end - start <= LEN_POS + 1) return(-1);
+			int len = array[start+HDR_LEN_POS] + ((array[start+LEN_POS] << 16) | array[start+LEN_POS+1]);
+			return(len > 0 && len <= end - start ? len : -1);
+		}
+		if(array[start] != STX) return(-1);
+		for(int i = start + 1 ; i < end ; i++)
+			if(array[i] == ETX) return(i + 1 - start);
+		return(-1);
+	}
+
+	/*
+	 * The characters of the whole frame at start, of length len, that
+	 * do not delimit it: from contentStart() to contentEnd().  A binary
+	 * frame is delimited by BFS and its lengths, a TEXT frame by STX and
+	 * ETX - physical symbols in 802.5, not changed by bit errors.
+	 */
+	static int contentStart(char [] array, int start)
+	{
+		return(start + (array[start] == BFS ? LEN_POS + 2 : 1));
+	}
+
+	static int contentEnd(char [] array, int start, int len)
+	{
+		return(start + (array[start] == STX ? len - 1 : len));
+	}
+
+	/*
+	 * Length of the longest frame xmitted for a message of len 
+	 * characters in format, with an MTU of mtu (0 - no MTU).
+	 */
+	public static int longestFrame(Format format, int mtu, int len)
+	{
+		if(format == Format.TEXT) return(len + 4);  // STX D S <message> ETX
+		if(mtu > 0 && len > mtu) return(mtu + FRAG_HDR_LEN);
+		return(len + BIN_HDR_LEN);
+	}
+
+	/*
+	 * True if id can be carried by a TEXT frame, i.e. it is a printable
+	 * character that is not one of the frame delimiters.
+	 */
+	public static boolean isTextId(int id)
+	{
+		return(id > ' ' && id <= Character.MAX_VALUE && id != STX && id != ETX && id != SYN && id != BFS);
+	}
+
+	/*
+	 * Address of group group (0 to BROADCAST-GROUP_BIT-1) - frames sent
+	 * to it are copied by the stations that joined it.
+	 */
+	public static int groupAddress(int group)
+	{
+		if(group < 0 || group >= BROADCAST - GROUP_BIT) throw new IllegalArgumentException("Group must be 0 to " + (BROADCAST - GROUP_BIT - 1) + ": " + group);
+		return(GROUP_BIT | group);
+	}
+
+	// True for group addresses and BROADCAST
+	public static boolean isGroupAddress(int id)
+	{
+		return(id >= GROUP_BIT);
+	}
+
+	/*
+	 * Station id for printing - letters are printed as characters
+	 * (ids of the original 4 station ring), other ids as numbers,
+	 * group addresses as group:<n> and BROADCAST as *.
+	 */
+	public static String idName(int id)
+	{
+		if(id == BROADCAST) return("*");
+		if(isGroupAddress(id)) return("group:" + (id - GROUP_BIT));
+		if((id >= 'A' && id <= 'Z') || (id >= 'a' && id <= 'z')) return(String.valueOf((char)id));
+		return(Integer.toString(id));
+	}
+
 	/*------------------------------------------------
 	Method: extractMsg
 
 	Parameters:
-	    int index 	- gives index of buffer to process
+	    FrameBuffer buffer - buffer to process
 	    Frame frm	- points to object in which frame components are copied
 
 	Description: 
-	     Extracts a frame from the buffer referenced by index.
+	     Extracts a frame from buffer.
 	     The frame is removed and copied to the object referenced
 	     by frm. Frames with improper destination id are skipped.
+	     The buffer is parsed in place; the position of the frame
+	     in the buffer is left in frameStart and frameEnd so that
+	     it can be forwarded without being rebuilt.
 
 	     Message format: STX D S <message> ETX
 	                     SYN - the token
@@ -197,52 +1411,209 @@ public class TokRing
 	     S gives the ident. of the station that sent the message 
 	     <message> - string of characters
 	     If STX is missing, print an error and skip the message.
+
+	     Binary format:  BFS H F L L D D S S Q Q T T T T A C C <payload>
+	     H gives the header length (the payload starts at H).
+	     F gives the flags - FLAG_TOKEN for the token.
+	     L L gives the length of the payload.
+	     D D and S S give the destination and source idents.
+	     Q Q gives the sequence number - the generation of a token.
+	     T T T T gives the xmit time (0 unless RingMetrics are enabled).
+	     A gives the access control - priority (bits 0-2),
+	     reservation (bits 3-5) and frame status (bit 6 - address
+	     recognised, bit 7 - frame copied, bit 8 - error detected,
+	     bit 9 - frame in error seen by the active monitor).
+	     C C gives the frame check sequence - CRC32C of the frame
+	     without A and C C (see checkFrame()).  Older frames have a
+	     header of 16 characters, without C C.
+	     Fragments have a header of 20 characters, ending with O O -
+	     the offset of the fragment in its message; F has 
+	     FLAG_LAST_FRAG for the last fragment.
+	     A truncated binary frame is reported and discarded.
 	------------------------------------------------*/	
-	private Status extractMsg(int index, Frame frm)
+	private Status extractMsg(FrameBuffer buffer, Frame frm)
 	{
-		   char [] array=buffers[index].toCharArray(); // character array for parsing contents
-		   int i=0;  // index to scan the array
+		   char [] array=buffer.array(); // parsed in place
+		   int i=buffer.start();  // index to scan the array
+		   int end=buffer.end();  // end of the contents
 		   Status retcd = Status.MSG_EMPTY;  // return value 
 		   while(true) // find a message for this station
 		   {
-		      if(i==array.length) // no messages
+		      if(i==end) // no messages
 		      {
 		         retcd = Status.MSG_EMPTY;
-			     buffers[index] = "";  // empties the frame buffer - to deal with corruption
+			     buffer.clear();  // empties the frame buffer - to deal with corruption
 		         break; // break the loop
 		      }
 		      else if(array[i] == SYN) // found the token
 		      {
 		         retcd = Status.MSG_TOK;
+		         frameStart = i;
 		         i++;  // Skip the SYN
-		         // move unread frames to the start of the buffer
-		         buffers[index] = new String(array,i,array.length-i);
+		         frameEnd = i;
+		         buffer.consume(i);  // unread frames start after the token
 		         break;
 		      }
-		      else if(array[i] != STX) // found an error - no STX
+		      else if(array[i] == BFS) // found a binary frame
 		      {
-				  System.out.printf("stn(%c,%d): no STX: >%s<\n",stationId,threadId,new String(array,i,array.length-i));
+		    	  int len = end-i < FCS_POS ? -1 : buffer.intAt(i+LEN_POS);
+		    	  int hdrLen = end-i < FCS_POS ? -1 : array[i+HDR_LEN_POS];
+		    	  if(len < 0 || hdrLen < FCS_POS || end-i-hdrLen < len) 
+		    	  {
+					  RingLog.logf(RingLog.Subsystem.TOKRING, RingLog.Level.ERROR, "stn(%s,%d): truncated binary frame: %d chars",idName(stationId),threadId,end-i);
+		    		  i = end;  // discard the rest of the buffer
+		    		  continue;
+		    	  }
+		    	  frameStart = i;
+		    	  frameEnd = i+hdrLen+len;
+		    	  buffer.consume(frameEnd);  // move past the frame
+		    	  if((array[i+FLAGS_POS] & FLAG_TOKEN) != 0) retcd = Status.MSG_TOK;
+		    	  else
+		    	  {
+		    		  decodeFrame(buffer, frameStart, frameEnd, frm);
+		    		  retcd = Status.MSG_RECV;
+		    	  }
+		    	  break;
+		      }
+		      else if(array[i] != STX || end-i < MSG_POS) // found an error - no STX
+		      {
+				  if(RingLog.isEnabled(RingLog.Subsystem.TOKRING, RingLog.Level.ERROR))
+					  RingLog.logf(RingLog.Subsystem.TOKRING, RingLog.Level.ERROR, "stn(%s,%d): no STX: >%s<",idName(stationId),threadId,new String(array,i,end-i));
 		    	  //System.out.println("stn(" + stationId + "," + this.getId() + 
  			      //       "): no STX: >" + new String(array,i,array.length-i) + "<");
- 	              while(i != array.length && array[i] != ETX && array[i] != STX ) i++; // skip until end or beginning
- 	              if(i != array.length && array[i] == ETX) i++; // Skip the ETX
+		    	  i++;
+ 	              while(i != end && array[i] != ETX && array[i] != STX && array[i] != BFS) i++; // skip until end or beginning
+ 	              if(i != end && array[i] == ETX) i++; // Skip the ETX
 		      }
 		      else // found a message
 		      {
-		    	  frm.setSource(array[i+SRC_POS]);
-		    	  frm.setDest(array[i+DEST_POS]);
-		    	  int j = i+MSG_POS;  // save start of message position
-			      while(i != array.length && array[i] != ETX ) i++; // Find end of the message
-			      if(array[i] == ETX ) frm.setMsg(new String(array, j, i-j));  // Copies message into msg object
-			      else frm.setMsg(new String(array, j, i-j+1));  // must be at the end of the string - should be treated as an error
+		    	  frameStart = i;
+		    	  i += MSG_POS;
+			      while(i != end && array[i] != ETX ) i++; // Find end of the message - if ETX is missing, must be at the end of the buffer - should be treated as an error
 			      // Update frame buffer
-			      if(i != array.length && array[i] == ETX) i++; // Skip the ETX
-				  if(i < array.length) buffers[index] = new String(array, i, array.length - i); // move unread frames to the start of the String
-				  else buffers[index] = "";  // no frames - string is empty.
+			      if(i != end && array[i] == ETX) i++; // Skip the ETX
+			      frameEnd = i;
+			      decodeFrame(buffer, frameStart, frameEnd, frm);
+			      buffer.consume(i);  // move past the frame - unread frames follow
 			      retcd = Status.MSG_RECV;
                   break;
 		      }
 		   }
 		   return(retcd);
 	}
+
+	/*------------------------------------------------
+	Method: decodeFrame
+
+	Parameters:
+	    FrameBuffer buffer - buffer holding the frame
+	    int start, int end - position of the frame in buffer (a
+	                         complete data or Ack frame, either format)
+	    Frame frm - object in which frame components are copied
+
+	Description: 
+	     Copies the components of the frame found by extractMsg() to
+	     frm; frames in the receive queue are decoded again when the
+	     station takes them.  The message is not copied - frm gets a
+	     view of it (see Frame.getPayload()).
+	------------------------------------------------*/	
+	private void decodeFrame(FrameBuffer buffer, int start, int end, Frame frm)
+	{
+		char [] array = buffer.array();
+		if(array[start] == BFS)
+		{
+			int hdrLen = array[start+HDR_LEN_POS];
+			frm.setFlags(array[start+FLAGS_POS]);
+			frm.setDest(buffer.intAt(start+BDEST_POS));
+			frm.setSource(buffer.intAt(start+BSRC_POS));
+			frm.setSeq(buffer.intAt(start+SEQ_POS));
+			frm.setTimestamp(buffer.longAt(start+TS_POS));
+			frm.setPriority(hdrLen > ACC_POS ? array[start+ACC_POS] & PRI_MASK : 0);
+			frm.setPayload(array, start+hdrLen, buffer.intAt(start+LEN_POS));  // view of the message
+		}
+		else
+		{
+			int msgEnd = array[end-1] == ETX ? end-1 : end;
+			frm.setSeq(0);
+			frm.setTimestamp(0);
+			frm.setPriority(0);
+			frm.setSource(array[start+SRC_POS]);
+			frm.setDest(array[start+DEST_POS]);
+			frm.setPayload(array, start+MSG_POS, msgEnd-start-MSG_POS);  // view of the message
+			frm.setFlags(isAckMsg(array, start+MSG_POS, msgEnd-start-MSG_POS) ? FLAG_ACK : FLAG_DATA);
+		}
+	}
+
+	// True if the len characters of array at start are ACK_MSG - text frames have no flags
+	private static boolean isAckMsg(char [] array, int start, int len)
+	{
+		if(len != ACK_MSG.length()) return(false);
+		for(int i = 0 ; i < len ; i++)
+			if(array[start+i] != ACK_MSG.charAt(i)) return(false);
+		return(true);
+	}
+
+	/*
+	 * Fragments of a message received from a source, for a destination
+	 */
+	private static class Reassembly
+	{
+		char [] chars;   // the message so far
+		int next = -1;   // offset of the next fragment, -1 - none expected
+		int seq;         // sequence number of the message
+
+		Reassembly(int size)
+		{
+			chars = new char[size];
+		}
+	}
+
+	/*
+	 * Sequence numbers exchanged with another station (numbers start at 1)
+	 */
+	private static class Peer
+	{
+		int nextSeq = 1;   // sequence number of the next message to the station
+		int acked = 0;     // last message acknowledged by the station
+		int received = 0;  // last message received in order from the station
+		long [] sentAt;    // xmit times of the messages in the window (metrics)
+		String [] msgs;    // messages waiting for an Ack, by sequence number (retransmission)
+		int [] priorities;
+		long deadline;     // time at which they are xmitted again
+
+		// Keeps message seq until it is acknowledged - deadline for the oldest one
+		void keep(int seq, String msg, int priority, int window, long due)
+		{
+			if(msgs == null || seq - acked > msgs.length)
+			{
+				int size = Math.max(window, msgs == null ? 0 : 2 * msgs.length);
+				String [] newMsgs = new String[size];
+				int [] newPriorities = new int[size];
+				for(int s = acked + 1 ; s < seq ; s++)
+				{
+					newMsgs[s % size] = msgs[s % msgs.length];
+					newPriorities[s % size] = priorities[s % msgs.length];
+				}
+				msgs = newMsgs;
+				priorities = newPriorities;
+			}
+			msgs[seq % msgs.length] = msg;
+			priorities[seq % msgs.length] = priority;
+			if(seq == acked + 1) deadline = due;
+		}
+
+		void sent(int seq, int window, long now)
+		{
+			if(sentAt == null) sentAt = new long[window];
+			sentAt[seq % sentAt.length] = now;
+		}
+
+		// Records the round trip time of the messages acknowledged up to seq
+		void acked(int seq, Histogram rtt, long now)
+		{
+			if(sentAt == null) return;
+			for(int s = Math.max(acked + 1, seq - sentAt.length + 1) ; s <= seq ; s++)
+				rtt.record(now - sentAt[s % sentAt.length]);
+		}
+	}
 }
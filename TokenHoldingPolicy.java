@@ -0,0 +1,58 @@
+/*------------------------------------------------------------
+Class: TokenHoldingPolicy
+
+Description:
+   Limits what a station transmits each time it captures the token.
+   The station keeps adding queued frames to its batch while the
+   number of frames, the number of characters and the time since the
+   token was captured are all below their limits.  At least one frame
+   is always transmitted, and frames are never split, so the character
+   limit can be exceeded by the last frame of the batch.  Whatever the
+   limits, a batch is never longer than what the twisted pairs of the
+   ring can hold (see TokRing.setRingCapacity()).
+
+   With early release, the token is transmitted right after the
+   station's frames instead of when the frames come back around the
+   ring.  The default policy transmits one frame per capture and 
+   releases the token when the frame comes back.
+-------------------------------------------------------------*/
+public class TokenHoldingPolicy
+{
+	public final static int UNLIMITED = Integer.MAX_VALUE;
+	private int maxFrames = 1;
+	private int maxChars = UNLIMITED;
+	private long maxNanos = Long.MAX_VALUE;
+	private boolean earlyRelease = false;
+
+	public int getMaxFrames() { return(maxFrames); }
+	public int getMaxChars() { return(maxChars); }
+	public long getMaxNanos() { return(maxNanos); }
+	public boolean isEarlyRelease() { return(earlyRelease); }
+
+	public void setMaxFrames(int frames)
+	{
+		if(frames < 1) throw new IllegalArgumentException("Frame limit must be at least 1: " + frames);
+		maxFrames = frames;
+	}
+	public void setMaxChars(int chars)
+	{
+		if(chars < 1) throw new IllegalArgumentException("Character limit must be at least 1: " + chars);
+		maxChars = chars;
+	}
+	public void setMaxNanos(long nanos)
+	{
+		if(nanos < 0) throw new IllegalArgumentException("Negative token holding time: " + nanos);
+		maxNanos = nanos;
+	}
+	public void setEarlyRelease(boolean early) { earlyRelease = early; }
+
+	/*
+	 * Returns true if another frame may be added to a batch that
+	 * already holds frames frames and chars characters, heldNanos
+	 * after the token was captured.
+	 */
+	public boolean mayContinue(int frames, int chars, long heldNanos)
+	{
+		return(frames < maxFrames && chars < maxChars && heldNanos < maxNanos);
+	}
+}
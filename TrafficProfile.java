@@ -0,0 +1,60 @@
+/*
+ * Interface: TrafficProfile
+ * Description: Source of the messages transmitted by a Station.
+ * The station asks for the destination of the next message and only
+ * takes the message when the TokRing window to that destination is open.
+ * The station asks after receiving messages and each time the token
+ * passes, so a profile can make messages available over time (see
+ * Workload).
+ */
+public interface TrafficProfile
+{
+	public final static int NONE = -1;  // no message to transmit
+
+	/*
+	 * Destination of the next message, NONE if there is no message
+	 * to transmit.
+	 */
+	public int nextDestination();
+	/*
+	 * Returns the next message and moves to the following one.
+	 */
+	public String takeMessage();
+	/*
+	 * True when the profile will never have another message - its
+	 * station's work is done once its messages are acknowledged (see
+	 * RingActivity).  Open ended profiles are never finished.
+	 */
+	public default boolean isFinished()
+	{
+		return(false);
+	}
+	/*
+	 * Length of the longest message the profile can return, -1 if it
+	 * is not known (see RingTopology.Builder.build()).
+	 */
+	public default int maxMessageLength()
+	{
+		return(-1);
+	}
+	/*
+	 * Priority of the next message (see TokRing.xmitMessage()).
+	 */
+	public default int nextPriority()
+	{
+		return(0);
+	}
+	/*
+	 * Called by the station with the clock of its ring.
+	 */
+	public default void setClock(RingClock clock)
+	{
+	}
+	/*
+	 * Called by the station on an Ack from dest - count messages to
+	 * dest have been acknowledged so far.
+	 */
+	public default void acknowledged(int dest, int count)
+	{
+	}
+}
@@ -0,0 +1,87 @@
+/*
+ * Interface: TwistedPair
+ * Description: Common contract for the twisted pair wires carried by a Cable.
+ * One thread transmits across the pair (xmit) and one thread receives from it
+ * (recv).  recv blocks while the pair is empty and returns everything that
+ * has been transmitted since the previous call.
+ *
+ * Two implementations are provided:
+ *    MONITOR - TwistedPairVer1, an unbounded String buffer guarded by the
+ *              Java monitor (synchronized, wait(), notifyAll()).
+ *    RING    - TwistedPairRing, a bounded single-producer/single-consumer
+ *              ring of characters with lock-free publication; threads only
+ *              park when the ring is empty (receiver) or full (transmitter).
+ *    SEGMENT - TwistedPairSegments, a queue of pooled Segments that the
+ *              hub moves from cable to cable without copying them.
+ *    MAPPED  - TwistedPairMapped, a single-producer/single-consumer ring
+ *              in a memory-mapped file, shared by several processes
+ *              (see Cable.mapped()).
+ *    SIMULATED - TwistedPairSim, the pairs of a ring run by a
+ *              RingSimulator on a simulated clock (see Cable.simulated()).
+ * TwistedPairSocket carries the rxPair of a cable over TCP, between
+ * nodes (see Cable.stationEnd()).  TwistedPairFaults wraps the txPair
+ * of a cable to inject faults (see Cable.withFaults()).
+ *
+ * Instead of blocking in recv, a receiver can register a ready listener,
+ * which is run by the transmitting thread after each xmit, and then take
+ * the frames with poll() (see HubEventLoop).  Likewise, instead of 
+ * blocking in xmit, a transmitter can offer() the frames and register a
+ * room listener, run by the receiving thread after each recv.
+ */
+public interface TwistedPair
+{
+	public enum Kind {MONITOR, RING, SEGMENT, MAPPED, SIMULATED};
+
+	/*
+	 * Xmitting across twisted pair - appends msg to the pair.
+	 */
+	public void xmit(String msg) throws InterruptedException;
+	public void xmit(char [] src, int offset, int len) throws InterruptedException;
+	/*
+	 * Xmitting without blocking - returns false, and nothing is 
+	 * xmitted, when a bounded pair does not have room for msg (see
+	 * HubEventLoop).  Pairs that are not bounded, or whose receiver
+	 * cannot run a room listener in this process, xmit msg and return
+	 * true.
+	 */
+	public boolean offer(String msg) throws InterruptedException;
+	/*
+	 * Recving from twisted pair - blocks while empty, then returns and
+	 * removes all characters transmitted so far.
+	 */
+	public String recv() throws InterruptedException;
+	/*
+	 * Recving into a frame buffer - same as recv() but the characters
+	 * are appended to into.
+	 */
+	public void recvInto(FrameBuffer into) throws InterruptedException;
+	/*
+	 * Waits up to nanos for characters to receive, without taking
+	 * them - returns false if the pair is still empty (see the active
+	 * monitor of TokRing).
+	 */
+	public boolean await(long nanos) throws InterruptedException;
+	/*
+	 * Recving without blocking - returns null when the pair is empty.
+	 */
+	public String poll();
+	/*
+	 * Sets the listener run after each xmit (null - no listener).
+	 */
+	public void setReadyListener(Runnable listener);
+	/*
+	 * Sets the listener run by the receiver after each recv, once it has
+	 * made room for a frame refused by offer() (null - no listener).
+	 * Pairs whose offer() never refuses a frame do not run it.
+	 */
+	public void setRoomListener(Runnable listener);
+
+	// twisted pair identifier getter
+	public int getTwistedPairId();
+	// Number of characters the pair can hold (Integer.MAX_VALUE when not limited)
+	public int capacity();
+	// Number of characters transmitted but not yet received
+	public int pending();
+	// True when a transmitter is blocked waiting for room in the pair
+	public boolean isBackPressured();
+}
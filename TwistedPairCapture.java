@@ -0,0 +1,69 @@
+/*
+ * Class to tap twisted pair wires - capture
+ *
+ * Wraps a pair of a captured cable (see Cable.withCapture()): the frames
+ * xmitted on the wrapped pair are recorded in a RingCapture with the
+ * cable id and the direction of the pair, then xmitted as they came.
+ * Recving is not recorded - the frames were recorded when xmitted.
+ * A pair has a single transmitter, so the scratch array needs no lock.
+ */
+public class TwistedPairCapture implements TwistedPair
+{
+	private final TwistedPair pair;      // the wrapped pair
+	private final RingCapture capture;
+	private final int cable;
+	private final int direction;
+	private char [] scratch = new char[256];  // frames xmitted as a String
+
+	public TwistedPairCapture(TwistedPair wrapped, RingCapture cap, int cableId, int dir)
+	{
+		pair = wrapped;
+		capture = cap;
+		cable = cableId;
+		direction = dir;
+	}
+
+	/*---------------------------------------------
+	 * Methods and attributes for recving/xmitting across the twisted pair
+	 -----------------------------------------------*/
+	public void xmit(String msg) throws InterruptedException
+	{
+		int len = msg.length();
+		if(scratch.length < len) scratch = new char[Math.max(len, 2 * scratch.length)];
+		msg.getChars(0, len, scratch, 0);
+		capture.record(cable, direction, scratch, 0, len);
+		pair.xmit(msg);
+	}
+
+	public void xmit(char [] src, int offset, int len) throws InterruptedException
+	{
+		capture.record(cable, direction, src, offset, len);
+		pair.xmit(src, offset, len);
+	}
+
+	// Recorded once the wrapped pair has taken the frames
+	public boolean offer(String msg) throws InterruptedException
+	{
+		if(!pair.offer(msg)) return(false);
+		int len = msg.length();
+		if(scratch.length < len) scratch = new char[Math.max(len, 2 * scratch.length)];
+		msg.getChars(0, len, scratch, 0);
+		capture.record(cable, direction, scratch, 0, len);
+		return(true);
+	}
+	public void setRoomListener(Runnable listener) { pair.setRoomListener(listener); }
+
+	// Recving - from the wrapped pair
+	public String recv() throws InterruptedException { return(pair.recv()); }
+	public void recvInto(FrameBuffer into) throws InterruptedException { pair.recvInto(into); }
+	public boolean await(long nanos) throws InterruptedException { return(pair.await(nanos)); }
+	public String poll() { return(pair.poll()); }
+	public void setReadyListener(Runnable listener) { pair.setReadyListener(listener); }
+
+	public TwistedPair getWrapped() { return(pair); }
+	// twisted pair identifier getter
+	public int getTwistedPairId()  { return pair.getTwistedPairId(); }
+	public int capacity() { return pair.capacity(); }
+	public int pending() { return pair.pending(); }
+	public boolean isBackPressured() { return pair.isBackPressured(); }
+}
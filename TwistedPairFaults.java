@@ -0,0 +1,111 @@
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+/*
+ * Class to simulate faulty twisted pair wires - fault injection
+ *
+ * Wraps the txPair of a station's cable (see Cable.withFaults()): the
+ * frames xmitted by the station are found with TokRing.frameLength()
+ * and each one may be dropped, corrupted or delayed, as given by a
+ * FaultProfile.  The frames without a fault are xmitted to the wrapped
+ * pair as they came, in as few xmits as possible; a corrupted frame is
+ * copied first, so the station's buffers are never changed, and only the
+ * characters that do not delimit it are corrupted (a TEXT token cannot
+ * be corrupted and is xmitted as it is).  Characters
+ * that are not a whole frame are xmitted as they are.
+ *
+ * The hub receives from the wrapped pair through this pair; only the
+ * station's thread xmits, so the random generator needs no lock.
+ */
+public class TwistedPairFaults implements TwistedPair
+{
+	private final static long GOLDEN = 0x9E3779B97F4A7C15L;  // spreads the seeds of the pairs
+	private final TwistedPair pair;      // the wrapped pair
+	private final FaultProfile faults;
+	private final SplittableRandom random;
+	private char [] scratch = new char[64];  // copy of a corrupted frame
+
+	public TwistedPairFaults(TwistedPair wrapped, FaultProfile profile, int cableNum)
+	{
+		pair = wrapped;
+		faults = profile;
+		random = new SplittableRandom(profile.getSeed() ^ (GOLDEN * (cableNum + 1)));
+	}
+
+	/*---------------------------------------------
+	 * Methods and attributes for recving/xmitting across the twisted pair
+	 -----------------------------------------------*/
+	public void xmit(String msg) throws InterruptedException
+	{
+		xmit(msg.toCharArray(), 0, msg.length());
+	}
+
+	/*
+	 * Xmitting across twisted pair - draws a fault for each frame.
+	 */
+	public void xmit(char [] src, int offset, int len) throws InterruptedException
+	{
+		int end = offset + len;
+		int clean = offset;  // first frame not xmitted yet
+		int i = offset;
+		while(i < end)
+		{
+			int frameLen = TokRing.frameLength(src, i, end);
+			if(frameLen <= 0) break;  // not a whole frame
+			double draw = random.nextDouble();
+			if(draw < faults.getDrop() + faults.getCorrupt() + faults.getDelay())
+			{
+				if(i > clean) pair.xmit(src, clean, i - clean);
+				if(draw < faults.getDrop()) faults.dropped();
+				else if(draw < faults.getDrop() + faults.getCorrupt())
+				{
+					int from = TokRing.contentStart(src, i);
+					int to = TokRing.contentEnd(src, i, frameLen);
+					if(to <= from) pair.xmit(src, i, frameLen);
+					else
+					{
+						if(scratch.length < frameLen) scratch = new char[Math.max(frameLen, 2 * scratch.length)];
+						System.arraycopy(src, i, scratch, 0, frameLen);
+						scratch[from - i + random.nextInt(to - from)] ^= (char)(1 << random.nextInt(16));
+						pair.xmit(scratch, 0, frameLen);
+						faults.corrupted();
+					}
+				}
+				else
+				{
+					TimeUnit.NANOSECONDS.sleep(faults.getDelayNanos());
+					pair.xmit(src, i, frameLen);
+					faults.delayed();
+				}
+				clean = i + frameLen;
+			}
+			i += frameLen;
+		}
+		if(end > clean) pair.xmit(src, clean, end - clean);
+	}
+
+	/*
+	 * Only the station xmits on the pair, which is never offered frames
+	 * - the faults are injected as by xmit().
+	 */
+	public boolean offer(String msg) throws InterruptedException
+	{
+		xmit(msg);
+		return(true);
+	}
+	public void setRoomListener(Runnable listener) { pair.setRoomListener(listener); }
+
+	// Recving - from the wrapped pair
+	public String recv() throws InterruptedException { return(pair.recv()); }
+	public void recvInto(FrameBuffer into) throws InterruptedException { pair.recvInto(into); }
+	public boolean await(long nanos) throws InterruptedException { return(pair.await(nanos)); }
+	public String poll() { return(pair.poll()); }
+	public void setReadyListener(Runnable listener) { pair.setReadyListener(listener); }
+
+	public TwistedPair getWrapped() { return(pair); }
+	// twisted pair identifier getter
+	public int getTwistedPairId()  { return pair.getTwistedPairId(); }
+	public int capacity() { return pair.capacity(); }
+	public int pending() { return pair.pending(); }
+	public boolean isBackPressured() { return pair.isBackPressured(); }
+}
@@ -0,0 +1,255 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.CharBuffer;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+ * Class to simulate twisted pair wires - shared memory version
+ *
+ * The pair is a single-producer/single-consumer ring of characters, as
+ * in TwistedPairRing, kept in a region of a memory-mapped file so that
+ * the transmitter and the receiver can be in different processes (see
+ * Cable.mapped()).  Region layout (native byte order):
+ *      0  head     - next position to receive, written by the receiver
+ *     64  tail     - next position to xmit, written by the transmitter
+ *    120  capacity - in characters, a power of two
+ *    124  MAGIC
+ *    128  the characters
+ * head and tail are on separate cache lines and are read and written
+ * with volatile semantics through a VarHandle, so a frame is copied,
+ * then published by advancing tail, without a system call.
+ *
+ * A thread in another process cannot be unparked, so a thread that
+ * cannot proceed spins for a while, then yields, then parks for short
+ * periods and checks again.  The ready listener is only run for
+ * receivers in the transmitter's process.
+ */
+public class TwistedPairMapped implements TwistedPair
+{
+	public final static int MAGIC = 0x544B5250;  // "TKRP"
+	public final static int HEADER = 128;         // bytes before the characters
+	private final static int HEAD_POS = 0;
+	private final static int TAIL_POS = 64;
+	private final static int CAPACITY_POS = 120;
+	private final static int MAGIC_POS = 124;
+	private final static int SPINS = 2000;        // busy spins before yielding
+	private final static int YIELDS = 200;        // yields before parking
+	private final static long PARK_NANOS = 20000;
+	private final static VarHandle LONGS = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+	private static int tpNumbers = 4000;
+	private int tpId;                  // identifier for twisted pair
+	private final ByteBuffer region;   // header and characters
+	private final CharBuffer ring;     // the characters
+	private final int size;            // ring capacity, a power of two
+	private final int mask;
+	private char [] scratch = new char[0];  // for xmitting Strings - transmitter only
+	private volatile boolean transmitterWaiting;
+	private volatile Runnable readyListener;   // run after each xmit
+
+	/*
+	 * Region bytes needed for a pair of capacity characters (rounded up
+	 * to the next power of two).
+	 */
+	public static int regionSize(int capacity)
+	{
+		return(HEADER + 2 * roundCapacity(capacity));
+	}
+
+	private static int roundCapacity(int capacity)
+	{
+		if(capacity <= 0 || capacity > (1 << 29))
+			throw new IllegalArgumentException("Invalid twisted pair capacity: " + capacity);
+		int size = Integer.highestOneBit(capacity);
+		return(size < capacity ? size << 1 : size);
+	}
+
+	/*
+	 * Constructor - buf is a region of regionSize(capacity) bytes (a
+	 * slice of a MappedByteBuffer).  If it does not hold a pair of
+	 * this capacity, it is initialised as an empty pair; otherwise the
+	 * pair is attached to as it is.
+	 */
+	public TwistedPairMapped(ByteBuffer buf, int capacity)
+	{
+		this(buf, capacity, false);
+	}
+
+	/*
+	 * With reset, the pair is always initialised as an empty pair - the
+	 * frames left in the region by a previous ring are discarded.
+	 */
+	public TwistedPairMapped(ByteBuffer buf, int capacity, boolean reset)
+	{
+		size = roundCapacity(capacity);
+		if(buf.capacity() < HEADER + 2 * size)
+			throw new IllegalArgumentException("Region of " + buf.capacity() + " bytes too small for capacity " + size);
+		synchronized(TwistedPairMapped.class) { tpId = TwistedPairMapped.tpNumbers++; }  // Unique identifier
+		region = buf.duplicate().order(ByteOrder.nativeOrder());
+		if(reset || region.getInt(MAGIC_POS) != MAGIC || region.getInt(CAPACITY_POS) != size)
+		{
+			LONGS.setVolatile(region, HEAD_POS, 0L);
+			LONGS.setVolatile(region, TAIL_POS, 0L);
+			region.putInt(CAPACITY_POS, size);
+			region.putInt(MAGIC_POS, MAGIC);
+		}
+		region.position(HEADER);
+		region.limit(HEADER + 2 * size);
+		ring = region.slice().order(ByteOrder.nativeOrder()).asCharBuffer();
+		mask = size - 1;
+	}
+
+	private long head() { return((long)LONGS.getVolatile(region, HEAD_POS)); }
+	private long tail() { return((long)LONGS.getVolatile(region, TAIL_POS)); }
+
+	/*---------------------------------------------
+	 * Methods and attributes for recving/xmitting across the twisted pair
+	 -----------------------------------------------*/
+
+	/*
+	 * Xmitting across twisted pair - blocks while the ring does not have
+	 * room for the whole frame.
+	 */
+	public void xmit(String msg) throws InterruptedException
+	{
+		int len = msg.length();
+		if(scratch.length < len) scratch = new char[Math.max(len, 2 * scratch.length)];
+		msg.getChars(0, len, scratch, 0);
+		xmit(scratch, 0, len);
+	}
+
+	public void xmit(char [] src, int offset, int len) throws InterruptedException
+	{
+		if(len == 0) return;
+		if(len > size)
+			throw new IllegalArgumentException("Frame of " + len + " characters exceeds twisted pair capacity " + size);
+		long t = tail();
+		int spins = 0;
+		while(size - (int)(t - head()) < len)  // not enough room - wait for the receiver
+		{
+			transmitterWaiting = true;
+			spins = backOff(spins);
+		}
+		transmitterWaiting = false;
+		// ---- Copy the frame, wrapping at the end of the ring ------
+		int pos = (int)t & mask;
+		int first = Math.min(len, size - pos);
+		ring.put(pos, src, offset, first);
+		if(first < len) ring.put(0, src, offset + first, len - first);
+		LONGS.setVolatile(region, TAIL_POS, t + len);  // publish
+		//-----------------------------------------------------------
+		Runnable listener = readyListener;
+		if(listener != null) listener.run();
+	}
+
+	/*
+	 * Recving from twisted pair - blocks while the ring is empty.
+	 */
+	public String recv() throws InterruptedException
+	{
+		long h = head();
+		long t = waitForFrames(h);
+		char [] chars = new char[(int)(t - h)];
+		copyOut(h, t, chars, 0);
+		return(new String(chars));
+	}
+
+	public void recvInto(FrameBuffer into) throws InterruptedException
+	{
+		long h = head();
+		long t = waitForFrames(h);
+		int len = (int)(t - h);
+		into.ensureRoom(len);
+		copyOut(h, t, into.array(), into.end());
+		into.appended(len);
+	}
+
+	public boolean await(long nanos) throws InterruptedException
+	{
+		long h = head();
+		long deadline = System.nanoTime() + nanos;
+		int spins = 0;
+		while(tail() == h)
+		{
+			if(System.nanoTime() - deadline >= 0) return(false);
+			spins = backOff(spins);
+		}
+		return(true);
+	}
+
+	public String poll()
+	{
+		long h = head();
+		long t = tail();
+		if(t == h) return(null);
+		char [] chars = new char[(int)(t - h)];
+		copyOut(h, t, chars, 0);
+		return(new String(chars));
+	}
+
+	public void setReadyListener(Runnable listener) { readyListener = listener; }
+
+	/*
+	 * The receiver may be in another process, where it cannot run a 
+	 * room listener - offer() waits for room as xmit() does.
+	 */
+	public boolean offer(String msg) throws InterruptedException
+	{
+		xmit(msg);
+		return(true);
+	}
+
+	public void setRoomListener(Runnable listener) { }  // offer() never refuses
+
+	// Blocks while the ring is empty, returns the tail
+	private long waitForFrames(long h) throws InterruptedException
+	{
+		long t;
+		int spins = 0;
+		while((t = tail()) == h) spins = backOff(spins);
+		return(t);
+	}
+
+	// Copies the characters between h and t to dst, then releases them
+	private void copyOut(long h, long t, char [] dst, int offset)
+	{
+		int len = (int)(t - h);
+		int pos = (int)h & mask;
+		int first = Math.min(len, size - pos);
+		ring.get(pos, dst, offset, first);
+		if(first < len) ring.get(0, dst, offset + first, len - first);
+		LONGS.setVolatile(region, HEAD_POS, t);  // release the space
+	}
+
+	// Spins, yields, then parks for PARK_NANOS - returns the updated spin count
+	private int backOff(int spins) throws InterruptedException
+	{
+		if(spins < SPINS) Thread.onSpinWait();
+		else if(spins < SPINS + YIELDS) Thread.yield();
+		else
+		{
+			long start = System.nanoTime();
+			LockSupport.parkNanos(this, PARK_NANOS);
+			RingMetrics.pairWaited(start);
+		}
+		if(Thread.interrupted())
+		{
+			this.logMsg("terminated");
+			throw new InterruptedException();
+		}
+		return(spins + 1);
+	}
+
+	// twisted pair identifier getter
+	public int getTwistedPairId()  { return tpId; }
+	public int capacity() { return size; }
+	public int pending() { return (int)(tail() - head()); }
+	public boolean isBackPressured() { return transmitterWaiting; }
+
+	// For logging messages
+	private void logMsg(String msg)
+	{
+		RingLog.log(RingLog.Subsystem.PAIR, RingLog.Level.INFO, "TwistedPair ("+tpId+", "+Thread.currentThread().getId()+") "+msg);
+	}
+}
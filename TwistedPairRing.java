@@ -0,0 +1,281 @@
+import java.util.concurrent.locks.LockSupport;
+
+/*
+ * Class to simulate twisted pair wires - bounded ring version
+ *
+ * The pair is a single-producer/single-consumer ring of characters.
+ * The transmitter copies a frame into the ring and publishes it by
+ * advancing the volatile tail counter; the receiver copies everything
+ * between head and tail and releases the space by advancing head.
+ * No lock is taken on either path.  A thread only parks when it cannot
+ * proceed (receiver: ring empty, transmitter: not enough room for the
+ * whole frame) and is unparked by the other side once it has published.
+ *
+ * A frame is always published as a whole so that the receiver never sees
+ * a partial frame; frames longer than the capacity are rejected.
+ * A transmitter that must not block (HubEventLoop) uses offer() and a
+ * room listener, run by the receiver after it has released space.
+ */
+public class TwistedPairRing implements TwistedPair
+{
+	public final static int DEFAULT_CAPACITY = 1 << 16;  // characters
+	private static int tpNumbers = 2000;
+	private int tpId;             // identifier for twisted pair
+	private final char [] ring;   // characters in transit
+	private final int mask;       // ring.length-1, ring length is a power of two
+	private volatile long head;   // next position to receive - written by the receiver only
+	private volatile long tail;   // next position to xmit - written by the transmitter only
+	private volatile Thread parkedReceiver;     // receiver waiting for frames
+	private volatile Thread parkedTransmitter;  // transmitter waiting for room
+	private volatile Runnable readyListener;    // run after each xmit
+	private volatile Runnable roomListener;     // run after each recv
+
+	/**
+	 * Constructor
+	 */
+	public TwistedPairRing()
+	{
+		this(DEFAULT_CAPACITY);
+	}
+
+	/*
+	 * Capacity is rounded up to the next power of two.
+	 */
+	public TwistedPairRing(int capacity)
+	{
+		if(capacity <= 0 || capacity > (1 << 30))
+			throw new IllegalArgumentException("Invalid twisted pair capacity: " + capacity);
+		int size = Integer.highestOneBit(capacity);
+		if(size < capacity) size <<= 1;
+		synchronized(TwistedPairRing.class) { tpId = TwistedPairRing.tpNumbers++; }  // Unique identifier
+		ring = new char[size];
+		mask = size - 1;
+	}
+
+	/*---------------------------------------------
+	 * Methods and attributes for recving/xmitting across the twisted pair
+	 -----------------------------------------------*/
+
+	/*
+	 * Xmitting across twisted pair - blocks while the ring does not have
+	 * room for the whole frame.
+	 */
+	public void xmit(String msg) throws InterruptedException
+	{
+		int len = msg.length();
+		if(len == 0) return;
+		checkLength(len);
+		publish(waitForRoom(len), msg, null, 0, len);
+	}
+
+	public void xmit(char [] src, int offset, int len) throws InterruptedException
+	{
+		if(len == 0) return;
+		checkLength(len);
+		publish(waitForRoom(len), null, src, offset, len);
+	}
+
+	/*
+	 * Xmitting without waiting - false, and nothing xmitted, when the
+	 * ring does not have room for the whole frame.
+	 */
+	public boolean offer(String msg)
+	{
+		int len = msg.length();
+		if(len == 0) return(true);
+		checkLength(len);
+		long t = tail;
+		if(ring.length - (int)(t - head) < len) return(false);
+		publish(t, msg, null, 0, len);
+		return(true);
+	}
+
+	public boolean offer(char [] src, int offset, int len)
+	{
+		if(len == 0) return(true);
+		checkLength(len);
+		long t = tail;
+		if(ring.length - (int)(t - head) < len) return(false);
+		publish(t, null, src, offset, len);
+		return(true);
+	}
+
+	private void checkLength(int len)
+	{
+		if(len > ring.length)
+			throw new IllegalArgumentException("Frame of " + len + " characters exceeds twisted pair capacity " + ring.length);
+	}
+
+	// Copies the frame - msg, or len characters of src from offset - at
+	// t, then publishes it; there is room for it
+	private void publish(long t, String msg, char [] src, int offset, int len)
+	{
+		// ---- Copy the frame, wrapping at the end of the ring ------
+		int pos = (int)t & mask;
+		int first = Math.min(len, ring.length - pos);
+		if(msg != null)
+		{
+			msg.getChars(0, first, ring, pos);
+			if(first < len) msg.getChars(first, len, ring, 0);
+		}
+		else
+		{
+			System.arraycopy(src, offset, ring, pos, first);
+			if(first < len) System.arraycopy(src, offset + first, ring, 0, len - first);
+		}
+		tail = t + len;  // publish
+		//-----------------------------------------------------------
+		published();
+	}
+
+	// Blocks until len characters fit in the ring, returns the tail
+	private long waitForRoom(int len) throws InterruptedException
+	{
+		long t = tail;
+		while(ring.length - (int)(t - head) < len)  // not enough room - wait for the receiver
+		{
+			long start = System.nanoTime();
+			parkedTransmitter = Thread.currentThread();
+			if(ring.length - (int)(t - head) < len) LockSupport.park(this);  // re-check after advertising
+			parkedTransmitter = null;
+			RingMetrics.pairWaited(start);
+			checkInterrupt();
+		}
+		return(t);
+	}
+
+	// Wakes up the receiver after publishing
+	private void published()
+	{
+		Thread waiter = parkedReceiver;
+		if(waiter != null) LockSupport.unpark(waiter);
+		Runnable listener = readyListener;
+		if(listener != null) listener.run();
+	}
+
+	/*
+	 * Recving from twisted pair - blocks while the ring is empty.
+	 */
+	public String recv() throws InterruptedException
+	{
+		long h = head;
+		return(take(h, waitForFrames(h)));
+	}
+
+	/*
+	 * Recving into a frame buffer - blocks while the ring is empty; the 
+	 * characters are copied straight from the ring.
+	 */
+	public void recvInto(FrameBuffer into) throws InterruptedException
+	{
+		long h = head;
+		long t = waitForFrames(h);
+		int len = (int)(t - h);
+		int pos = (int)h & mask;
+		int first = Math.min(len, ring.length - pos);
+		into.append(ring, pos, first);
+		if(first < len) into.append(ring, 0, len - first);
+		head = t;  // release the space
+		released();
+	}
+
+	// Blocks while the ring is empty, returns the tail
+	private long waitForFrames(long h) throws InterruptedException
+	{
+		long t;
+		while((t = tail) == h)  // empty - wait for the transmitter
+		{
+			long start = System.nanoTime();
+			parkedReceiver = Thread.currentThread();
+			if(tail == h) LockSupport.park(this);  // re-check after advertising
+			parkedReceiver = null;
+			RingMetrics.pairWaited(start);
+			checkInterrupt();
+		}
+		return(t);
+	}
+
+	public boolean await(long nanos) throws InterruptedException
+	{
+		long h = head;
+		long deadline = System.nanoTime() + nanos;
+		while(tail == h)
+		{
+			long left = deadline - System.nanoTime();
+			if(left <= 0) return(false);
+			parkedReceiver = Thread.currentThread();
+			if(tail == h) LockSupport.parkNanos(this, left);  // re-check after advertising
+			parkedReceiver = null;
+			checkInterrupt();
+		}
+		return(true);
+	}
+
+	/*
+	 * Recving without waiting - null when the ring is empty.
+	 */
+	public String poll()
+	{
+		long h = head;
+		long t = tail;
+		if(t == h) return(null);
+		return(take(h, t));
+	}
+
+	public void setReadyListener(Runnable listener) { readyListener = listener; }
+
+	public void setRoomListener(Runnable listener) { roomListener = listener; }
+
+	// Copies out the characters between h and t, then releases them
+	private String take(long h, long t)
+	{
+		// ---- Copy out everything published ------------------------
+		int len = (int)(t - h);
+		int pos = (int)h & mask;
+		String msgs;
+		if(pos + len <= ring.length) msgs = new String(ring, pos, len);
+		else
+		{
+			char [] chars = new char[len];
+			int first = ring.length - pos;
+			System.arraycopy(ring, pos, chars, 0, first);
+			System.arraycopy(ring, 0, chars, first, len - first);
+			msgs = new String(chars);
+		}
+		head = t;  // release the space
+		//-----------------------------------------------------------
+		released();
+		return(msgs);
+	}
+
+	// Wakes up the transmitter after releasing space
+	private void released()
+	{
+		Thread waiter = parkedTransmitter;
+		if(waiter != null) LockSupport.unpark(waiter);
+		Runnable listener = roomListener;
+		if(listener != null) listener.run();
+	}
+
+	// LockSupport.park() returns on interrupt without throwing - convert it
+	private void checkInterrupt() throws InterruptedException
+	{
+		if(Thread.interrupted())
+		{
+			this.logMsg("terminated");
+			throw new InterruptedException();
+		}
+	}
+
+	// twisted pair identifier getter
+	public int getTwistedPairId()  { return tpId; }
+	public int capacity() { return ring.length; }
+	public int pending() { return (int)(tail - head); }
+	public boolean isBackPressured() { return parkedTransmitter != null; }
+
+	// For logging messages
+	private void logMsg(String msg)
+	{
+		RingLog.log(RingLog.Subsystem.PAIR, RingLog.Level.INFO, "TwistedPair ("+tpId+", "+Thread.currentThread().getId()+") "+msg);
+	}
+}
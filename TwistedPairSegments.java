@@ -0,0 +1,229 @@
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/*
+ * Class to simulate twisted pair wires - segment version
+ *
+ * The pair is a queue of Segments taken from a SegmentPool.  A station
+ * copies its frames into a segment once; the hub then moves the segment
+ * from the txPair of one cable to the rxPair of the next (see 
+ * Cable.hubForward()) without copying the characters, and the receiving
+ * station copies them into its frame buffer and releases the segment to
+ * the pool.  Per-hop copying in the hub is therefore independent of the
+ * size of the frames.
+ *
+ * The queue is an intrusive multi-producer/single-consumer linked list
+ * (segments are linked through Segment.next) so queueing allocates 
+ * nothing.  The receiver parks while the pair is empty.  The length of 
+ * the pair is not limited.
+ */
+public class TwistedPairSegments implements TwistedPair
+{
+	private static int tpNumbers = 3000;
+	private int tpId;   // identifier for twisted pair
+	private final SegmentPool pool;
+	private final Segment stub = new Segment(0, null);  // keeps the queue non-empty
+	private Segment head = stub;  // next segment to receive - used by the receiver only
+	private final AtomicReference<Segment> tail = new AtomicReference<Segment>(stub);
+	private final AtomicInteger pendingChars = new AtomicInteger();  // counted before queueing
+	private volatile Thread parkedReceiver;     // receiver waiting for segments
+	private volatile Runnable readyListener;    // run after each xmit
+
+	/**
+	 * Constructor
+	 */
+	public TwistedPairSegments(SegmentPool segPool)
+	{
+		synchronized(TwistedPairSegments.class) { tpId = TwistedPairSegments.tpNumbers++; }  // Unique identifier
+		pool = segPool;
+	}
+
+	/*---------------------------------------------
+	 * Methods and attributes for recving/xmitting across the twisted pair
+	 -----------------------------------------------*/
+
+	/*
+	 * Xmitting across twisted pair - the frames are copied to a segment
+	 */
+	public void xmit(String msg)
+	{
+		if(msg.length() == 0) return;
+		Segment seg = pool.acquire(msg.length());
+		seg.set(msg);
+		xmitSegment(seg);
+	}
+
+	public void xmit(char [] src, int offset, int len)
+	{
+		if(len == 0) return;
+		Segment seg = pool.acquire(len);
+		seg.set(src, offset, len);
+		xmitSegment(seg);
+	}
+
+	// The queue of segments is not bounded - the frames always fit
+	public boolean offer(String msg)
+	{
+		xmit(msg);
+		return(true);
+	}
+
+	/*
+	 * Xmitting a segment - ownership of seg passes to the pair
+	 */
+	public void xmitSegment(Segment seg)
+	{
+		pendingChars.addAndGet(seg.length);
+		// ---- Link the segment at the tail ------------------------
+		seg.next = null;
+		Segment prev = tail.getAndSet(seg);
+		prev.next = seg;
+		//-----------------------------------------------------------
+		Thread waiter = parkedReceiver;
+		if(waiter != null) LockSupport.unpark(waiter);
+		Runnable listener = readyListener;
+		if(listener != null) listener.run();
+	}
+
+	/*
+	 * Recving a segment - blocks while the pair is empty.  The caller
+	 * owns the segment and must release it (or xmit it on another pair).
+	 */
+	public Segment recvSegment() throws InterruptedException
+	{
+		Segment seg;
+		while((seg = pollSegment()) == null)
+		{
+			if(pendingChars.get() > 0)  // a transmitter is linking its segment
+			{
+				Thread.onSpinWait();
+				continue;
+			}
+			long start = System.nanoTime();
+			parkedReceiver = Thread.currentThread();
+			if(pendingChars.get() == 0) LockSupport.park(this);  // re-check after advertising
+			parkedReceiver = null;
+			RingMetrics.pairWaited(start);
+			checkInterrupt();
+		}
+		return(seg);
+	}
+
+	/*
+	 * Recving a segment without waiting - null when the pair is empty
+	 */
+	public Segment pollSegment()
+	{
+		Segment h = head;
+		Segment n = h.next;
+		if(h == stub)  // skip the stub
+		{
+			if(n == null) return(null);
+			head = n;
+			h = n;
+			n = n.next;
+		}
+		if(n == null)  // h is the last segment
+		{
+			if(h != tail.get()) return(null);  // a transmitter is linking after h
+			xmitStub();
+			n = h.next;
+			if(n == null) return(null);
+		}
+		head = n;
+		pendingChars.addAndGet(-h.length);
+		return(h);
+	}
+
+	// Links the stub so that the last segment can be removed
+	private void xmitStub()
+	{
+		stub.next = null;
+		Segment prev = tail.getAndSet(stub);
+		prev.next = stub;
+	}
+
+	/*
+	 * Recving from twisted pair - blocks while empty
+	 */
+	public String recv() throws InterruptedException
+	{
+		Segment seg = recvSegment();
+		StringBuilder msgs = new StringBuilder(pendingChars.get() + seg.length);
+		do
+		{
+			msgs.append(seg.data, 0, seg.length);
+			seg.release();
+		} while((seg = pollSegment()) != null);
+		return(msgs.toString());
+	}
+
+	/*
+	 * Recving into a frame buffer - blocks while empty; the segments
+	 * are returned to the pool.
+	 */
+	public void recvInto(FrameBuffer into) throws InterruptedException
+	{
+		Segment seg = recvSegment();
+		do
+		{
+			into.append(seg.data, 0, seg.length);
+			seg.release();
+		} while((seg = pollSegment()) != null);
+	}
+
+	public boolean await(long nanos) throws InterruptedException
+	{
+		long deadline = System.nanoTime() + nanos;
+		while(pendingChars.get() == 0)
+		{
+			long left = deadline - System.nanoTime();
+			if(left <= 0) return(false);
+			parkedReceiver = Thread.currentThread();
+			if(pendingChars.get() == 0) LockSupport.parkNanos(this, left);  // re-check after advertising
+			parkedReceiver = null;
+			checkInterrupt();
+		}
+		return(true);
+	}
+
+	public String poll()
+	{
+		Segment seg = pollSegment();
+		if(seg == null) return(null);
+		StringBuilder msgs = new StringBuilder(pendingChars.get() + seg.length);
+		do
+		{
+			msgs.append(seg.data, 0, seg.length);
+			seg.release();
+		} while((seg = pollSegment()) != null);
+		return(msgs.toString());
+	}
+
+	public void setReadyListener(Runnable listener) { readyListener = listener; }
+	public void setRoomListener(Runnable listener) { }  // offer() never refuses
+
+	// LockSupport.park() returns on interrupt without throwing - convert it
+	private void checkInterrupt() throws InterruptedException
+	{
+		if(Thread.interrupted())
+		{
+			this.logMsg("terminated");
+			throw new InterruptedException();
+		}
+	}
+
+	// twisted pair identifier getter
+	public int getTwistedPairId()  { return tpId; }
+	// The length of the pair is not limited
+	public int capacity() { return Integer.MAX_VALUE; }
+	public int pending() { return pendingChars.get(); }
+	public boolean isBackPressured() { return false; }
+
+	// For logging messages
+	private void logMsg(String msg)
+	{
+		RingLog.log(RingLog.Subsystem.PAIR, RingLog.Level.INFO, "TwistedPair ("+tpId+", "+Thread.currentThread().getId()+") "+msg);
+	}
+}
@@ -0,0 +1,154 @@
+/*
+ * Class to simulate twisted pair wires - simulated time
+ *
+ * Twisted pairs of a ring run by a RingSimulator on a single thread.
+ * The hub is not simulated: the txPair of a station's cable is linked
+ * to the rxPair of the next station's cable (see link()), and the
+ * forwarding by the hub is part of the hop.
+ *
+ * xmit() copies the characters into the pair and asks the simulator
+ * when they arrive - after the characters before them and their own
+ * characters have been serialised at the bandwidth of the hop, plus the
+ * propagation delay.  The simulator calls deliver() at that time, which
+ * moves them to the linked rxPair.  The characters in flight are kept
+ * in a FrameQueue, one entry per xmit, so nothing is allocated per hop.
+ *
+ * recv() never blocks: the stations of a RingSimulator poll (see
+ * TokRing.pollTokenRing()) and receiving from an empty pair is an error.
+ */
+public class TwistedPairSim implements TwistedPair
+{
+	private final static int KEPT_CHARS = 4096;  // larger buffers are dropped when the hop is empty
+	private static int tpNumbers = 6000;
+	private int tpId;                  // identifier for twisted pair
+	private final RingSimulator sim;
+	private int hop = -1;              // txPair - index of the hop in the simulator
+	private TwistedPairSim next;       // txPair - rxPair to which the characters are delivered
+	private FrameQueue inFlight;       // txPair - characters of each xmit not yet delivered
+	private long [] due = new long[16];  // txPair - arrival time of each xmit, circular like the FrameQueue
+	private int dueHead = 0;
+	private long busyUntil = 0;        // txPair - end of the serialisation of the last xmit
+	private final FrameBuffer received = new FrameBuffer(64);  // rxPair - delivered characters
+
+	public TwistedPairSim(RingSimulator simulator)
+	{
+		synchronized(TwistedPairSim.class) { tpId = TwistedPairSim.tpNumbers++; }  // Unique identifier
+		sim = simulator;
+	}
+
+	/*
+	 * Makes the pair the transmitting end of hop, delivering to rx.
+	 */
+	void link(int hopIx, TwistedPairSim rx)
+	{
+		hop = hopIx;
+		next = rx;
+		inFlight = new FrameQueue();
+	}
+
+	/*---------------------------------------------
+	 * Methods and attributes for recving/xmitting across the twisted pair
+	 -----------------------------------------------*/
+
+	/*
+	 * Xmitting across twisted pair - the characters are delivered to the
+	 * linked pair at the arrival time given by the simulator.
+	 */
+	public void xmit(String msg)
+	{
+		xmit(msg.toCharArray(), 0, msg.length());
+	}
+
+	public void xmit(char [] src, int offset, int len)
+	{
+		if(next == null) throw new UnsupportedOperationException("Twisted pair " + tpId + " is not linked");
+		if(len == 0) return;
+		int count = inFlight.size();
+		long start = Math.max(sim.getTime(), busyUntil);
+		busyUntil = start + sim.xmitted(len);
+		long arrival = busyUntil + sim.propagation();
+		if(count > 0) arrival = Math.max(arrival, due[(dueHead + count - 1) & (due.length - 1)]);  // in order
+		if(count == due.length) growDue();
+		due[(dueHead + count) & (due.length - 1)] = arrival;
+		inFlight.add(src, offset, len);
+		if(count == 0) sim.schedule(hop, arrival);
+	}
+
+	/*
+	 * Called by the simulator at the arrival time of the oldest xmit -
+	 * moves its characters to the linked pair and returns the arrival
+	 * time of the next one, -1 if there is none.
+	 */
+	long deliver()
+	{
+		FrameBuffer chars = inFlight.buffer();
+		next.received.append(chars.array(), chars.start(), inFlight.length(0));
+		inFlight.remove(1);
+		dueHead = (dueHead + 1) & (due.length - 1);
+		if(!inFlight.isEmpty()) return(due[dueHead]);
+		// the frames of a ring without serialisation time travel with the
+		// token - each hop would keep a buffer the size of all of them
+		if(chars.array().length > KEPT_CHARS) inFlight = new FrameQueue();
+		return(-1);
+	}
+
+	private void growDue()
+	{
+		long [] bigger = new long[due.length * 2];
+		for(int i = 0 ; i < due.length ; i++) bigger[i] = due[(dueHead + i) & (due.length - 1)];
+		due = bigger;
+		dueHead = 0;
+	}
+
+	/*
+	 * Recving from twisted pair - returns all characters delivered so
+	 * far; the pair must not be empty.
+	 */
+	public String recv()
+	{
+		String msg = poll();
+		if(msg == null) throw new IllegalStateException("Simulated twisted pair " + tpId + " is empty - poll the station");
+		return(msg);
+	}
+
+	public void recvInto(FrameBuffer into)
+	{
+		if(received.isEmpty()) throw new IllegalStateException("Simulated twisted pair " + tpId + " is empty - poll the station");
+		into.append(received.array(), received.start(), received.length());
+		received.clear();
+	}
+
+	// Never waits - simulated time only moves between events
+	public boolean await(long nanos)
+	{
+		return(!received.isEmpty());
+	}
+
+	public String poll()
+	{
+		if(received.isEmpty()) return(null);
+		String msg = received.toString();
+		received.clear();
+		return(msg);
+	}
+
+	// Not bounded - the characters are always taken
+	public boolean offer(String msg)
+	{
+		xmit(msg);
+		return(true);
+	}
+
+	public void setRoomListener(Runnable listener) { }  // offer() never refuses
+
+	public void setReadyListener(Runnable listener)
+	{
+		throw new UnsupportedOperationException("Simulated twisted pairs are delivered by their RingSimulator");
+	}
+
+	// twisted pair identifier getter
+	public int getTwistedPairId()  { return tpId; }
+	public int capacity() { return Integer.MAX_VALUE; }
+	public int pending() { return next != null ? inFlight.chars() : received.length(); }
+	public boolean isBackPressured() { return false; }
+}
@@ -0,0 +1,254 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.SocketChannel;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/*
+ * Class to simulate twisted pair wires - network version
+ *
+ * One end of a twisted pair carried by a TCP connection, so that a
+ * station and the hub thread that transmits to it can be on different
+ * nodes (see Cable.stationEnd() and Cable.hubEnd()).  The connection
+ * carries the characters of the frames, two bytes per character.
+ *
+ * The transmitting end copies the frames into a direct buffer and
+ * writes it to its SocketChannel.  The stations and the hub already
+ * batch their frames (one xmit per token capture or per forward), so a
+ * batch of frames is written with one system call.
+ *
+ * At the receiving end, a SocketSelector thread reads the connection
+ * and xmits the characters into a TwistedPairRing, from which the
+ * station receives as from a local pair (recv() blocks while empty).
+ * A read ends anywhere in a frame, so the characters are carried until
+ * their frames are whole (TokRing.frameLength()): the ring only gets
+ * whole frames.  The selector never blocks on the ring - when the 
+ * frames do not fit, it stops reading the connection (no OP_READ) and
+ * TCP flow control makes the remote transmitter wait.  The room 
+ * listener of the ring resumes reading once the station has received.
+ */
+public class TwistedPairSocket implements TwistedPair
+{
+	private final static int BUFFER_CHARS = 16 * 1024;  // characters per write and per read
+	private static int tpNumbers = 5000;
+	private int tpId;                      // identifier for twisted pair
+	private final SocketChannel channel;
+	private final TwistedPairRing received;  // receiving end - frames read from the channel
+	private ByteBuffer out;                // transmitting end - direct buffer
+	private ByteBuffer in;                 // receiving end - used by the selector thread
+	private char [] carry;                 // receiving end - characters read, not yet in whole frames in the ring
+	private int carried = 0;
+	private int oddByte = -1;              // receiving end - first byte of a character split by a read
+	private SocketSelector selector;       // receiving end - reading the channel
+	private SelectionKey key;              // receiving end - of the channel in the selector
+	private final AtomicBoolean paused = new AtomicBoolean(false);  // not reading - no room in the ring
+	private volatile boolean transmitterWaiting;
+
+	private TwistedPairSocket(SocketChannel ch, TwistedPairRing rcvd)
+	{
+		synchronized(TwistedPairSocket.class) { tpId = TwistedPairSocket.tpNumbers++; }  // Unique identifier
+		channel = ch;
+		received = rcvd;
+	}
+
+	/*
+	 * The transmitting end of a pair - ch is a connected blocking channel.
+	 */
+	public static TwistedPairSocket transmitting(SocketChannel ch)
+	{
+		TwistedPairSocket pair = new TwistedPairSocket(ch, null);
+		pair.out = ByteBuffer.allocateDirect(2 * BUFFER_CHARS);
+		return(pair);
+	}
+
+	/*
+	 * The receiving end of a pair - ch is read by selector; up to
+	 * capacity characters are buffered for the station.
+	 */
+	public static TwistedPairSocket receiving(SocketChannel ch, SocketSelector selector, int capacity) throws IOException
+	{
+		final TwistedPairSocket pair = new TwistedPairSocket(ch, new TwistedPairRing(Math.max(capacity, BUFFER_CHARS)));
+		pair.in = ByteBuffer.allocateDirect(2 * BUFFER_CHARS);
+		pair.carry = new char[pair.received.capacity() + BUFFER_CHARS + 1];
+		pair.selector = selector;
+		pair.received.setRoomListener(new Runnable() {
+			public void run()
+			{
+				if(pair.paused.compareAndSet(true, false)) pair.selector.resume(pair);
+			}
+		});
+		selector.register(ch, pair);
+		return(pair);
+	}
+
+	/*---------------------------------------------
+	 * Methods and attributes for recving/xmitting across the twisted pair
+	 -----------------------------------------------*/
+
+	/*
+	 * Xmitting across twisted pair - blocks while TCP cannot take the
+	 * frames.
+	 */
+	public void xmit(String msg) throws InterruptedException
+	{
+		xmit(msg.toCharArray(), 0, msg.length());
+	}
+
+	public void xmit(char [] src, int offset, int len) throws InterruptedException
+	{
+		if(received != null) throw new UnsupportedOperationException("Receiving end of twisted pair " + tpId);
+		try
+		{
+			while(len > 0)
+			{
+				int n = Math.min(len, BUFFER_CHARS);
+				out.clear();
+				out.asCharBuffer().put(src, offset, n);
+				out.limit(2 * n);
+				transmitterWaiting = true;
+				while(out.hasRemaining()) channel.write(out);
+				transmitterWaiting = false;
+				offset += n;
+				len -= n;
+			}
+		}
+		catch (ClosedByInterruptException ex)
+		{
+			this.logMsg("terminated");
+			throw new InterruptedException();
+		}
+		catch (IOException ex) { throw new UncheckedIOException("Twisted pair " + tpId, ex); }
+	}
+
+	/*
+	 * The receiver is on another node - the transmitting end waits for
+	 * TCP as xmit() does.
+	 */
+	public boolean offer(String msg) throws InterruptedException
+	{
+		xmit(msg);
+		return(true);
+	}
+
+	/*
+	 * Called by the selector thread when the channel can be read -
+	 * returns false at end of stream.
+	 */
+	boolean readChannel() throws IOException
+	{
+		if(carry.length - carried < BUFFER_CHARS + 1)
+			throw new IOException("Frame exceeds twisted pair capacity " + received.capacity());
+		in.clear();
+		int bytes = channel.read(in);
+		if(bytes < 0) return(false);
+		in.flip();
+		if(oddByte >= 0 && in.hasRemaining())
+		{
+			carry[carried++] = (char)((oddByte << 8) | (in.get() & 0xFF));
+			oddByte = -1;
+		}
+		CharBuffer cb = in.asCharBuffer();
+		int whole = cb.remaining();
+		cb.get(carry, carried, whole);
+		carried += whole;
+		in.position(in.position() + 2 * whole);
+		if(in.hasRemaining()) oddByte = in.get() & 0xFF;
+		if(!flush()) pause();
+		return(true);
+	}
+
+	/*
+	 * Called by the selector thread once the station has received from
+	 * a paused pair (see the room listener).
+	 */
+	void resume()
+	{
+		if(flush()) key.interestOps(SelectionKey.OP_READ);
+		else pause();
+	}
+
+	// Called by the selector thread when ch is registered
+	void registered(SelectionKey k) { key = k; }
+
+	/*
+	 * Xmits the whole frames carried that fit in the ring - false if 
+	 * a whole frame is left, for lack of room.  Only the selector 
+	 * thread xmits, so the room cannot shrink.
+	 */
+	private boolean flush()
+	{
+		int room = received.capacity() - received.pending();
+		int end = 0;
+		int len;
+		while(end < carried && (len = TokRing.frameLength(carry, end, carried)) > 0 && len <= room - end) end += len;
+		if(end > 0 && received.offer(carry, 0, end))
+		{
+			carried -= end;
+			System.arraycopy(carry, end, carry, 0, carried);
+		}
+		return(carried == 0 || TokRing.frameLength(carry, 0, carried) < 0);
+	}
+
+	// Stops reading until the room listener resumes the pair
+	private void pause()
+	{
+		key.interestOps(0);
+		paused.set(true);
+		if(flush() && paused.compareAndSet(true, false)) key.interestOps(SelectionKey.OP_READ);  // re-check after advertising
+	}
+
+	/*
+	 * Recving from twisted pair - receiving end only.
+	 */
+	public String recv() throws InterruptedException
+	{
+		return(receivingEnd().recv());
+	}
+
+	public void recvInto(FrameBuffer into) throws InterruptedException
+	{
+		receivingEnd().recvInto(into);
+	}
+
+	public boolean await(long nanos) throws InterruptedException
+	{
+		return(receivingEnd().await(nanos));
+	}
+
+	public String poll()
+	{
+		return(receivingEnd().poll());
+	}
+
+	public void setReadyListener(Runnable listener)
+	{
+		receivingEnd().setReadyListener(listener);
+	}
+
+	// The room listener of the receiving end resumes reading the channel
+	public void setRoomListener(Runnable listener)
+	{
+		if(received != null) throw new UnsupportedOperationException("Receiving end of twisted pair " + tpId);
+	}
+
+	private TwistedPairRing receivingEnd()
+	{
+		if(received == null) throw new UnsupportedOperationException("Transmitting end of twisted pair " + tpId);
+		return(received);
+	}
+
+	// twisted pair identifier getter
+	public int getTwistedPairId()  { return tpId; }
+	public int capacity() { return received != null ? received.capacity() : Integer.MAX_VALUE; }
+	public int pending() { return received != null ? received.pending() : 0; }
+	public boolean isBackPressured() { return received != null ? received.isBackPressured() : transmitterWaiting; }
+
+	// For logging messages
+	private void logMsg(String msg)
+	{
+		RingLog.log(RingLog.Subsystem.PAIR, RingLog.Level.INFO, "TwistedPair ("+tpId+", "+Thread.currentThread().getId()+") "+msg);
+	}
+}
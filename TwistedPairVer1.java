@@ -4,12 +4,13 @@
  * Student: 
  * Student Number:
  */
-public class TwistedPairVer1
+public class TwistedPairVer1 implements TwistedPair
 {
 	private static int tpNumbers = 1000;
 	private int tpId;   // identifier for twisted pair
 	//private final int maxBufLen = 60;  // Maximum size of string to represent xmission accross twisted pair
 	private String buf;   // String to represent a twisted pair xmission, when empty it references an Empty String ""
+	private volatile Runnable readyListener;  // run after each xmit
 	
 	/**
 	 * Constructor
@@ -27,7 +28,27 @@ public class TwistedPairVer1
 	/*
 	 * Xmitting across twisted pair
 	 */
-	public synchronized void xmit(String msg) throws InterruptedException
+	public void xmit(String msg) throws InterruptedException
+	{
+		append(msg);
+		Runnable listener = readyListener;
+		if(listener != null) listener.run();  // outside the monitor
+	}
+
+	public void xmit(char [] src, int offset, int len) throws InterruptedException
+	{
+		xmit(new String(src, offset, len));
+	}
+
+	// Length is not limited - the frames always fit
+	public boolean offer(String msg) throws InterruptedException
+	{
+		xmit(msg);
+		return(true);
+	}
+
+	// Adds msg to the buffer under the monitor
+	private synchronized void append(String msg)
 	{
 		// Can we xmit?
 		
@@ -59,6 +80,7 @@ public class TwistedPairVer1
 		
 		while (buf == "")
 		{	
+			long start = System.nanoTime();
 			try
 			{
 				wait();
@@ -68,6 +90,7 @@ public class TwistedPairVer1
 				 this.logMsg("terminated"); //log that an interrupt occurred at this level
 				 throw ex; //This needs to be handled further up (in the worker method) so we re-throw the error
 			}
+			RingMetrics.pairWaited(start);
 		}
 
 		// ---- Critical Section ------------------------------------
@@ -78,14 +101,56 @@ public class TwistedPairVer1
 		return(msgs);
 	}
 	
+	public void recvInto(FrameBuffer into) throws InterruptedException
+	{
+		into.append(recv());
+	}
+
+	public synchronized boolean await(long nanos) throws InterruptedException
+	{
+		long deadline = System.nanoTime() + nanos;
+		while (buf == "")
+		{
+			long left = deadline - System.nanoTime();
+			if(left <= 0) return(false);
+			try
+			{
+				wait(left / 1000000, (int)(left % 1000000));
+			}
+			catch (InterruptedException ex) 
+			{
+				 this.logMsg("terminated");
+				 throw ex;
+			}
+		}
+		return(true);
+	}
+
+	/*
+	 * Recving without waiting - null when the buffer is empty
+	 */
+	public synchronized String poll()
+	{
+		if(buf == "") return(null);
+		String msgs = buf;
+		buf = "";
+		return(msgs);
+	}
+
+	public void setReadyListener(Runnable listener) { readyListener = listener; }
+	public void setRoomListener(Runnable listener) { }  // offer() never refuses
+
 	// twisted pair identifier getter
 	public int getTwistedPairId()  { return tpId; }
+	// For this version, length is not limited and xmit never blocks
+	public int capacity() { return Integer.MAX_VALUE; }
+	public synchronized int pending() { return buf.length(); }
+	public boolean isBackPressured() { return false; }
 	
 	// For logging messages
 	
 	private void logMsg(String msg)
 	{
-		System.out.println("TwistedPair ("+tpId+", "+Thread.currentThread().getId()+") "+msg);
-		System.out.flush();
+		RingLog.log(RingLog.Subsystem.PAIR, RingLog.Level.INFO, "TwistedPair ("+tpId+", "+Thread.currentThread().getId()+") "+msg);
 	}
 }
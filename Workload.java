@@ -0,0 +1,393 @@
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Properties;
+import java.util.SplittableRandom;
+
+/*------------------------------------------------------------
+Class: Workload
+
+Description:
+   Describes the traffic generated by the stations of a load test, and
+   creates the TrafficProfile of each station (station()).  Messages
+   arrive at each station following an arrival model:
+      CONSTANT - at a fixed rate (messages per second per station)
+      POISSON  - at random, exponential times between arrivals, with
+                 the same mean rate
+      CLOSED   - each station keeps concurrency messages in the system:
+                 a message arrives think nanoseconds after the Ack of a
+                 previous one
+   Their payload sizes follow a Sizes distribution and their
+   destinations a pattern:
+      ALL_TO_ALL - any other station, at random
+      HOTSPOT    - the hotspot station for a fraction of the messages,
+                   any other station for the others
+      NEIGHBOUR  - the next station on the ring
+
+      Workload load = new Workload()
+                          .arrivals(Workload.Arrivals.POISSON)
+                          .rate(500)
+                          .sizes(Workload.Sizes.parse("UNIFORM:16-256"))
+                          .destinations(Workload.Destinations.HOTSPOT)
+                          .hotspot(1000, 0.2)
+                          .seed(42);
+      for(int i = 0 ; i < ids.length ; i++) bld.station(ids[i], load.station(ids, i));
+
+   Arrivals wait in a backlog of the station until the TokRing window to
+   their destination is open; arrivals to a full backlog are dropped.
+   The generators are polled by their Station (each time the token
+   passes), so they follow the clock of the ring - the system clock, or
+   the simulated clock of a RingSimulator.  Each station has its own
+   random generator, derived from the seed and its index, so that
+   simulated runs are reproducible.  Results are recorded in the
+   LoadReport.
+-------------------------------------------------------------*/
+public class Workload
+{
+	public enum Arrivals {CONSTANT, POISSON, CLOSED};
+	public enum Destinations {ALL_TO_ALL, HOTSPOT, NEIGHBOUR};
+	public final static int MAX_BACKLOG = 1 << 16;  // messages waiting at a station
+
+	private Arrivals arrivals = Arrivals.POISSON;
+	private double rate = 100;       // messages per second per station (open models)
+	private int concurrency = 1;     // messages per station in the system (CLOSED)
+	private long thinkNanos = 0;     // time between an Ack and the next arrival (CLOSED)
+	private Sizes sizes = new Sizes(Sizes.Kind.FIXED, 32, 32);
+	private Destinations destinations = Destinations.ALL_TO_ALL;
+	private int hotspot = TrafficProfile.NONE;
+	private double hotFraction = 0;
+	private int priority = 0;
+	private long seed = 1;
+	private final String [] payloads = new String[Sizes.MAX_SIZE + 1];  // payload of each size, created on first use
+
+	public Workload arrivals(Arrivals model)
+	{
+		arrivals = model;
+		return(this);
+	}
+
+	public Workload rate(double perSecond)
+	{
+		if(perSecond <= 0) throw new IllegalArgumentException("Arrival rate must be positive: " + perSecond);
+		rate = perSecond;
+		return(this);
+	}
+
+	// Messages per station in the system, and think time - CLOSED model
+	public Workload closedLoop(int messages, long think)
+	{
+		if(messages < 1 || think < 0) throw new IllegalArgumentException("Invalid closed loop: " + messages + ", " + think);
+		concurrency = messages;
+		thinkNanos = think;
+		return(this);
+	}
+
+	public Workload sizes(Sizes dist)
+	{
+		sizes = dist;
+		return(this);
+	}
+
+	public Workload destinations(Destinations pattern)
+	{
+		destinations = pattern;
+		return(this);
+	}
+
+	// The hotspot station and the fraction of the messages sent to it
+	public Workload hotspot(int id, double fraction)
+	{
+		if(fraction < 0 || fraction > 1) throw new IllegalArgumentException("Hotspot fraction must be 0 to 1: " + fraction);
+		hotspot = id;
+		hotFraction = fraction;
+		return(this);
+	}
+
+	public Workload priority(int pri)
+	{
+		if(pri < 0 || pri >= TokRing.PRIORITIES)
+			throw new IllegalArgumentException("Priority must be 0 to " + (TokRing.PRIORITIES-1) + ": " + pri);
+		priority = pri;
+		return(this);
+	}
+
+	public Workload seed(long sd)
+	{
+		seed = sd;
+		return(this);
+	}
+
+	/*
+	 * The traffic of station ids[ix] of a ring whose stations are ids.
+	 */
+	public TrafficProfile station(int [] ids, int ix)
+	{
+		if(destinations == Destinations.HOTSPOT && hotspot == TrafficProfile.NONE)
+			throw new IllegalArgumentException("HOTSPOT destinations need a hotspot station");
+		if(ids.length < 2) throw new IllegalArgumentException("A workload needs at least 2 stations");
+		return(new Generator(ids, ix));
+	}
+
+	// Payload of len characters - shared by all messages of that size
+	private String payload(int len)
+	{
+		String msg = payloads[len];
+		if(msg == null)
+		{
+			char [] chars = new char[len];
+			Arrays.fill(chars, 'x');
+			msg = new String(chars);
+			payloads[len] = msg;
+		}
+		return(msg);
+	}
+
+	/*-------------------------------------------------------------
+	Method: parse
+	Parameters: Properties props
+	Returns: the workload described by props, null if traffic.model
+	         is missing or FIXED (see RingTopology.load())
+	Description:
+	    Reads the following keys, and sets the phases of the
+	    LoadReport:
+	      traffic.model          CONSTANT, POISSON or CLOSED
+	      traffic.rate           messages per second per station
+	      traffic.concurrency    messages per station in the system (CLOSED)
+	      traffic.thinkMicros    time between an Ack and the next arrival (CLOSED)
+	      traffic.size           FIXED:n, UNIFORM:min-max or EXPONENTIAL:mean
+	      traffic.dest           ALL_TO_ALL, HOTSPOT or NEIGHBOUR
+	      traffic.hotspot        id of the hotspot station
+	      traffic.hotspot.fraction  fraction of the messages sent to it
+	      traffic.priority       priority of the messages
+	      traffic.seed           seed of the random generators
+	      traffic.warmupMillis   length of the warm-up phase
+	      traffic.measureMillis  length of the measurement phase
+	-------------------------------------------------------------*/
+	static Workload parse(Properties props)
+	{
+		String model = props.getProperty("traffic.model", "FIXED").trim().toUpperCase();
+		if(model.equals("FIXED")) return(null);
+		Workload load = new Workload().arrivals(Arrivals.valueOf(model));
+		String value;
+		if((value = props.getProperty("traffic.rate")) != null) load.rate(Double.parseDouble(value.trim()));
+		if(load.arrivals == Arrivals.CLOSED)
+			load.closedLoop(Integer.parseInt(props.getProperty("traffic.concurrency", "1").trim()),
+			                Long.parseLong(props.getProperty("traffic.thinkMicros", "0").trim()) * 1000);
+		if((value = props.getProperty("traffic.size")) != null) load.sizes(Sizes.parse(value));
+		if((value = props.getProperty("traffic.dest")) != null) load.destinations(Destinations.valueOf(value.trim().toUpperCase()));
+		if((value = props.getProperty("traffic.hotspot")) != null)
+			load.hotspot(RingTopology.parseId(value), Double.parseDouble(props.getProperty("traffic.hotspot.fraction", "0.5").trim()));
+		if((value = props.getProperty("traffic.priority")) != null) load.priority(Integer.parseInt(value.trim()));
+		if((value = props.getProperty("traffic.seed")) != null) load.seed(Long.parseLong(value.trim()));
+		LoadReport.get().configure(Long.parseLong(props.getProperty("traffic.warmupMillis", "0").trim()) * 1000000,
+		                           Long.parseLong(props.getProperty("traffic.measureMillis", "0").trim()) * 1000000);
+		return(load);
+	}
+
+	/*-------------------------------------------------------------
+	Class: Sizes
+	Description:
+	    Distribution of the payload sizes, in characters:
+	      FIXED       - always min
+	      UNIFORM     - min to max
+	      EXPONENTIAL - mean min, at most max
+	-------------------------------------------------------------*/
+	public static class Sizes
+	{
+		public enum Kind {FIXED, UNIFORM, EXPONENTIAL};
+		public final static int MAX_SIZE = 65535;
+		private final Kind kind;
+		private final int min;
+		private final int max;
+
+		public Sizes(Kind knd, int mn, int mx)
+		{
+			if(mn < 0 || mx < mn || mx > MAX_SIZE) throw new IllegalArgumentException("Invalid payload sizes: " + mn + "-" + mx);
+			kind = knd;
+			min = mn;
+			max = mx;
+		}
+
+		/*
+		 * FIXED:n, UNIFORM:min-max or EXPONENTIAL:mean (at most
+		 * 8 times the mean).
+		 */
+		public static Sizes parse(String str)
+		{
+			String [] parts = str.trim().split(":");
+			Kind knd = Kind.valueOf(parts[0].trim().toUpperCase());
+			if(parts.length != 2) throw new IllegalArgumentException("Payload sizes must be " + knd + ":<sizes> - " + str);
+			String [] range = parts[1].split("-");
+			int first = Integer.parseInt(range[0].trim());
+			if(knd == Kind.UNIFORM) return(new Sizes(knd, first, Integer.parseInt(range[range.length - 1].trim())));
+			if(knd == Kind.EXPONENTIAL) return(new Sizes(knd, first, Math.min(MAX_SIZE, 8 * first)));
+			return(new Sizes(knd, first, first));
+		}
+
+		int next(SplittableRandom rnd)
+		{
+			if(kind == Kind.UNIFORM) return(rnd.nextInt(min, max + 1));
+			if(kind == Kind.EXPONENTIAL) return((int)Math.min(max, Math.round(-min * Math.log(1 - rnd.nextDouble()))));
+			return(min);
+		}
+	}
+
+	/*
+	 * Traffic of one station.  Arrival times wait in the backlog; the
+	 * arrival times of the messages sent to each destination wait for
+	 * their Ack in a queue of that destination.
+	 */
+	private class Generator implements TrafficProfile
+	{
+		private final int [] ids;
+		private final int self;
+		private final SplittableRandom random;
+		private RingClock clock = RingClock.SYSTEM;
+		private long nextArrival = Long.MIN_VALUE;  // open models - Long.MIN_VALUE until the first poll
+		private final TimeQueue backlog = new TimeQueue();   // arrival times
+		private final TimeQueue thinking = new TimeQueue();  // CLOSED - arrival times after think times
+		private int headDest = NONE;   // destination of the first message of the backlog
+		private final HashMap<Integer,DestState> sent = new HashMap<Integer,DestState>();
+
+		Generator(int [] stationIds, int ix)
+		{
+			ids = stationIds;
+			self = ix;
+			random = new SplittableRandom(seed ^ (0x9E3779B97F4A7C15L * (ix + 1)));
+		}
+
+		public void setClock(RingClock clk) { clock = clk; }
+		public int maxMessageLength() { return(sizes.max); }
+
+		public int nextDestination()
+		{
+			long now = clock.nanoTime();
+			LoadReport.get().phase(now);
+			arrive(now);
+			if(backlog.isEmpty()) return(NONE);
+			if(headDest == NONE) headDest = destination();
+			return(headDest);
+		}
+
+		public String takeMessage()
+		{
+			long now = clock.nanoTime();
+			DestState dest = sent.get(headDest);
+			if(dest == null)
+			{
+				dest = new DestState();
+				sent.put(headDest, dest);
+			}
+			dest.waiting.add(backlog.remove());
+			headDest = NONE;
+			int len = sizes.next(random);
+			LoadReport.get().sent(now, len);
+			return(payload(len));
+		}
+
+		public int nextPriority()
+		{
+			return(priority);
+		}
+
+		public void acknowledged(int dest, int count)
+		{
+			DestState state = sent.get(dest);
+			if(state == null) return;
+			long now = clock.nanoTime();
+			while(state.acked < count && !state.waiting.isEmpty())
+			{
+				LoadReport.get().completed(now, state.waiting.remove());
+				state.acked++;
+				if(arrivals == Arrivals.CLOSED) thinking.add(now + thinkNanos);
+			}
+		}
+
+		// Moves the arrivals up to now to the backlog
+		private void arrive(long now)
+		{
+			if(arrivals == Arrivals.CLOSED)
+			{
+				if(nextArrival == Long.MIN_VALUE)  // first poll - the messages in the system
+				{
+					nextArrival = now;
+					for(int i = 0 ; i < concurrency ; i++) thinking.add(now);
+				}
+				while(!thinking.isEmpty() && thinking.peek() <= now) queue(thinking.remove());
+				return;
+			}
+			if(nextArrival == Long.MIN_VALUE) nextArrival = now + interval();
+			while(nextArrival <= now)
+			{
+				queue(nextArrival);
+				nextArrival += interval();
+			}
+		}
+
+		private void queue(long arrival)
+		{
+			if(backlog.size() >= MAX_BACKLOG) LoadReport.get().dropped(arrival);
+			else
+			{
+				backlog.add(arrival);
+				LoadReport.get().arrived(arrival);
+			}
+		}
+
+		// Time to the next arrival - open models
+		private long interval()
+		{
+			double mean = 1e9 / rate;
+			if(arrivals == Arrivals.POISSON) return(Math.max(1, Math.round(-mean * Math.log(1 - random.nextDouble()))));
+			return(Math.max(1, Math.round(mean)));
+		}
+
+		private int destination()
+		{
+			int n = ids.length;
+			if(destinations == Destinations.NEIGHBOUR) return(ids[(self + 1) % n]);
+			if(destinations == Destinations.HOTSPOT && ids[self] != hotspot && random.nextDouble() < hotFraction) return(hotspot);
+			int ix = random.nextInt(n - 1);
+			return(ids[ix >= self ? ix + 1 : ix]);
+		}
+	}
+
+	// Messages sent to a destination and waiting for their Ack
+	private static class DestState
+	{
+		final TimeQueue waiting = new TimeQueue();  // arrival times
+		int acked = 0;   // messages acknowledged so far
+	}
+
+	// FIFO of times - circular array of longs
+	private static class TimeQueue
+	{
+		private long [] times = new long[16];  // length is a power of two
+		private int head = 0;
+		private int count = 0;
+
+		boolean isEmpty() { return(count == 0); }
+		int size() { return(count); }
+		long peek() { return(times[head]); }
+
+		void add(long time)
+		{
+			if(count == times.length)
+			{
+				long [] bigger = new long[times.length * 2];
+				for(int i = 0 ; i < count ; i++) bigger[i] = times[(head + i) & (times.length - 1)];
+				times = bigger;
+				head = 0;
+			}
+			times[(head + count) & (times.length - 1)] = time;
+			count++;
+		}
+
+		long remove()
+		{
+			long time = times[head];
+			head = (head + 1) & (times.length - 1);
+			count--;
+			return(time);
+		}
+	}
+}